@@ -0,0 +1,167 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**查询各阶段耗时，注册到 Micrometer 全局 registry，Spring Boot Actuator 通过 /actuator/prometheus 暴露
+ * <br > 按 phase、service_path、table 打标签，table 为表别名，多个表时为 {@link #MULTI}，见 {@link #table(List)}
+ * <br > 请求入口在权限校验通过后调用 {@link #begin(String, String)}，之后同一线程内记录的阶段自动带上 service_path，结束时调用 {@link #end()}
+ * <br > 标签组合超过 {@link #MAX_SERIES} 后新的组合都计入 table 为 {@link #OTHER} 的序列，避免 registry 无限增长
+ */
+public class QueryMetrics {
+
+	public static final String TIMER = "apijson.query.phase";
+	public static final String CACHE_COUNTER = "apijson.query.cache";
+
+	public static final String TOKEN_CHECK = "token_check";
+	public static final String CONFIG_LOAD = "config_load";
+	public static final String CACHE_LOOKUP = "cache_lookup";
+	public static final String SQL_GENERATE = "sql_generate";
+	public static final String JDBC_EXECUTE = "jdbc_execute";
+	public static final String ROW_MAPPING = "row_mapping";
+	public static final String SERIALIZE = "serialize";
+	public static final String ACCESS_HISTORY = "access_history";
+
+	public static final String CACHE_NEAR_HIT = "near_hit";
+	public static final String CACHE_REMOTE_HIT = "remote_hit";
+	public static final String CACHE_SHARED = "shared";
+	public static final String CACHE_MISS = "miss";
+
+	public static final String MULTI = "multi";
+	public static final String OTHER = "other";
+
+	/**每种指标最多注册的标签组合数量
+	 */
+	public static final int MAX_SERIES = 1000;
+
+	private static final String NONE = "none";
+	private static final Duration[] SLO = {
+			Duration.ofMillis(5), Duration.ofMillis(20), Duration.ofMillis(100), Duration.ofMillis(500),
+			Duration.ofSeconds(1), Duration.ofSeconds(5), Duration.ofSeconds(30)
+	};
+
+	private static final ThreadLocal<String[]> CONTEXT = new ThreadLocal<>();
+	private static final Map<String, Timer> TIMER_MAP = new ConcurrentHashMap<>();
+	private static final Map<String, Counter> COUNTER_MAP = new ConcurrentHashMap<>();
+
+	/**开始一次请求，只在权限校验通过后调用，标签值不能直接取未校验的客户端输入
+	 * @param servicePath
+	 * @param table 表别名，多个表用 {@link #table(List)} 转换，可为 null
+	 */
+	public static void begin(String servicePath, String table) {
+		CONTEXT.set(new String[] {servicePath, table});
+	}
+
+	/**多个表的请求不按表别名组合打标签，统一为 {@link #MULTI}
+	 * @param tableList 表别名
+	 * @return
+	 */
+	public static String table(List<String> tableList) {
+		if (tableList == null || tableList.isEmpty()) {
+			return null;
+		}
+		return tableList.size() == 1 ? tableList.get(0) : MULTI;
+	}
+
+	public static void end() {
+		CONTEXT.remove();
+	}
+
+	public static String getServicePath() {
+		String[] context = CONTEXT.get();
+		return context == null ? null : context[0];
+	}
+
+	public static String getTable() {
+		String[] context = CONTEXT.get();
+		return context == null ? null : context[1];
+	}
+
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	/**记录阶段耗时，table 取 {@link #begin(String, String)} 传入的值，同一请求的各阶段 table 标签一致
+	 * @param phase
+	 * @param startNanos {@link #start()} 的返回值
+	 */
+	public static void record(String phase, long startNanos) {
+		getTimer(phase, getServicePath(), getTable()).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**记录查询结果缓存的命中情况
+	 * @param result {@link #CACHE_NEAR_HIT}, {@link #CACHE_REMOTE_HIT}, {@link #CACHE_SHARED}, {@link #CACHE_MISS}
+	 */
+	public static void countCache(String result) {
+		String servicePath = tag(getServicePath());
+		String table = tag(getTable());
+		String key = result + "\u0001" + servicePath + "\u0001" + table;
+		Counter counter = COUNTER_MAP.get(key);
+		if (counter == null) {
+			String t = COUNTER_MAP.size() < MAX_SERIES ? table : OTHER;
+			key = result + "\u0001" + servicePath + "\u0001" + t;
+			counter = COUNTER_MAP.computeIfAbsent(key, k -> Counter.builder(CACHE_COUNTER)
+					.tag("result", result)
+					.tag("service_path", servicePath)
+					.tag("table", t)
+					.register(Metrics.globalRegistry));
+		}
+		counter.increment();
+	}
+
+	/**注册瞬时值，例如队列长度
+	 * @param name
+	 * @param obj 被弱引用，需在别处保持引用
+	 * @param function
+	 */
+	public static <T> void gauge(String name, T obj, ToDoubleFunction<T> function) {
+		Gauge.builder(name, obj, function).register(Metrics.globalRegistry);
+	}
+
+	/**注册单调递增的计数，例如写入、丢弃的条数
+	 * @param name
+	 * @param obj 被弱引用，需在别处保持引用
+	 * @param function
+	 */
+	public static <T> void counter(String name, T obj, ToDoubleFunction<T> function) {
+		FunctionCounter.builder(name, obj, function).register(Metrics.globalRegistry);
+	}
+
+	private static Timer getTimer(String phase, String servicePath, String table) {
+		String sp = tag(servicePath);
+		String key = phase + "\u0001" + sp + "\u0001" + tag(table);
+		Timer timer = TIMER_MAP.get(key);
+		if (timer == null) {
+			String t = TIMER_MAP.size() < MAX_SERIES ? tag(table) : OTHER;
+			key = phase + "\u0001" + sp + "\u0001" + t;
+			// 只发布固定的几个分桶，不用 publishPercentileHistogram，每个序列的桶数有上限
+			timer = TIMER_MAP.computeIfAbsent(key, k -> Timer.builder(TIMER)
+					.tag("phase", phase)
+					.tag("service_path", sp)
+					.tag("table", t)
+					.serviceLevelObjectives(SLO)
+					.register(Metrics.globalRegistry));
+		}
+		return timer;
+	}
+
+	private static String tag(String value) {
+		return value == null || value.isEmpty() ? NONE : value;
+	}
+
+}
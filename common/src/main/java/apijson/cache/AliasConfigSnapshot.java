@@ -0,0 +1,138 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.cache;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import apijson.Log;
+import apijson.NotNull;
+import apijson.orm.AbstractSQLConfig;
+
+/**表别名、列别名配置快照，不可变，整体替换
+ * <br > 替换 {@link AbstractSQLConfig#TABLE_KEY_MAP} 和 {@link AbstractSQLConfig#tableColumnMap} 时只换引用，不 clear，
+ * 正在执行的请求继续使用旧快照
+ * <br > 多实例间通过版本号同步，版本号没变化时不重新加载
+ */
+public class AliasConfigSnapshot {
+	private static final String TAG = "AliasConfigSnapshot";
+
+	/**配置来源，一般是 Redis，实现类需自己处理异常，失败时返回 null
+	 */
+	public interface Source {
+		Long getVersion();
+
+		Map<String, String> getTableKeyMap();
+
+		Map<String, Map<String, String>> getTableColumnMap();
+	}
+
+	public static final AliasConfigSnapshot EMPTY = new AliasConfigSnapshot(-1, new HashMap<>(), new HashMap<>(), null);
+
+	private static volatile AliasConfigSnapshot current = EMPTY;
+	private static final AtomicLong LAST_CHECK_TIME = new AtomicLong();
+
+	private final long version;
+	private final Map<String, String> tableKeyMap;
+	private final Map<String, Map<String, String>> tableColumnMap;
+	/**Table_info.id -> [TABLE_KEY_MAP 中的 key, tableColumnMap 中 key 的前缀]，用于按表增量刷新
+	 * <br > 从 Source 同步来的快照没有这个索引，为 null
+	 */
+	private final Map<Integer, String[]> tableIndex;
+
+	private AliasConfigSnapshot(long version, @NotNull Map<String, String> tableKeyMap, @NotNull Map<String, Map<String, String>> tableColumnMap, Map<Integer, String[]> tableIndex) {
+		this.version = version;
+		this.tableIndex = tableIndex == null ? null : Collections.unmodifiableMap(new HashMap<>(tableIndex));
+		this.tableKeyMap = Collections.unmodifiableMap(new HashMap<>(tableKeyMap));
+
+		Map<String, Map<String, String>> columnMap = new HashMap<>(tableColumnMap.size());
+		for (Map.Entry<String, Map<String, String>> entry : tableColumnMap.entrySet()) {
+			columnMap.put(entry.getKey(), entry.getValue() == null ? null : Collections.unmodifiableMap(new HashMap<>(entry.getValue())));
+		}
+		this.tableColumnMap = Collections.unmodifiableMap(columnMap);
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public Map<String, String> getTableKeyMap() {
+		return tableKeyMap;
+	}
+
+	public Map<String, Map<String, String>> getTableColumnMap() {
+		return tableColumnMap;
+	}
+
+	public Map<Integer, String[]> getTableIndex() {
+		return tableIndex;
+	}
+
+	@NotNull
+	public static AliasConfigSnapshot getCurrent() {
+		return current;
+	}
+
+	/**替换当前快照，版本号以 source 为准，不比较大小，Redis 计数器被重置后也能同步
+	 * @param version 本地加载(loadAliasConfig)时传 {@link #getCurrent()}.getVersion()
+	 * @param tableKeyMap
+	 * @param tableColumnMap
+	 * @return 是否替换
+	 */
+	public static boolean apply(long version, Map<String, String> tableKeyMap, Map<String, Map<String, String>> tableColumnMap) {
+		return apply(version, tableKeyMap, tableColumnMap, null);
+	}
+
+	/**替换当前快照
+	 * @param version
+	 * @param tableKeyMap
+	 * @param tableColumnMap
+	 * @param tableIndex 本地从数据库加载时传入，用于按表增量刷新
+	 * @return 是否替换
+	 */
+	public static synchronized boolean apply(long version, Map<String, String> tableKeyMap, Map<String, Map<String, String>> tableColumnMap, Map<Integer, String[]> tableIndex) {
+		if (tableKeyMap == null || tableColumnMap == null) {
+			return false;
+		}
+		AliasConfigSnapshot snapshot = new AliasConfigSnapshot(version, tableKeyMap, tableColumnMap, tableIndex);
+		current = snapshot;
+		AbstractSQLConfig.TABLE_KEY_MAP = snapshot.tableKeyMap;
+		AbstractSQLConfig.tableColumnMap = snapshot.tableColumnMap;
+		// 缓存的 SQL 里是旧的真实表名、列名
+		SQLPlanCache.invalidateAll();
+		Log.i(TAG, "apply  version = " + version + "; tableKeyMap.size() = " + tableKeyMap.size() + "; tableColumnMap.size() = " + tableColumnMap.size());
+		return true;
+	}
+
+	/**版本号变化时从 source 加载并替换，intervalMillis 内最多检查一次版本号，只有一个线程去检查
+	 * @param source
+	 * @param intervalMillis
+	 * @return 是否替换
+	 */
+	public static boolean sync(@NotNull Source source, long intervalMillis) {
+		long now = System.currentTimeMillis();
+		long last = LAST_CHECK_TIME.get();
+		if (now - last < intervalMillis || LAST_CHECK_TIME.compareAndSet(last, now) == false) {
+			return false;
+		}
+		return syncNow(source);
+	}
+
+	/**立即检查版本号，变化时从 source 加载并替换，按表增量刷新前调用，避免在过期的快照上修改后发布
+	 * @param source
+	 * @return 是否替换
+	 */
+	public static boolean syncNow(@NotNull Source source) {
+		Long version = source.getVersion();
+		if (version == null || version == current.version) {
+			return false;
+		}
+		return apply(version, source.getTableKeyMap(), source.getTableColumnMap());
+	}
+
+}
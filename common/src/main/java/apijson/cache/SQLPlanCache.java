@@ -0,0 +1,159 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.cache;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import apijson.Log;
+import apijson.NotNull;
+import apijson.QueryMetrics;
+
+/**查询计划缓存，相同结构(表、字段、条件的 key 和操作符、排序、分页等)的查询只生成一次 SQL
+ * <br > 计划是预编译 SQL 模板，条件的值按顺序绑定到 ? ，非预编译的 SQL 由模板和值拼接
+ * <br > 表别名、列别名配置变化时由 {@link AliasConfigSnapshot#apply} 清空
+ * <br > 另外缓存校验通过的 @sql ，相同的 @sql 不再重复校验
+ */
+public class SQLPlanCache {
+	private static final String TAG = "SQLPlanCache";
+
+	public static final int MAX_PLAN_COUNT = 10000;
+	public static final int MAX_VALIDATED_SQL_COUNT = 10000;
+
+	/**结构相同但生成的 SQL 和模板对不上，不能缓存，记下来避免每次都重新编译
+	 */
+	public static final Plan UNCACHEABLE = new Plan(null);
+
+	private static final Cache<String, Plan> PLAN_CACHE = Caffeine.newBuilder().maximumSize(MAX_PLAN_COUNT).build();
+	private static final Cache<String, Boolean> VALIDATED_SQL_CACHE = Caffeine.newBuilder().maximumSize(MAX_VALIDATED_SQL_COUNT).build();
+
+	/**每次 {@link #invalidateAll()} 加 1，编译期间变化说明编译用的可能是旧配置，结果不放入缓存
+	 */
+	private static volatile long generation;
+	private static final Object LOCK = new Object();
+
+	private static final AtomicLong HIT_COUNT = new AtomicLong();
+	private static final AtomicLong MISS_COUNT = new AtomicLong();
+	private static final AtomicLong UNCACHEABLE_COUNT = new AtomicLong();
+
+	static {
+		QueryMetrics.counter("apijson.sql_plan.hit", HIT_COUNT, AtomicLong::get);
+		QueryMetrics.counter("apijson.sql_plan.miss", MISS_COUNT, AtomicLong::get);
+		QueryMetrics.counter("apijson.sql_plan.uncacheable", UNCACHEABLE_COUNT, AtomicLong::get);
+		QueryMetrics.gauge("apijson.sql_plan.size", PLAN_CACHE, Cache::estimatedSize);
+	}
+
+	/**
+	 * @param key
+	 * @return 没有时返回 null，不能缓存时返回 {@link #UNCACHEABLE}
+	 */
+	public static Plan get(@NotNull String key) {
+		Plan plan = PLAN_CACHE.getIfPresent(key);
+		if (plan == null) {
+			MISS_COUNT.incrementAndGet();
+		} else if (plan != UNCACHEABLE) {
+			HIT_COUNT.incrementAndGet();
+		}
+		return plan;
+	}
+
+	/**编译并缓存，模板中 ? 的个数、顺序和 values 对不上，或者拼接结果和 sql 不一致时返回 {@link #UNCACHEABLE}
+	 * @param generation 生成 template 和 sql 之前取的 {@link #getGeneration()}，和当前不一致时不缓存
+	 * @param key
+	 * @param template 预编译 SQL
+	 * @param preparedValueList 生成 template 时得到的值
+	 * @param values 从条件中按顺序取出的值
+	 * @param sql 非预编译 SQL
+	 * @param toSQLValue 值转为 SQL 里的写法
+	 * @return
+	 */
+	public static Plan compile(long generation, @NotNull String key, String template, List<Object> preparedValueList, @NotNull List<Object> values
+			, String sql, @NotNull Function<Object, Object> toSQLValue) {
+		Plan plan = template == null || sql == null || values.equals(preparedValueList) == false ? UNCACHEABLE : new Plan(template);
+		if (plan != UNCACHEABLE && (plan.segments.length != values.size() + 1 || sql.equals(plan.render(values, toSQLValue)) == false)) {
+			plan = UNCACHEABLE;
+		}
+		if (plan == UNCACHEABLE) {
+			UNCACHEABLE_COUNT.incrementAndGet();
+			Log.i(TAG, "compile  key = " + key + " >> UNCACHEABLE");
+		}
+		synchronized (LOCK) {
+			// 编译期间表别名、列别名配置被替换过
+			if (generation == SQLPlanCache.generation) {
+				PLAN_CACHE.put(key, plan);
+			}
+		}
+		return plan;
+	}
+
+	public static boolean isValidatedSql(String sql) {
+		return sql != null && VALIDATED_SQL_CACHE.getIfPresent(sql) != null;
+	}
+
+	public static void putValidatedSql(@NotNull String sql) {
+		VALIDATED_SQL_CACHE.put(sql, Boolean.TRUE);
+	}
+
+	public static long getGeneration() {
+		return generation;
+	}
+
+	public static void invalidateAll() {
+		synchronized (LOCK) {
+			generation++;
+			PLAN_CACHE.invalidateAll();
+		}
+		VALIDATED_SQL_CACHE.invalidateAll();
+	}
+
+	public static long getHitCount() {
+		return HIT_COUNT.get();
+	}
+
+	public static long getMissCount() {
+		return MISS_COUNT.get();
+	}
+
+	public static long getUncacheableCount() {
+		return UNCACHEABLE_COUNT.get();
+	}
+
+
+	public static class Plan {
+		private final String template;
+		/**template 按 ? 拆分后的片段，片段个数 = ? 个数 + 1
+		 */
+		private final String[] segments;
+
+		private Plan(String template) {
+			this.template = template;
+			this.segments = template == null ? null : template.split("\\?", -1);
+		}
+
+		public String getTemplate() {
+			return template;
+		}
+
+		/**把值拼接到模板中，得到非预编译的 SQL
+		 * @param values
+		 * @param toSQLValue
+		 * @return
+		 */
+		public String render(@NotNull List<Object> values, @NotNull Function<Object, Object> toSQLValue) {
+			StringBuilder sb = new StringBuilder(template.length() + 16 * values.size());
+			sb.append(segments[0]);
+			for (int i = 0; i < values.size(); i++) {
+				sb.append(toSQLValue.apply(values.get(i))).append(segments[i + 1]);
+			}
+			return sb.toString();
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import apijson.NotNull;
+
+/**token 权限索引，不可变，整体替换
+ * <br > 由 token -> "servicePath.table_alias,..." 或 "ALL" 编译为 token -> HashSet，校验时不再拆分字符串、逐个比较
+ */
+public class TokenPermissionIndex {
+	public static final String ALL = "ALL";
+
+	/**未加载
+	 */
+	public static final TokenPermissionIndex EMPTY = new TokenPermissionIndex(null, null);
+
+	/**token -> 可访问的 servicePath.table_alias，ALL 的 token 对应 null
+	 */
+	private final Map<String, Set<String>> tableMap;
+	/**token -> 编译前的权限字符串，用于增量编译
+	 */
+	private final Map<String, String> accessMap;
+
+	private TokenPermissionIndex(Map<String, Set<String>> tableMap, Map<String, String> accessMap) {
+		this.tableMap = tableMap;
+		this.accessMap = accessMap;
+	}
+
+	/**编译，权限字符串没变化的 token 直接复用 previous 中的 Set
+	 * @param accessMap token -> 权限字符串
+	 * @param previous 上一次编译结果，可为 null
+	 * @return
+	 */
+	@NotNull
+	public static TokenPermissionIndex compile(Map<String, String> accessMap, TokenPermissionIndex previous) {
+		if (accessMap == null) {
+			return EMPTY;
+		}
+
+		Map<String, Set<String>> tableMap = new HashMap<>(accessMap.size());
+		for (Map.Entry<String, String> entry : accessMap.entrySet()) {
+			String access = entry.getValue();
+			if (access == null) {
+				continue;
+			}
+			if (previous != null && previous.accessMap != null && access.equals(previous.accessMap.get(entry.getKey()))) {
+				tableMap.put(entry.getKey(), previous.tableMap.get(entry.getKey()));
+				continue;
+			}
+			if (access.equals(ALL)) {
+				tableMap.put(entry.getKey(), null);
+				continue;
+			}
+
+			Set<String> tables = new HashSet<>();
+			for (String table : access.split(",")) {
+				tables.add(table);
+			}
+			tableMap.put(entry.getKey(), Collections.unmodifiableSet(tables));
+		}
+		return new TokenPermissionIndex(tableMap, new HashMap<>(accessMap));
+	}
+
+	public boolean isLoaded() {
+		return tableMap != null;
+	}
+
+	public int size() {
+		return tableMap == null ? 0 : tableMap.size();
+	}
+
+	public boolean hasToken(String token) {
+		return tableMap != null && tableMap.containsKey(token);
+	}
+
+	/**返回第一个没有权限的表，都有权限时返回 null
+	 * @param token 需先用 {@link #hasToken(String)} 校验
+	 * @param servicePath
+	 * @param tables
+	 * @return
+	 */
+	public String getDeniedTable(@NotNull String token, String servicePath, @NotNull Collection<String> tables) {
+		if (hasToken(token) == false) {
+			return tables.isEmpty() ? null : tables.iterator().next();
+		}
+		Set<String> set = tableMap.get(token);
+		if (set == null) {
+			return null;
+		}
+		for (String table : tables) {
+			if (set.contains(servicePath + "." + table) == false) {
+				return table;
+			}
+		}
+		return null;
+	}
+
+}
@@ -30,10 +30,13 @@ import static apijson.framework.APIJSONConstant.VERSION;
 import static apijson.framework.APIJSONConstant.VISITOR_;
 import static apijson.framework.APIJSONConstant.VISITOR_ID;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.rmi.ServerException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.servlet.AsyncContext;
@@ -43,8 +46,14 @@ import javax.servlet.http.HttpSession;
 
 import apijson.*;
 import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.serializer.JSONSerializer;
+import com.alibaba.fastjson.serializer.SerializeWriter;
 
+import apijson.cache.QueryResultCache;
+import apijson.orm.AbstractParser;
 import apijson.orm.Parser;
+import apijson.orm.ColumnarRows;
+import apijson.orm.RowWriter;
 import apijson.orm.Visitor;
 import unitauto.MethodUtil;
 import unitauto.MethodUtil.InterfaceProxy;
@@ -103,6 +112,124 @@ public class APIJSONController {
 		return parse(request, session, GET);
 	}
 
+	/**获取，执行的 SQL 不放入响应，和响应一起返回，可以一起放入 {@link QueryResultCache}
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @return
+	 */
+	public QueryResultCache.Result getResult(String request, HttpSession session) {
+		Parser<Long> parser = newParser(session, GET);
+		String response = parser.parse(request);
+		return new QueryResultCache.Result(response, parser instanceof AbstractParser ? ((AbstractParser<Long>) parser).getExecutedSQL() : null);
+	}
+
+	/**流式获取，{"[]":{"Table":{...}}} 单表数组查询的每一行直接从 ResultSet 写入 out，不缓存整个结果集，
+	 * 其它请求按 {@link #get} 处理后整体写入 out
+	 * @param parser 由 newParser(session, GET) 创建，执行完可 getExecutedSQL
+	 * @param request 只用String，避免encode后未decode
+	 * @param out
+	 * @return 不含数组的响应，用于判断是否成功
+	 * @throws IOException
+	 */
+	public JSONObject stream(@NotNull AbstractParser<Long> parser, String request, @NotNull Writer out) throws IOException {
+		JSONObject requestObject;
+		try {
+			requestObject = AbstractParser.parseRequest(request);
+		} catch (Exception e) {
+			JSONObject response = AbstractParser.newErrorResult(e);
+			com.alibaba.fastjson.JSON.writeJSONString(out, response);
+			return response;
+		}
+
+		String table = getStreamTable(requestObject);
+		if (table == null) {
+			JSONObject response = parser.parseResponse(requestObject);
+			com.alibaba.fastjson.JSON.writeJSONString(out, response);
+			return response;
+		}
+
+		String tableKey = "{" + JSON.toJSONString(table) + ":";
+		out.write("{\"[]\":[");
+		parser.setRowWriter(new RowWriter() {
+			private boolean first = true;
+
+			@Override
+			public void write(JSONObject row) throws Exception {
+				if (first == false) {
+					out.write(',');
+				}
+				first = false;
+				out.write(tableKey);
+				com.alibaba.fastjson.JSON.writeJSONString(out, row);
+				out.write('}');
+			}
+
+			@Override
+			public void write(ColumnarRows rows) throws Exception {
+				SerializeWriter writer = new SerializeWriter(out);
+				try {
+					JSONSerializer serializer = new JSONSerializer(writer);
+					for (int i = 0; i < rows.size(); i++) {
+						if (first == false) {
+							writer.write(',');
+						}
+						first = false;
+						writer.write(tableKey);
+						rows.writeJSON(serializer, i);
+						writer.write('}');
+					}
+				} finally {
+					writer.close();  // 写入 out，不关闭 out
+				}
+			}
+		});
+		JSONObject response = parser.parseResponse(requestObject);
+		response.remove("[]");
+		out.write(']');
+		for (Map.Entry<String, Object> entry : response.entrySet()) {
+			out.write(',');
+			out.write(JSON.toJSONString(entry.getKey()));
+			out.write(':');
+			com.alibaba.fastjson.JSON.writeJSONString(out, entry.getValue());
+		}
+		out.write('}');
+		return response;
+	}
+
+	/**能流式输出的请求：最外层只有 "[]" 和 @ 开头的全局关键词，"[]" 内只有一张表和 count、page，
+	 * 表内没有远程函数和引用赋值
+	 * @param request
+	 * @return 表名，不能流式输出时返回 null
+	 */
+	public static String getStreamTable(JSONObject request) {
+		if (request == null || (request.get("[]") instanceof JSONObject) == false) {
+			return null;
+		}
+		for (String key : request.keySet()) {
+			if (key.equals("[]") == false && key.startsWith("@") == false) {
+				return null;
+			}
+		}
+
+		String table = null;
+		for (Map.Entry<String, Object> entry : request.getJSONObject("[]").entrySet()) {
+			String key = entry.getKey();
+			if (key.equals(JSONRequest.KEY_COUNT) || key.equals(JSONRequest.KEY_PAGE)) {
+				continue;
+			}
+			if (table != null || apijson.JSONObject.isTableKey(key) == false || (entry.getValue() instanceof JSONObject) == false) {
+				return null;
+			}
+			for (String k : ((JSONObject) entry.getValue()).keySet()) {
+				if (k.endsWith("()") || k.endsWith("@")) {
+					return null;
+				}
+			}
+			table = key;
+		}
+		return table;
+	}
+
 	/**计数
 	 * @param request 只用String，避免encode后未decode
 	 * @param session
@@ -38,6 +38,7 @@ import apijson.NotNull;
 import apijson.RequestMethod;
 import apijson.RequestRole;
 import apijson.StringUtil;
+import apijson.cache.AliasConfigSnapshot;
 import apijson.orm.AbstractVerifier;
 import apijson.orm.JSONRequest;
 import apijson.orm.Visitor;
@@ -180,6 +181,9 @@ public class APIJSONVerifier extends AbstractVerifier<Long> {
 			ACCESS_MAP.clear();
 		}
 
+		// TABLE_KEY_MAP 是快照里的不可变 Map，复制一份修改后整体替换
+		Map<String, String> tableKeyMap = new HashMap<>();
+
 		JSONObject item;
 		for (int i = 0; i < size; i++) {
 			item = list.getJSONObject(i);
@@ -223,7 +227,16 @@ public class APIJSONVerifier extends AbstractVerifier<Long> {
 				ACCESS_MAP.put(alias, map);
 			}
 
-			APIJSONSQLConfig.TABLE_KEY_MAP.put(alias, name);
+			tableKeyMap.put(alias, name);
+		}
+
+		synchronized (AliasConfigSnapshot.class) {
+			AliasConfigSnapshot snapshot = AliasConfigSnapshot.getCurrent();
+			Map<String, String> newTableKeyMap = new HashMap<>(snapshot.getTableKeyMap());
+			newTableKeyMap.putAll(tableKeyMap);
+			if (newTableKeyMap.equals(snapshot.getTableKeyMap()) == false) {
+				AliasConfigSnapshot.apply(snapshot.getVersion(), newTableKeyMap, snapshot.getTableColumnMap(), snapshot.getTableIndex());
+			}
 		}
 
 		Log.d(TAG, "initAccess  for /> ACCESS_MAP.size() = " + ACCESS_MAP.size() + " >>>>>>>>>>>>>>>>>>>>>>>");
@@ -0,0 +1,205 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.framework;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import apijson.Log;
+import apijson.NotNull;
+import apijson.QueryMetrics;
+import apijson.entity.AccessHistory;
+import apijson.orm.SQLConfig;
+import apijson.orm.SQLConnectionPool;
+
+/**访问记录异步批量写入 dataservice_access_history
+ * <br > 请求线程只把记录放入有界无锁环形队列，队列满时丢弃并计数，不阻塞、不回退到请求线程执行
+ * <br > 单个写线程攒够 batchSize 条或距上次写入超过 flushIntervalMillis 时用一条多行 INSERT 写入
+ */
+public class AccessHistoryWriter {
+	private static final String TAG = "AccessHistoryWriter";
+
+	public static final String DATABASE = "DATASERVICE";
+	public static final String INSERT_SQL = "INSERT INTO bigdata_dataservice.dataservice_access_history(token,service_path,table_alias,execute_sql,success,msg) VALUES ";
+	public static final String INSERT_VALUES = "(?,?,?,?,?,?)";
+
+	private final AtomicReferenceArray<AccessHistory> buffer;
+	private final int mask;
+	/**下一个写入位置，多个请求线程 CAS 竞争
+	 */
+	private final AtomicLong tail = new AtomicLong();
+	/**下一个读取位置，只有写线程修改
+	 */
+	private volatile long head;
+
+	private final int batchSize;
+	private final long flushIntervalMillis;
+
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong writtenCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+
+	private volatile boolean running;
+	private Thread thread;
+
+	/**
+	 * @param capacity 队列容量，向上取 2 的幂
+	 * @param batchSize 每次 INSERT 的最大行数
+	 * @param flushIntervalMillis 不满 batchSize 时最长等待时间
+	 */
+	public AccessHistoryWriter(int capacity, int batchSize, long flushIntervalMillis) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		this.buffer = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+		this.batchSize = Math.max(batchSize, 1);
+		this.flushIntervalMillis = Math.max(flushIntervalMillis, 1);
+	}
+
+	/**放入队列，不阻塞
+	 * @param history
+	 * @return 队列满时返回 false，记录被丢弃
+	 */
+	public boolean offer(@NotNull AccessHistory history) {
+		long t;
+		do {
+			t = tail.get();
+			if (t - head > mask) {
+				droppedCount.incrementAndGet();
+				return false;
+			}
+		} while (tail.compareAndSet(t, t + 1) == false);
+
+		buffer.lazySet((int) (t & mask), history);
+		return true;
+	}
+
+	/**取出已发布的记录，最多 max 条
+	 */
+	private int drain(List<AccessHistory> list, int max) {
+		long h = head;
+		int count = 0;
+		while (count < max && h < tail.get()) {
+			int index = (int) (h & mask);
+			AccessHistory history = buffer.get(index);
+			if (history == null) { // 已占位但还没写入
+				break;
+			}
+			buffer.lazySet(index, null);
+			list.add(history);
+			h++;
+			count++;
+		}
+		head = h;
+		return count;
+	}
+
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		QueryMetrics.gauge("apijson.access_history.queue", this, AccessHistoryWriter::size);
+		QueryMetrics.counter("apijson.access_history.dropped", this, AccessHistoryWriter::getDroppedCount);
+		QueryMetrics.counter("apijson.access_history.written", this, AccessHistoryWriter::getWrittenCount);
+		QueryMetrics.counter("apijson.access_history.failed", this, AccessHistoryWriter::getFailedCount);
+		thread = new Thread(this::run, TAG);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**停止并写入队列中剩余的记录
+	 */
+	public synchronized void stop() {
+		running = false;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join(TimeUnit.SECONDS.toMillis(10));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			thread = null;
+		}
+	}
+
+	private void run() {
+		List<AccessHistory> batch = new ArrayList<>(batchSize);
+		long lastFlushTime = System.currentTimeMillis();
+		while (running || head < tail.get()) {
+			int count = drain(batch, batchSize - batch.size());
+			long now = System.currentTimeMillis();
+			if (batch.size() >= batchSize || (batch.isEmpty() == false && (now - lastFlushTime >= flushIntervalMillis || running == false))) {
+				flush(batch);
+				batch.clear();
+				lastFlushTime = now;
+			} else if (count <= 0) {
+				if (running == false) {
+					break;
+				}
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.min(flushIntervalMillis, 50)));
+			}
+		}
+		if (batch.isEmpty() == false) {
+			flush(batch);
+		}
+	}
+
+	/**一条多行 INSERT 写入，失败时丢弃这一批并计数
+	 * @param batch
+	 */
+	protected void flush(@NotNull List<AccessHistory> batch) {
+		StringBuilder sql = new StringBuilder(INSERT_SQL.length() + batch.size() * (INSERT_VALUES.length() + 1));
+		sql.append(INSERT_SQL);
+		for (int i = 0; i < batch.size(); i++) {
+			sql.append(i == 0 ? "" : ",").append(INSERT_VALUES);
+		}
+
+		try {
+			SQLConfig config = APIJSONApplication.DEFAULT_APIJSON_CREATOR.createSQLConfig();
+			config.setDatabase(DATABASE);
+			try (Connection connection = SQLConnectionPool.getConnection(config.getSQLDatabase(), config.getDBUri(), config.getDBAccount(), config.getDBPassword());
+					PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+				int index = 0;
+				for (AccessHistory history : batch) {
+					statement.setString(++index, history.getToken());
+					statement.setString(++index, history.getService_path());
+					statement.setString(++index, history.getTable_alias());
+					statement.setString(++index, history.getExecute_sql());
+					statement.setBoolean(++index, history.isSuccess());
+					statement.setString(++index, history.getMsg());
+				}
+				statement.executeUpdate();
+			}
+			writtenCount.addAndGet(batch.size());
+		} catch (Exception e) {
+			failedCount.addAndGet(batch.size());
+			Log.e(TAG, "flush  size = " + batch.size() + "; failed: " + e.getMessage());
+		}
+	}
+
+	public int size() {
+		return (int) (tail.get() - head);
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+}
@@ -5,17 +5,25 @@ This source code is licensed under the Apache License Version 2.0.*/
 
 package apijson.orm;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.activation.UnsupportedDataTypeException;
 
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 
+import apijson.Log;
 import apijson.NotNull;
 import apijson.RequestMethod;
 import apijson.StringUtil;
@@ -24,7 +32,7 @@ import apijson.StringUtil;
  * @author Lemon
  */
 public class AbstractFunctionParser implements FunctionParser {
-	//	private static final String TAG = "AbstractFunctionParser";
+	private static final String TAG = "AbstractFunctionParser";
 
 	// <methodName, JSONObject>
 	// <isContain, <arguments:"array,key", tag:null, methods:null>>
@@ -33,6 +41,20 @@ public class AbstractFunctionParser implements FunctionParser {
 		FUNCTION_MAP = new HashMap<>();
 	}
 
+	/**FUNCTION_MAP 中每行的 version, tag, methods 预先解析好，行对象变化时重新解析
+	 */
+	private static final Map<String, FunctionRule> RULE_MAP = new ConcurrentHashMap<>();
+
+	/**函数类 -> (函数名,参数个数 -> MethodHandle)，每个类只用反射查找一次
+	 * <br > 只收录 function(JSONObject request, String key0, String key1, ...) 形式的 public 方法
+	 */
+	private static final ClassValue<Map<String, MethodHandle>> DISPATCH_TABLE = new ClassValue<Map<String, MethodHandle>>() {
+		@Override
+		protected Map<String, MethodHandle> computeValue(Class<?> type) {
+			return buildDispatchTable(type);
+		}
+	};
+
 	private RequestMethod method;
 	private String tag;
 	private int version;
@@ -151,23 +173,21 @@ public class AbstractFunctionParser implements FunctionParser {
 
 		FunctionBean fb = parseFunction(function, currentObject, false);
 
-		JSONObject row = FUNCTION_MAP.get(fb.getMethod());
-		if (row == null) {
+		FunctionRule rule = getRule(fb.getMethod());
+		if (rule == null) {
 			throw new UnsupportedOperationException("不允许调用远程函数 " + fb.getMethod() + " !");
 		}
 
-		int v = row.getIntValue("version");
+		int v = rule.version;
 		if (parser.getVersion() < v) {
 			throw new UnsupportedOperationException("不允许 version = " + parser.getVersion() + " 的请求调用远程函数 " + fb.getMethod() + " ! 必须满足 version >= " + v + " !");
 		}
-		String t = row.getString("tag");
+		String t = rule.tag;
 		if (t != null && t.equals(parser.getTag()) == false) {
 			throw new UnsupportedOperationException("不允许 tag = " + parser.getTag() + " 的请求调用远程函数 " + fb.getMethod() + " ! 必须满足 tag = " + t + " !");
 		}
-		String[] methods = StringUtil.split(row.getString("methods"));
-		List<String> ml = methods == null || methods.length <= 0 ? null : Arrays.asList(methods);
-		if (ml != null && ml.contains(parser.getMethod().toString()) == false) {
-			throw new UnsupportedOperationException("不允许 method = " + parser.getMethod() + " 的请求调用远程函数 " + fb.getMethod() + " ! 必须满足 method 在 " + methods + "内 !");
+		if (rule.methods != null && rule.methods.contains(parser.getMethod().toString()) == false) {
+			throw new UnsupportedOperationException("不允许 method = " + parser.getMethod() + " 的请求调用远程函数 " + fb.getMethod() + " ! 必须满足 method 在 " + rule.methods + "内 !");
 		}
 
 		try {
@@ -193,14 +213,92 @@ public class AbstractFunctionParser implements FunctionParser {
 
 	}
 	
-	/**反射调用
+	/**调用，function(JSONObject request, String key0, ...) 形式的函数从分派表中取 MethodHandle 直接调用，其它的反射调用
 	 * @param methodName
 	 * @param parameterTypes
 	 * @param args
 	 * @return
 	 */
 	public static Object invoke(@NotNull AbstractFunctionParser parser, @NotNull String methodName, @NotNull Class<?>[] parameterTypes, @NotNull Object[] args) throws Exception {
-		return parser.getClass().getMethod(methodName, parameterTypes).invoke(parser, args);
+		if (isRemoteFunctionTypes(parameterTypes) == false) {
+			return parser.getClass().getMethod(methodName, parameterTypes).invoke(parser, args);
+		}
+
+		MethodHandle handle = DISPATCH_TABLE.get(parser.getClass()).get(getDispatchKey(methodName, parameterTypes.length));
+		if (handle == null) {
+			throw new NoSuchMethodException(parser.getClass().getName() + "." + methodName + Arrays.toString(parameterTypes));
+		}
+
+		Object[] all = new Object[args.length + 1];
+		all[0] = parser;
+		System.arraycopy(args, 0, all, 1, args.length);
+		try {
+			return (Object) handle.invokeExact(all);
+		} catch (Throwable e) {
+			// 和反射调用一致，函数内抛出的异常都包装成 InvocationTargetException，NoSuchMethodException 只表示分派表中没有这个函数
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	/**预先构建分派表和 FUNCTION_MAP 的解析结果，在 FUNCTION_MAP 加载完后调用
+	 * @param parserClass
+	 */
+	public static void prepare(@NotNull Class<? extends AbstractFunctionParser> parserClass) {
+		RULE_MAP.clear();
+		for (String name : FUNCTION_MAP.keySet()) {
+			getRule(name);
+		}
+		Map<String, MethodHandle> table = DISPATCH_TABLE.get(parserClass);
+		Log.i(TAG, "prepare  parserClass = " + parserClass.getName() + "; rule.size() = " + RULE_MAP.size() + "; dispatch.size() = " + table.size());
+	}
+
+	private static FunctionRule getRule(String name) {
+		JSONObject row = FUNCTION_MAP.get(name);
+		if (row == null) {
+			return null;
+		}
+		FunctionRule rule = RULE_MAP.get(name);
+		if (rule == null || rule.row != row) {
+			rule = new FunctionRule(row);
+			RULE_MAP.put(name, rule);
+		}
+		return rule;
+	}
+
+	private static boolean isRemoteFunctionTypes(Class<?>[] parameterTypes) {
+		if (parameterTypes.length <= 0 || parameterTypes[0] != JSONObject.class) {
+			return false;
+		}
+		for (int i = 1; i < parameterTypes.length; i++) {
+			if (parameterTypes[i] != String.class) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String getDispatchKey(String methodName, int parameterCount) {
+		return methodName + "," + parameterCount;
+	}
+
+	private static Map<String, MethodHandle> buildDispatchTable(Class<?> type) {
+		Map<String, MethodHandle> table = new HashMap<>();
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		for (Method m : type.getMethods()) {
+			if (Modifier.isStatic(m.getModifiers()) || isRemoteFunctionTypes(m.getParameterTypes()) == false) {
+				continue;
+			}
+			try {
+				m.setAccessible(true);
+				MethodHandle handle = lookup.unreflect(m);
+				// (parser, request, key0, ...) -> (Object[])Object，调用时不再做类型适配
+				handle = handle.asType(handle.type().generic()).asSpreader(Object[].class, m.getParameterCount() + 1);
+				table.put(getDispatchKey(m.getName(), m.getParameterCount()), handle);
+			} catch (Exception e) {
+				Log.e(TAG, "buildDispatchTable  " + type.getName() + "." + m.getName() + " >> " + e.getMessage());
+			}
+		}
+		return Collections.unmodifiableMap(table);
 	}
 
 	/**解析函数
@@ -310,6 +408,24 @@ public class AbstractFunctionParser implements FunctionParser {
 	}
 
 
+	private static class FunctionRule {
+		private final JSONObject row;
+		private final int version;
+		private final String tag;
+		/**为 null 时不限制
+		 */
+		private final Set<String> methods;
+
+		private FunctionRule(@NotNull JSONObject row) {
+			this.row = row;
+			this.version = row.getIntValue("version");
+			this.tag = row.getString("tag");
+			String[] ms = StringUtil.split(row.getString("methods"));
+			this.methods = ms == null || ms.length <= 0 ? null : Collections.unmodifiableSet(new HashSet<>(Arrays.asList(ms)));
+		}
+	}
+
+
 	public static class FunctionBean {
 		private String function;
 		private String method;
@@ -15,14 +15,27 @@ import java.sql.Savepoint;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import javax.activation.UnsupportedDataTypeException;
 
@@ -33,6 +46,7 @@ import apijson.JSON;
 import apijson.JSONResponse;
 import apijson.Log;
 import apijson.NotNull;
+import apijson.QueryMetrics;
 import apijson.RequestMethod;
 import apijson.RequestRole;
 import apijson.StringUtil;
@@ -134,6 +148,24 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 		return this;
 	}
 
+	protected RowWriter rowWriter;
+	/**设置后数组主表的查询结果逐行写入 rowWriter，不再放入响应
+	 * @param rowWriter
+	 * @return
+	 */
+	public AbstractParser<T> setRowWriter(RowWriter rowWriter) {
+		this.rowWriter = rowWriter;
+		return this;
+	}
+
+	protected String executedSQL;
+	/**最后执行的 SQL，不放入响应，由调用方按需记录
+	 * @return
+	 */
+	public String getExecutedSQL() {
+		return executedSQL;
+	}
+
 	protected JSONObject requestObject;
 	@Override
 	public JSONObject getRequest() {
@@ -262,6 +294,10 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 
 	@Override
 	public SQLExecutor getSQLExecutor() {
+		SQLExecutor executor = branchSQLExecutor.get();
+		if (executor != null) {
+			return executor;
+		}
 		if (sqlExecutor == null) {
 			sqlExecutor = createSQLExecutor();
 		}
@@ -275,13 +311,251 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 		return verifier;
 	}
 
+
+
+	//并行解析 <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
+
+	/**是否并行解析根对象下互不依赖的 Table:{} 和 key[]:{}，可用启动参数 -Dapijson.parallel=true 开启
+	 */
+	public static boolean IS_PARALLEL = Boolean.parseBoolean(System.getProperty("apijson.parallel", "false"));
+	/**单个请求最多同时执行的子对象数量
+	 */
+	public static int MAX_PARALLEL_COUNT = Integer.getInteger("apijson.parallel.max-per-request", 4);
+	/**所有请求共用的线程数和排队数，排满后由提交任务的线程自己执行
+	 */
+	public static int PARALLEL_THREAD_COUNT = Integer.getInteger("apijson.parallel.threads", 2 * Runtime.getRuntime().availableProcessors());
+	public static int PARALLEL_QUEUE_SIZE = Integer.getInteger("apijson.parallel.queue-size", 1024);
+
+	private static volatile ThreadPoolExecutor PARALLEL_EXECUTOR;
+
+	protected Boolean parallel;
+	public boolean isParallel() {
+		return parallel == null ? IS_PARALLEL : parallel;
+	}
+	/**
+	 * @param parallel null ? IS_PARALLEL
+	 * @return
+	 */
+	public AbstractParser<T> setParallel(Boolean parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+
+	public int getMaxParallelCount() {
+		return MAX_PARALLEL_COUNT;
+	}
+
+	/**根对象下的子对象是否并行解析，只有查询才并行，增删改要在同一个事务内，rowWriter 逐行写出时也不并行
+	 * @return
+	 */
+	public boolean isParallelEnabled() {
+		return isParallel() && rowWriter == null && RequestMethod.isQueryMethod(requestMethod) && getMaxParallelCount() > 1;
+	}
+
+	/**并行的分支各自使用一个 SQLExecutor，SQLExecutor 和 JDBC Connection 都不是线程安全的
+	 */
+	private final ThreadLocal<SQLExecutor> branchSQLExecutor = new ThreadLocal<>();
+	private final AtomicInteger branchGeneratedSQLCount = new AtomicInteger();
+	private final AtomicInteger branchCachedSQLCount = new AtomicInteger();
+	private final AtomicInteger branchExecutedSQLCount = new AtomicInteger();
+	/**正在执行的分支的 SQLExecutor，检查 SQL 数量上限时也要算上，修改和汇总时都要锁住
+	 */
+	private final Set<SQLExecutor> runningBranchSQLExecutors = new HashSet<>();
+	/**最后结束的分支最后执行的 SQL
+	 */
+	private String branchExecutedSQL;
+	/**并行执行结束时主线程 SQLExecutor 已执行的 SQL 数量，之后主线程又执行了 SQL 时 executedSQL 取主线程的
+	 */
+	private int mainExecutedSQLCountAfterBranch = -1;
+
+	/**按依赖关系并行执行，没有依赖的任务同时执行，有依赖的任务等依赖的任务都结束后再执行
+	 * @param taskList
+	 * @param dependencyList 和 taskList 一一对应，每项是对应任务依赖的、排在它前面的任务的下标
+	 * @return 和 taskList 顺序一致的结果
+	 * @throws Exception 按 taskList 顺序第一个失败的任务抛出的异常，抛出前等所有任务都结束
+	 */
+	public <V> List<V> executeParallel(@NotNull List<Callable<V>> taskList, @NotNull List<Set<Integer>> dependencyList) throws Exception {
+		Executor executor = new LimitedExecutor(getParallelExecutor(), getMaxParallelCount());
+		String servicePath = QueryMetrics.getServicePath();
+		String table = QueryMetrics.getTable();
+
+		List<CompletableFuture<V>> futureList = new ArrayList<>(taskList.size());
+		for (int i = 0; i < taskList.size(); i++) {
+			Callable<V> task = taskList.get(i);
+			Supplier<V> branch = () -> onBranchExecute(task, servicePath, table);
+
+			Set<Integer> dependencies = dependencyList.get(i);
+			if (dependencies == null || dependencies.isEmpty()) {
+				futureList.add(CompletableFuture.supplyAsync(branch, executor));
+			}
+			else {
+				CompletableFuture<?>[] before = new CompletableFuture<?>[dependencies.size()];
+				int j = 0;
+				for (Integer d : dependencies) {
+					before[j ++] = futureList.get(d);
+				}
+				futureList.add(CompletableFuture.allOf(before).thenApplyAsync(v -> branch.get(), executor));
+			}
+		}
+
+		try {
+			CompletableFuture.allOf(futureList.toArray(new CompletableFuture<?>[futureList.size()])).join();
+		}
+		catch (CompletionException e) {
+			mainExecutedSQLCountAfterBranch = sqlExecutor == null ? 0 : sqlExecutor.getExecutedSQLCount();
+			for (CompletableFuture<V> future : futureList) {
+				if (future.isCompletedExceptionally() == false) {
+					continue;
+				}
+				Throwable t = e;
+				try {
+					future.join();
+				} catch (CompletionException ce) {
+					t = ce;
+				}
+				while (t instanceof CompletionException && t.getCause() != null) {
+					t = t.getCause();
+				}
+				if (t instanceof Error) {
+					throw (Error) t;
+				}
+				throw t instanceof Exception ? (Exception) t : e;
+			}
+			throw e;
+		}
+
+		mainExecutedSQLCountAfterBranch = sqlExecutor == null ? 0 : sqlExecutor.getExecutedSQLCount();
+
+		List<V> resultList = new ArrayList<>(futureList.size());
+		for (CompletableFuture<V> future : futureList) {
+			resultList.add(future.join());
+		}
+		return resultList;
+	}
+
+	/**在分支线程内执行，带上请求线程的 QueryMetrics 上下文，结束后把 SQL 数量和最后执行的 SQL 计入请求
+	 */
+	private <V> V onBranchExecute(Callable<V> task, String servicePath, String table) {
+		// 线程池排满时任务在提交的线程内执行，结束后要还原
+		SQLExecutor lastExecutor = branchSQLExecutor.get();
+		String lastServicePath = QueryMetrics.getServicePath();
+		String lastTable = QueryMetrics.getTable();
+
+		SQLExecutor executor = createSQLExecutor();
+		synchronized (runningBranchSQLExecutors) {
+			runningBranchSQLExecutors.add(executor);
+		}
+		branchSQLExecutor.set(executor);
+		QueryMetrics.begin(servicePath, table);
+		try {
+			return task.call();
+		}
+		catch (Exception e) {
+			throw new CompletionException(e);
+		}
+		finally {
+			branchGeneratedSQLCount.addAndGet(executor.getGeneratedSQLCount());
+			branchCachedSQLCount.addAndGet(executor.getCachedSQLCount());
+			String sql = executor.getExecutedSQL();
+			synchronized (runningBranchSQLExecutors) {
+				runningBranchSQLExecutors.remove(executor);
+				branchExecutedSQLCount.addAndGet(executor.getExecutedSQLCount());
+				if (StringUtil.isNotEmpty(sql, true)) {
+					branchExecutedSQL = sql;
+				}
+			}
+			executor.close();
+
+			if (lastExecutor == null) {
+				branchSQLExecutor.remove();
+			} else {
+				branchSQLExecutor.set(lastExecutor);
+			}
+			if (lastServicePath == null && lastTable == null) {
+				QueryMetrics.end();
+			} else {
+				QueryMetrics.begin(lastServicePath, lastTable);
+			}
+		}
+	}
+
+	protected static ThreadPoolExecutor getParallelExecutor() {
+		if (PARALLEL_EXECUTOR == null) {
+			synchronized (AbstractParser.class) {
+				if (PARALLEL_EXECUTOR == null) {
+					AtomicInteger threadCount = new AtomicInteger();
+					ThreadPoolExecutor executor = new ThreadPoolExecutor(PARALLEL_THREAD_COUNT, PARALLEL_THREAD_COUNT, 60, TimeUnit.SECONDS
+							, new ArrayBlockingQueue<>(PARALLEL_QUEUE_SIZE), r -> {
+								Thread thread = new Thread(r, "apijson-parallel-" + threadCount.incrementAndGet());
+								thread.setDaemon(true);
+								return thread;
+							}, new ThreadPoolExecutor.CallerRunsPolicy());
+					executor.allowCoreThreadTimeOut(true);
+
+					QueryMetrics.gauge("apijson.parallel.active", executor, ThreadPoolExecutor::getActiveCount);
+					QueryMetrics.gauge("apijson.parallel.queue", executor, e -> e.getQueue().size());
+					PARALLEL_EXECUTOR = executor;
+				}
+			}
+		}
+		return PARALLEL_EXECUTOR;
+	}
+
+	/**限制单个请求同时占用的线程数，超出的任务先排队，前面的任务结束后再提交到共享线程池
+	 */
+	private static class LimitedExecutor implements Executor {
+		private final Executor executor;
+		private final int limit;
+		private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger running = new AtomicInteger();
+
+		private LimitedExecutor(@NotNull Executor executor, int limit) {
+			this.executor = executor;
+			this.limit = limit;
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			queue.offer(command);
+			schedule();
+		}
+
+		private void schedule() {
+			while (queue.isEmpty() == false) {
+				int r = running.get();
+				if (r >= limit) {
+					return;
+				}
+				if (running.compareAndSet(r, r + 1) == false) {
+					continue;
+				}
+
+				Runnable task = queue.poll();
+				if (task == null) {  // 被其它线程取走了
+					running.decrementAndGet();
+					continue;
+				}
+				executor.execute(() -> {
+					try {
+						task.run();
+					} finally {
+						running.decrementAndGet();
+						schedule();
+					}
+				});
+			}
+		}
+	}
+
+	//并行解析 >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
 	/**解析请求json并获取对应结果
 	 * @param request
 	 * @return
 	 */
 	@Override
 	public String parse(String request) {
-		return JSON.toJSONString(parseResponse(request));
+		return toResponseString(parseResponse(request));
 	}
 	/**解析请求json并获取对应结果
 	 * @param request
@@ -290,7 +564,20 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 	@NotNull
 	@Override
 	public String parse(JSONObject request) {
-		return JSON.toJSONString(parseResponse(request));
+		return toResponseString(parseResponse(request));
+	}
+
+	/**序列化响应，记录耗时
+	 * @param response
+	 * @return
+	 */
+	protected String toResponseString(JSONObject response) {
+		long startTime = QueryMetrics.start();
+		try {
+			return JSON.toJSONString(response);
+		} finally {
+			QueryMetrics.record(QueryMetrics.SERIALIZE, startTime);
+		}
 	}
 
 	/**解析请求json并获取对应结果
@@ -300,7 +587,7 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 	@NotNull
 	@Override
 	public JSONObject parseResponse(String request) {
-		Log.d(TAG, "\n\n\n\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n"
+		Log.d(TAG, () -> "\n\n\n\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n"
 				+ requestMethod + "/parseResponse  request = \n" + request + "\n\n");
 
 		try {
@@ -322,7 +609,7 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 	@Override
 	public JSONObject parseResponse(JSONObject request) {
 		long startTime = System.currentTimeMillis();
-		Log.d(TAG, "parseResponse  startTime = " + startTime
+		Log.d(TAG, () -> "parseResponse  startTime = " + startTime
 				+ "<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n\n\n ");
 
 		requestObject = request;
@@ -370,13 +657,16 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 			return extendErrorResult(requestObject, e);
 		}
 
-		final String requestString = JSON.toJSONString(request);//request传进去解析后已经变了
+		final String requestString = Log.isDebugEnabled() ? JSON.toJSONString(request) : null;//request传进去解析后已经变了，只在输出调试日志时序列化
 
 
 		queryResultMap = new HashMap<String, Object>();
 
 		Exception error = null;
 		sqlExecutor = createSQLExecutor();
+		if (rowWriter != null && sqlExecutor instanceof AbstractSQLExecutor) {
+			((AbstractSQLExecutor) sqlExecutor).setRowWriter(rowWriter);
+		}
 		onBegin();
 		try {
 			queryDepth = 0;
@@ -399,28 +689,37 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 		long duration = endTime - startTime;
 
 		if (Log.DEBUG) { //用 | 替代 /，避免 APIJSON ORM，APIAuto 等解析路径错误
-			requestObject.put("sql:generate|cache|execute|maxExecute", getSQLExecutor().getGeneratedSQLCount() + "|" + getSQLExecutor().getCachedSQLCount() + "|" + getSQLExecutor().getExecutedSQLCount() + "|" + getMaxSQLCount());
+			requestObject.put("sql:generate|cache|execute|maxExecute", (getSQLExecutor().getGeneratedSQLCount() + branchGeneratedSQLCount.get())
+					+ "|" + (getSQLExecutor().getCachedSQLCount() + branchCachedSQLCount.get())
+					+ "|" + (getSQLExecutor().getExecutedSQLCount() + branchExecutedSQLCount.get()) + "|" + getMaxSQLCount());
+			requestObject.put("cache:miss|evict|skip", getSQLExecutor().getCacheMissCount() + "|" + getSQLExecutor().getCacheEvictionCount() + "|" + getSQLExecutor().getCacheSkipCount());
 			requestObject.put("depth:count|max", queryDepth + "|" + getMaxQueryDepth());
 			requestObject.put("time:start|duration|end", startTime + "|" + duration + "|" + endTime);
-			res.put("execute_sql",getSQLExecutor().getExecutedSQL());
 			if (error != null) {
 				requestObject.put("throw", error.getClass().getName());
 				requestObject.put("trace", error.getStackTrace());
 			}
 		}
 
+		executedSQL = getSQLExecutor().getExecutedSQL();
+		synchronized (runningBranchSQLExecutors) {
+			// 并行时 SQL 在各分支的 SQLExecutor 中执行，主线程之后没有再执行 SQL 就取最后结束的分支的
+			if (branchExecutedSQL != null && getSQLExecutor().getExecutedSQLCount() <= mainExecutedSQLCountAfterBranch) {
+				executedSQL = branchExecutedSQL;
+			}
+		}
 		onClose();
 
 		//会不会导致原来的session = null？		session = null;
 
-		if (Log.DEBUG) {
+		if (Log.isDebugEnabled()) {
 			Log.d(TAG, "\n\n\n\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n "
 					+ requestMethod + "/parseResponse  request = \n" + requestString + "\n\n");
 
 			Log.d(TAG, "parseResponse  return response = \n" + JSON.toJSONString(requestObject)
 			+ "\n >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> \n\n\n");
 		}
-		Log.d(TAG, "parseResponse  endTime = " + endTime + ";  duration = " + duration
+		Log.d(TAG, () -> "parseResponse  endTime = " + endTime + ";  duration = " + duration
 				+ ">>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n\n\n");
 		return res;
 	}
@@ -441,7 +740,7 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 	 */
 	@Override
 	public void onVerifyRole(@NotNull SQLConfig config) throws Exception {
-		if (Log.DEBUG) {
+		if (Log.isInfoEnabled()) {
 			Log.i(TAG, "onVerifyRole  config = " + JSON.toJSONString(config));
 		}
 
@@ -768,7 +1067,7 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 
 
 
-	protected Map<String, ObjectParser> arrayObjectParserCacheMap = new HashMap<>();
+	protected Map<String, ObjectParser> arrayObjectParserCacheMap = new ConcurrentHashMap<>();
 	
 	//	protected SQLConfig itemConfig;
 	/**获取单个对象，该对象处于parentObject内
@@ -783,7 +1082,7 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 	public JSONObject onObjectParse(final JSONObject request
 			, String parentPath, String name, final SQLConfig arrayConfig, boolean isSubquery) throws Exception {
 
-		if (Log.DEBUG) {
+		if (Log.isInfoEnabled()) {
 			Log.i(TAG, "\ngetObject:  parentPath = " + parentPath
 					+ ";\n name = " + name + "; request = " + JSON.toJSONString(request));
 		}
@@ -910,7 +1209,7 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 	 */
 	@Override
 	public JSONArray onArrayParse(JSONObject request, String parentPath, String name, boolean isSubquery) throws Exception {
-		if (Log.DEBUG) {
+		if (Log.isInfoEnabled()) {
 			Log.i(TAG, "\n\n\n onArrayParse parentPath = " + parentPath
 					+ "; name = " + name + "; request = " + JSON.toJSONString(request));
 		}
@@ -1045,7 +1344,7 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 			request.put(JSONRequest.KEY_JOIN, join);
 		}
 
-		if (Log.DEBUG) {
+		if (Log.isInfoEnabled()) {
 			Log.i(TAG, "onArrayParse  return response = \n" + JSON.toJSONString(response) + "\n>>>>>>>>>>>>>>>\n\n\n");
 		}
 		return response;
@@ -1396,7 +1695,7 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 	 * @return parent == null ? valuePath : parent.get(keys[keys.length - 1])
 	 */
 	@Override
-	public Object getValueByPath(String valuePath) {
+	public synchronized Object getValueByPath(String valuePath) {
 		Log.i(TAG, "<<<<<<<<<<<<<<< \n getValueByPath  valuePath = " + valuePath + "\n <<<<<<<<<<<<<<<<<<");
 		if (StringUtil.isEmpty(valuePath, true)) {
 			Log.e(TAG, "getValueByPath  StringUtil.isNotEmpty(valuePath, true) == false >> return null;");
@@ -1476,7 +1775,7 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 
 	public static final String KEY_CONFIG = "config";
 	
-	protected Map<String, List<JSONObject>> arrayMainCacheMap = new HashMap<>();
+	protected Map<String, List<JSONObject>> arrayMainCacheMap = new ConcurrentHashMap<>();
 	public void putArrayMainCache(String arrayPath, List<JSONObject> mainTableDataList) {
 		arrayMainCacheMap.put(arrayPath, mainTableDataList);
 	}
@@ -1543,7 +1842,7 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 		finally {
 			if (config.getPosition() == 0 && config.limitSQLCount()) {
 				int maxSQLCount = getMaxSQLCount();
-				int sqlCount = getSQLExecutor().getExecutedSQLCount();
+				int sqlCount = getTotalExecutedSQLCount();
 				Log.d(TAG, "<<<<<<<<<<<<<<<<<<<<<<<<<<<<<< \n\n\n 已执行 " + sqlCount + "/" + maxSQLCount + " 条 SQL \n\n\n >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>");
 				if (sqlCount > maxSQLCount) {
 					throw new IllegalArgumentException("截至 " + config.getTable() + " 已执行 " + sqlCount + " 条 SQL，数量已超限，必须在 0-" + maxSQLCount + " 内 !");
@@ -1553,6 +1852,20 @@ public abstract class AbstractParser<T> implements Parser<T>, ParserCreator<T>,
 	}
 
 
+	/**已执行的 SQL 数量，包括主线程、已结束和正在执行的分支
+	 * @return
+	 */
+	protected int getTotalExecutedSQLCount() {
+		synchronized (runningBranchSQLExecutors) {
+			int count = branchExecutedSQLCount.get() + (sqlExecutor == null ? 0 : sqlExecutor.getExecutedSQLCount());
+			for (SQLExecutor executor : runningBranchSQLExecutors) {
+				count += executor.getExecutedSQLCount();
+			}
+			return count;
+		}
+	}
+
+
 	//事务处理 <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
 	private int transactionIsolation = Connection.TRANSACTION_NONE;
 	@Override
@@ -0,0 +1,407 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.serializer.JSONSerializer;
+import com.alibaba.fastjson.serializer.SerializeWriter;
+
+import apijson.NotNull;
+
+/**列式行缓冲，按块从 ResultSet 读取，每列一个原始类型数组，块之间复用
+ * <br > 列名、列类型在创建时从 ResultSetMetaData 解析一次，之后每行不再查询
+ * <br > 整数列存 long[]，浮点列存 double[]，字符串列用字典编码存 int[]，其它列(日期、JSON、DECIMAL 等)按 {@link AbstractSQLExecutor#getValue} 的规则存对象
+ * <br > 可直接用 {@link #writeJSON(JSONSerializer, int)} 序列化，也可用 getLong, getDouble, getString 读取，不经过 JSONObject
+ */
+public class ColumnarRows {
+
+	public static final int TYPE_OBJECT = 0;
+	public static final int TYPE_LONG = 1;
+	public static final int TYPE_DOUBLE = 2;
+	public static final int TYPE_FLOAT = 3;
+	public static final int TYPE_STRING = 4;
+
+	public static final int DEFAULT_BLOCK_SIZE = 4096;
+	/**字典里的字符串超过这个数量后，这一列不再编码，直接存 String
+	 */
+	public static final int MAX_DICTIONARY_SIZE = 4096;
+
+	/**按对象读取的列的取值方式
+	 */
+	public interface ValueReader {
+		/**
+		 * @param row 在整个结果集中的行号，从0开始
+		 * @param columnIndex 从1开始
+		 * @param label
+		 * @return
+		 * @throws Exception
+		 */
+		Object read(int row, int columnIndex, String label) throws Exception;
+	}
+
+	private final int capacity;
+	private final String[] labels;
+	/**"label": ，序列化时直接写入
+	 */
+	private final String[] fieldNames;
+	private final int[] columnIndexes;
+	private final int[] types;
+
+	private final long[][] longs;
+	private final double[][] doubles;
+	private final int[][] codes;
+	private final String[][] strings;
+	private final Object[][] objects;
+	private final boolean[][] nulls;
+
+	private final List<List<String>> dictionaries;
+	private final List<Map<String, Integer>> dictionaryMaps;
+
+	private int size;
+	private int offset;
+
+	/**
+	 * @param rsmd
+	 * @param capacity 每块的行数
+	 * @param isObjectColumn (columnIndex, label) -> 是否必须按对象读取，例如 JSON 列
+	 * @throws Exception
+	 */
+	public ColumnarRows(@NotNull ResultSetMetaData rsmd, int capacity, BiPredicate<Integer, String> isObjectColumn) throws Exception {
+		this.capacity = capacity;
+
+		int count = rsmd.getColumnCount();
+		List<Integer> indexList = new ArrayList<>(count);
+		for (int i = 1; i <= count; i++) {
+			if (rsmd.getColumnName(i).startsWith("_")) {
+				continue;
+			}
+			indexList.add(i);
+		}
+
+		int length = indexList.size();
+		labels = new String[length];
+		fieldNames = new String[length];
+		columnIndexes = new int[length];
+		types = new int[length];
+
+		longs = new long[length][];
+		doubles = new double[length][];
+		codes = new int[length][];
+		strings = new String[length][];
+		objects = new Object[length][];
+		nulls = new boolean[length][];
+
+		dictionaries = new ArrayList<>(length);
+		dictionaryMaps = new ArrayList<>(length);
+
+		for (int c = 0; c < length; c++) {
+			int i = indexList.get(c);
+			columnIndexes[c] = i;
+			labels[c] = rsmd.getColumnLabel(i);
+			fieldNames[c] = JSON.toJSONString(labels[c]) + ":";
+
+			int type = isObjectColumn != null && isObjectColumn.test(i, labels[c]) ? TYPE_OBJECT : getType(rsmd, i);
+			types[c] = type;
+			nulls[c] = new boolean[capacity];
+
+			switch (type) {
+			case TYPE_LONG:
+				longs[c] = new long[capacity];
+				break;
+			case TYPE_DOUBLE:
+			case TYPE_FLOAT:
+				doubles[c] = new double[capacity];
+				break;
+			case TYPE_STRING:
+				codes[c] = new int[capacity];
+				break;
+			default:
+				objects[c] = new Object[capacity];
+				break;
+			}
+
+			dictionaries.add(type == TYPE_STRING ? new ArrayList<>() : null);
+			dictionaryMaps.add(type == TYPE_STRING ? new HashMap<>() : null);
+		}
+	}
+
+	/**按 JDBC 类型确定存储方式，无符号 64 位整数可能超出 long 范围，按对象存
+	 * @param rsmd
+	 * @param columnIndex
+	 * @return
+	 * @throws Exception
+	 */
+	protected int getType(@NotNull ResultSetMetaData rsmd, int columnIndex) throws Exception {
+		switch (rsmd.getColumnType(columnIndex)) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+			return TYPE_LONG;
+		case Types.BIGINT:
+			String name = rsmd.getColumnTypeName(columnIndex);
+			return name != null && name.contains("UInt64") ? TYPE_OBJECT : TYPE_LONG;
+		case Types.DOUBLE:
+			return TYPE_DOUBLE;
+		case Types.FLOAT:
+		case Types.REAL:
+			return TYPE_FLOAT;
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.LONGVARCHAR:
+		case Types.NCHAR:
+		case Types.NVARCHAR:
+		case Types.LONGNVARCHAR:
+			return TYPE_STRING;
+		default:
+			return TYPE_OBJECT;
+		}
+	}
+
+	/**读取下一块，覆盖上一块的数据
+	 * @param rs
+	 * @param reader 按对象读取的列的取值方式
+	 * @return 读到的行数，0 表示已读完
+	 * @throws Exception
+	 */
+	public int read(@NotNull ResultSet rs, @NotNull ValueReader reader) throws Exception {
+		offset += size;
+		size = 0;
+
+		while (size < capacity && rs.next()) {
+			int r = size;
+			for (int c = 0; c < types.length; c++) {
+				int i = columnIndexes[c];
+				switch (types[c]) {
+				case TYPE_LONG:
+					longs[c][r] = rs.getLong(i);
+					nulls[c][r] = rs.wasNull();
+					break;
+				case TYPE_DOUBLE:
+					doubles[c][r] = rs.getDouble(i);
+					nulls[c][r] = rs.wasNull();
+					break;
+				case TYPE_FLOAT:
+					doubles[c][r] = rs.getFloat(i);
+					nulls[c][r] = rs.wasNull();
+					break;
+				case TYPE_STRING:
+					String s = rs.getString(i);
+					nulls[c][r] = s == null;
+					if (strings[c] != null) {
+						strings[c][r] = s;
+					} else if (s != null) {
+						int code = encode(c, s, r);
+						if (code >= 0) {
+							codes[c][r] = code;
+						}
+					}
+					break;
+				default:
+					Object value = reader.read(offset + r, i, labels[c]);
+					nulls[c][r] = value == null;
+					objects[c][r] = value;
+					break;
+				}
+			}
+			size ++;
+		}
+
+		return size;
+	}
+
+	/**查字典编码，字典过大时这一列改为直接存 String
+	 */
+	private int encode(int c, @NotNull String s, int r) {
+		Map<String, Integer> map = dictionaryMaps.get(c);
+		Integer code = map.get(s);
+		if (code != null) {
+			return code;
+		}
+
+		List<String> dictionary = dictionaries.get(c);
+		if (dictionary.size() < MAX_DICTIONARY_SIZE) {
+			code = dictionary.size();
+			dictionary.add(s);
+			map.put(s, code);
+			return code;
+		}
+
+		// 高基数列，已读的行解码后不再编码
+		String[] column = new String[capacity];
+		for (int i = 0; i < r; i++) {
+			column[i] = nulls[c][i] ? null : dictionary.get(codes[c][i]);
+		}
+		column[r] = s;
+		strings[c] = column;
+		codes[c] = null;
+		dictionaries.set(c, null);
+		dictionaryMaps.set(c, null);
+		return -1;
+	}
+
+	/**当前块的行数
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**当前块第一行在整个结果集中的行号
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getColumnCount() {
+		return labels.length;
+	}
+
+	public String getLabel(int column) {
+		return labels[column];
+	}
+
+	/**
+	 * @param label
+	 * @return 列序号，不存在时返回 -1
+	 */
+	public int indexOf(String label) {
+		for (int c = 0; c < labels.length; c++) {
+			if (labels[c].equals(label)) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param column
+	 * @return {@link #TYPE_LONG}, {@link #TYPE_DOUBLE}, {@link #TYPE_FLOAT}, {@link #TYPE_STRING}, {@link #TYPE_OBJECT}
+	 */
+	public int getType(int column) {
+		return types[column];
+	}
+
+	public boolean isNull(int column, int row) {
+		return nulls[column][row];
+	}
+
+	public long getLong(int column, int row) {
+		switch (types[column]) {
+		case TYPE_LONG:
+			return longs[column][row];
+		case TYPE_DOUBLE:
+		case TYPE_FLOAT:
+			return (long) doubles[column][row];
+		default:
+			Object value = get(column, row);
+			return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(String.valueOf(value));
+		}
+	}
+
+	public double getDouble(int column, int row) {
+		switch (types[column]) {
+		case TYPE_LONG:
+			return longs[column][row];
+		case TYPE_DOUBLE:
+		case TYPE_FLOAT:
+			return doubles[column][row];
+		default:
+			Object value = get(column, row);
+			return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(String.valueOf(value));
+		}
+	}
+
+	public String getString(int column, int row) {
+		if (nulls[column][row]) {
+			return null;
+		}
+		if (types[column] == TYPE_STRING) {
+			return strings[column] != null ? strings[column][row] : dictionaries.get(column).get(codes[column][row]);
+		}
+		return String.valueOf(get(column, row));
+	}
+
+	/**装箱后的值，和逐行读取时放入 JSONObject 的值等价
+	 * @param column
+	 * @param row
+	 * @return
+	 */
+	public Object get(int column, int row) {
+		if (nulls[column][row]) {
+			return null;
+		}
+		switch (types[column]) {
+		case TYPE_LONG:
+			return longs[column][row];
+		case TYPE_DOUBLE:
+			return doubles[column][row];
+		case TYPE_FLOAT:
+			return (float) doubles[column][row];
+		case TYPE_STRING:
+			return getString(column, row);
+		default:
+			return objects[column][row];
+		}
+	}
+
+	public JSONObject toJSONObject(int row) {
+		JSONObject item = new JSONObject(true);
+		for (int c = 0; c < labels.length; c++) {
+			item.put(labels[c], get(c, row));
+		}
+		return item;
+	}
+
+	/**把一行写成 JSON 对象，数值和字符串直接写入，不装箱、不创建 JSONObject
+	 * <br > 和 JSON.writeJSONString 一样不写值为 null 的字段
+	 * @param serializer
+	 * @param row
+	 */
+	public void writeJSON(@NotNull JSONSerializer serializer, int row) {
+		SerializeWriter out = serializer.getWriter();
+		out.write('{');
+		boolean first = true;
+		for (int c = 0; c < labels.length; c++) {
+			if (nulls[c][row]) {
+				continue;
+			}
+			if (first == false) {
+				out.write(',');
+			}
+			first = false;
+			out.write(fieldNames[c]);
+
+			switch (types[c]) {
+			case TYPE_LONG:
+				out.writeLong(longs[c][row]);
+				break;
+			case TYPE_DOUBLE:
+				out.writeDouble(doubles[c][row], false);
+				break;
+			case TYPE_FLOAT:
+				out.writeFloat((float) doubles[c][row], false);
+				break;
+			case TYPE_STRING:
+				out.writeString(getString(c, row));
+				break;
+			default:
+				serializer.write(objects[c][row]);
+				break;
+			}
+		}
+		out.write('}');
+	}
+
+}
@@ -0,0 +1,34 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import com.alibaba.fastjson.JSONObject;
+
+import apijson.NotNull;
+
+/**流式输出数组主表的查询结果，每读到一行调用一次，不缓存整个结果集
+ * @see AbstractSQLExecutor#setRowWriter(RowWriter)
+ */
+public interface RowWriter {
+
+	/**
+	 * @param row 写完后不再引用
+	 * @throws Exception 写入失败时中断查询
+	 */
+	void write(JSONObject row) throws Exception;
+
+	/**按块写入列式读取的行，ClickHouse 查询走这里，默认逐行转为 JSONObject 后调用 {@link #write(JSONObject)}
+	 * <br > 实现类可以覆盖，直接读取原始类型的列，不创建 JSONObject
+	 * @param rows 只在本次调用内有效，下一块会覆盖
+	 * @throws Exception 写入失败时中断查询
+	 */
+	default void write(@NotNull ColumnarRows rows) throws Exception {
+		for (int i = 0; i < rows.size(); i++) {
+			write(rows.toJSONObject(i));
+		}
+	}
+
+}
@@ -0,0 +1,231 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+
+import apijson.Log;
+import apijson.NotNull;
+
+/**按数据源(database/服务名)复用的 JDBC 连接池，AbstractSQLExecutor 从这里借出连接，close 时归还
+ * <br > 同一个名字下 url/账号/密码 变化时(NacosListener、reflushDbInfo 等)会重建连接池，只有大小变化时在线调整
+ */
+public class SQLConnectionPool {
+	private static final String TAG = "SQLConnectionPool";
+
+	/**默认最大连接数
+	 */
+	public static int DEFAULT_MAXIMUM_POOL_SIZE = 20;
+	/**默认最小空闲连接数
+	 */
+	public static int DEFAULT_MINIMUM_IDLE = 2;
+	/**空闲连接回收时间(毫秒)
+	 */
+	public static long DEFAULT_IDLE_TIMEOUT = 10 * 60 * 1000L;
+	/**连接最大存活时间(毫秒)，需小于数据库端的 wait_timeout
+	 */
+	public static long DEFAULT_MAX_LIFETIME = 30 * 60 * 1000L;
+	/**借连接的最大等待时间(毫秒)
+	 */
+	public static long DEFAULT_CONNECTION_TIMEOUT = 30 * 1000L;
+	/**部分驱动(ClickHouse/Kylin)不支持 Connection.isValid，统一用这条 SQL 校验
+	 */
+	public static String DEFAULT_TEST_QUERY = "SELECT 1";
+
+	/**name -> pool
+	 */
+	private static final Map<String, Pool> POOL_MAP = new ConcurrentHashMap<>();
+	/**name -> [maximumPoolSize, minimumIdle]，单独配置大小的数据源
+	 */
+	private static final Map<String, int[]> SIZE_MAP = new ConcurrentHashMap<>();
+
+	private SQLConnectionPool() {
+	}
+
+	/**从连接池借出连接，用完 close 即归还
+	 * @param name 数据源名，一般为 SQLConfig.getSQLDatabase() 或 dbInfoMap 中的服务名
+	 * @param url
+	 * @param account
+	 * @param password
+	 * @return
+	 * @throws SQLException
+	 */
+	@NotNull
+	public static Connection getConnection(@NotNull String name, @NotNull String url, String account, String password) throws SQLException {
+		Pool pool = POOL_MAP.get(name);
+		if (pool == null || pool.matches(url, account, password) == false) {
+			pool = refresh(name, url, account, password);
+		}
+		return pool.dataSource.getConnection();
+	}
+
+	/**新建或在数据源信息变化时重建连接池，信息未变化时不做任何事
+	 * @param name
+	 * @param url
+	 * @param account
+	 * @param password
+	 * @return
+	 */
+	public static synchronized Pool refresh(@NotNull String name, @NotNull String url, String account, String password) {
+		Pool pool = POOL_MAP.get(name);
+		if (pool != null && pool.matches(url, account, password)) {
+			return pool;
+		}
+
+		Pool newPool = new Pool(name, url, account, password);
+		POOL_MAP.put(name, newPool);
+		Log.i(TAG, "refresh  name = " + name + "; url = " + url + (pool == null ? " >> create" : " >> rebuild"));
+
+		if (pool != null) {
+			closeAsync(pool);
+		}
+		return newPool;
+	}
+
+	/**只保留指定名字的连接池，其它的关闭，用于 dbInfoMap 重新加载后移除已删除/停用的数据源
+	 * @param names
+	 */
+	public static synchronized void retain(@NotNull Collection<String> names) {
+		Iterator<Map.Entry<String, Pool>> iterator = POOL_MAP.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Pool> entry = iterator.next();
+			// PostgreSQL 按 name/schema 分池
+			String name = entry.getKey();
+			int index = name.indexOf("/");
+			if (names.contains(index < 0 ? name : name.substring(0, index)) == false) {
+				iterator.remove();
+				closeAsync(entry.getValue());
+			}
+		}
+	}
+
+	/**修改默认连接池大小，在线调整所有未单独配置大小的连接池
+	 * @param maximumPoolSize
+	 * @param minimumIdle
+	 */
+	public static synchronized void setDefaultSize(int maximumPoolSize, int minimumIdle) {
+		DEFAULT_MAXIMUM_POOL_SIZE = maximumPoolSize;
+		DEFAULT_MINIMUM_IDLE = minimumIdle;
+		for (Pool pool : POOL_MAP.values()) {
+			if (SIZE_MAP.containsKey(pool.name) == false) {
+				pool.resize(maximumPoolSize, minimumIdle);
+			}
+		}
+	}
+
+	/**单独配置某个数据源的连接池大小，已存在时在线调整
+	 * @param name
+	 * @param maximumPoolSize
+	 * @param minimumIdle
+	 */
+	public static synchronized void setSize(@NotNull String name, int maximumPoolSize, int minimumIdle) {
+		SIZE_MAP.put(name, new int[]{maximumPoolSize, minimumIdle});
+		Pool pool = POOL_MAP.get(name);
+		if (pool != null) {
+			pool.resize(maximumPoolSize, minimumIdle);
+		}
+	}
+
+	/**旧连接池可能还有正在使用的连接，异步关闭，不阻塞调用方
+	 * @param pool
+	 */
+	private static void closeAsync(@NotNull Pool pool) {
+		Log.i(TAG, "closeAsync  name = " + pool.name + "; url = " + pool.url);
+		Thread thread = new Thread(pool::close, TAG + "-close-" + pool.name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**关闭所有连接池
+	 */
+	public static synchronized void closeAll() {
+		for (Pool pool : POOL_MAP.values()) {
+			pool.close();
+		}
+		POOL_MAP.clear();
+	}
+
+
+	public static class Pool {
+		private final String name;
+		private final String url;
+		private final String account;
+		private final String password;
+		private final HikariDataSource dataSource;
+
+		private Pool(String name, String url, String account, String password) {
+			this.name = name;
+			this.url = url;
+			this.account = account;
+			this.password = password;
+
+			int[] size = SIZE_MAP.get(name);
+
+			HikariConfig config = new HikariConfig();
+			config.setPoolName("apijson-" + name);
+			config.setJdbcUrl(url);
+			config.setUsername(account);
+			config.setPassword(password);
+			config.setMaximumPoolSize(size == null ? DEFAULT_MAXIMUM_POOL_SIZE : size[0]);
+			config.setMinimumIdle(size == null ? DEFAULT_MINIMUM_IDLE : size[1]);
+			config.setIdleTimeout(DEFAULT_IDLE_TIMEOUT);
+			config.setMaxLifetime(DEFAULT_MAX_LIFETIME);
+			config.setConnectionTimeout(DEFAULT_CONNECTION_TIMEOUT);
+			config.setConnectionTestQuery(DEFAULT_TEST_QUERY);
+			// 连接池创建时数据库不可用也不影响服务启动，第一次借连接时再报错
+			config.setInitializationFailTimeout(-1);
+			this.dataSource = new HikariDataSource(config);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public HikariDataSource getDataSource() {
+			return dataSource;
+		}
+
+		boolean matches(String url, String account, String password) {
+			return Objects.equals(this.url, url) && Objects.equals(this.account, account) && Objects.equals(this.password, password);
+		}
+
+		void resize(int maximumPoolSize, int minimumIdle) {
+			HikariConfigMXBean bean = dataSource.getHikariConfigMXBean();
+			// 先调大 max 再调 min，避免 minimumIdle > maximumPoolSize 校验失败
+			if (maximumPoolSize >= bean.getMaximumPoolSize()) {
+				bean.setMaximumPoolSize(maximumPoolSize);
+				bean.setMinimumIdle(minimumIdle);
+			} else {
+				bean.setMinimumIdle(minimumIdle);
+				bean.setMaximumPoolSize(maximumPoolSize);
+			}
+			Log.i(TAG, "resize  name = " + name + "; maximumPoolSize = " + maximumPoolSize + "; minimumIdle = " + minimumIdle);
+		}
+
+		void close() {
+			try {
+				dataSource.close();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
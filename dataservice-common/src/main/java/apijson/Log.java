@@ -5,20 +5,49 @@ This source code is licensed under the Apache License Version 2.0.*/
 
 package apijson;
 
-/**测试用Log
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**Log，输出到 SLF4J 的 apijson logger，是否输出由 logger 级别决定
+ * <br > DEBUG 只控制调试功能(响应中的调试字段、EXPLAIN、异常详情等)，不再控制日志输出
+ * <br > 拼接开销大的日志用 Supplier 重载，级别未开启时不拼接
  * @modifier Lemon
  */
 public class Log {
 
-	public static boolean DEBUG = true;
-	
+	/**调试模式，默认关闭，可用启动参数 -Dapijson.debug=true 开启
+	 */
+	public static boolean DEBUG = Boolean.parseBoolean(System.getProperty("apijson.debug", "false"));
+
+	private static final Logger LOGGER = LoggerFactory.getLogger("apijson");
+
+	public static boolean isDebugEnabled() {
+		return LOGGER.isDebugEnabled();
+	}
+
+	public static boolean isInfoEnabled() {
+		return LOGGER.isInfoEnabled();
+	}
+
 	/**
 	 * @param TAG
 	 * @param msg
 	 */
 	public static void d(String TAG, String msg) {
-		if (DEBUG) {
-			System.err.println(TAG + ".DEBUG: " + msg);
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("{}: {}", TAG, msg);
+		}
+	}
+
+	/**
+	 * @param TAG
+	 * @param msg 只在 DEBUG 级别开启时调用
+	 */
+	public static void d(String TAG, Supplier<String> msg) {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("{}: {}", TAG, msg.get());
 		}
 	}
 
@@ -27,8 +56,8 @@ public class Log {
 	 * @param msg
 	 */
 	public static void v(String TAG, String msg) {
-		if (DEBUG) {
-			System.out.println(TAG + ".VERBOSE: " + msg);
+		if (LOGGER.isTraceEnabled()) {
+			LOGGER.trace("{}: {}", TAG, msg);
 		}
 	}
 
@@ -37,8 +66,18 @@ public class Log {
 	 * @param msg
 	 */
 	public static void i(String TAG, String msg) {
-		if (DEBUG) {
-			System.out.println(TAG + ".INFO: " + msg);
+		if (LOGGER.isInfoEnabled()) {
+			LOGGER.info("{}: {}", TAG, msg);
+		}
+	}
+
+	/**
+	 * @param TAG
+	 * @param msg 只在 INFO 级别开启时调用
+	 */
+	public static void i(String TAG, Supplier<String> msg) {
+		if (LOGGER.isInfoEnabled()) {
+			LOGGER.info("{}: {}", TAG, msg.get());
 		}
 	}
 
@@ -47,9 +86,7 @@ public class Log {
 	 * @param msg
 	 */
 	public static void e(String TAG, String msg) {
-		if (DEBUG) {
-			System.err.println(TAG + ".ERROR: " + msg);
-		}
+		LOGGER.error("{}: {}", TAG, msg);
 	}
 
 	/**
@@ -57,9 +94,7 @@ public class Log {
 	 * @param msg
 	 */
 	public static void w(String TAG, String msg) {
-		if (DEBUG) {
-			System.err.println(TAG + ".WARN: " + msg);
-		}
+		LOGGER.warn("{}: {}", TAG, msg);
 	}
 
 }
@@ -0,0 +1,289 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.cache;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import apijson.Log;
+import apijson.NotNull;
+import apijson.QueryMetrics;
+
+/**查询结果缓存
+ * <br > 1.每个 key 单独过期，过期时间可按表别名配置，取请求中所有表的最小值
+ * <br > 2.进程内有界近缓存(Caffeine W-TinyLFU)挡在 Redis 前面
+ * <br > 3.相同 key 的并发请求只执行一次查询，其它请求等待结果
+ * <br > 4.执行的 SQL 和结果一起缓存，命中缓存时也能记录访问历史
+ */
+public class QueryResultCache {
+	private static final String TAG = "QueryResultCache";
+
+	/**远程缓存，一般是 Redis，实现类需自己处理异常，失败时 get 返回 null、set 返回 false
+	 */
+	public interface RemoteStore {
+		Object get(String key);
+
+		boolean set(String key, Object value, long seconds);
+	}
+
+	private final String name;
+	private final RemoteStore remoteStore;
+	private final Cache<String, CacheEntry> nearCache;
+	private final Map<String, CompletableFuture<Result>> inFlightMap = new ConcurrentHashMap<>();
+	/**表别名(servicePath.table_alias) -> 过期时间(秒)
+	 */
+	private volatile Map<String, Long> tableTtlMap = new ConcurrentHashMap<>();
+
+	/**
+	 * @param name 缓存名，作为 Redis key 前缀，例如 roc、chatbot
+	 * @param remoteStore 为 null 时只用近缓存
+	 * @param nearCacheSize 近缓存最大条数，<= 0 时不用近缓存
+	 */
+	public QueryResultCache(@NotNull String name, RemoteStore remoteStore, long nearCacheSize) {
+		this.name = name;
+		this.remoteStore = remoteStore;
+		this.nearCache = nearCacheSize <= 0 ? null : Caffeine.newBuilder()
+				.maximumSize(nearCacheSize)
+				.expireAfter(new Expiry<String, CacheEntry>() {
+					@Override
+					public long expireAfterCreate(String key, CacheEntry value, long currentTime) {
+						return value.expireAt - currentTime;
+					}
+
+					@Override
+					public long expireAfterUpdate(String key, CacheEntry value, long currentTime, long currentDuration) {
+						return value.expireAt - currentTime;
+					}
+
+					@Override
+					public long expireAfterRead(String key, CacheEntry value, long currentTime, long currentDuration) {
+						return currentDuration;
+					}
+				})
+				.build();
+	}
+
+	/**按表别名配置过期时间
+	 * @param tableTtl 例如 roc.table_a:60,roc.table_b:5
+	 */
+	public void setTableTtl(String tableTtl) {
+		Map<String, Long> map = new ConcurrentHashMap<>();
+		if (tableTtl != null && tableTtl.trim().isEmpty() == false) {
+			for (String item : tableTtl.split(",")) {
+				int index = item.lastIndexOf(":");
+				if (index <= 0) {
+					Log.e(TAG, "setTableTtl  item = " + item + " 格式错误，应为 servicePath.table_alias:seconds");
+					continue;
+				}
+				try {
+					map.put(item.substring(0, index).trim(), Long.parseLong(item.substring(index + 1).trim()));
+				} catch (NumberFormatException e) {
+					Log.e(TAG, "setTableTtl  item = " + item + " 过期时间不是数字");
+				}
+			}
+		}
+		tableTtlMap = map;
+	}
+
+	/**取请求中所有表的最小过期时间，没有单独配置的用 defaultTtl
+	 * @param servicePath
+	 * @param tables
+	 * @param defaultTtl
+	 * @return
+	 */
+	public long getTtl(String servicePath, Collection<String> tables, long defaultTtl) {
+		long ttl = Long.MAX_VALUE;
+		if (tables != null) {
+			for (String table : tables) {
+				Long t = tableTtlMap.get(servicePath + "." + table);
+				ttl = Math.min(ttl, t == null ? defaultTtl : t);
+			}
+		}
+		return ttl == Long.MAX_VALUE ? defaultTtl : ttl;
+	}
+
+	/**同 {@link #getResult}，不需要执行的 SQL 时使用
+	 * @param key
+	 * @param ttl
+	 * @param useRemote
+	 * @param loader
+	 * @param cacheable
+	 * @return
+	 */
+	public String get(@NotNull String key, long ttl, boolean useRemote, @NotNull Supplier<String> loader, @NotNull Predicate<String> cacheable) {
+		return getResult(key, ttl, useRemote, () -> new Result(loader.get(), null), cacheable).getValue();
+	}
+
+	/**先查近缓存，再查远程缓存，都没有则执行 loader，相同 key 并发时只执行一次
+	 * @param key 一般为请求体的 MD5
+	 * @param ttl 过期时间(秒)，<= 0 时不缓存
+	 * @param useRemote false 时跳过远程缓存，例如 Redis 超时降级
+	 * @param loader 查询，返回结果和执行的 SQL
+	 * @param cacheable 结果是否可以缓存，例如只缓存成功的结果
+	 * @return 命中缓存时是缓存的结果和当时执行的 SQL
+	 */
+	public Result getResult(@NotNull String key, long ttl, boolean useRemote, @NotNull Supplier<Result> loader, @NotNull Predicate<String> cacheable) {
+		if (ttl <= 0) {
+			return loader.get();
+		}
+
+		CacheEntry entry = nearCache == null ? null : nearCache.getIfPresent(key);
+		if (entry != null) {
+			QueryMetrics.countCache(QueryMetrics.CACHE_NEAR_HIT);
+			return entry.result;
+		}
+
+		CompletableFuture<Result> future = new CompletableFuture<>();
+		CompletableFuture<Result> running = inFlightMap.putIfAbsent(key, future);
+		if (running != null) {
+			QueryMetrics.countCache(QueryMetrics.CACHE_SHARED);
+			return await(running, key, loader);
+		}
+
+		try {
+			Result result = useRemote ? getRemote(key) : null;
+			QueryMetrics.countCache(result == null ? QueryMetrics.CACHE_MISS : QueryMetrics.CACHE_REMOTE_HIT);
+			if (result == null) {
+				result = loader.get();
+				if (result != null && result.value != null && cacheable.test(result.value)) {
+					putNear(key, result, ttl);
+					if (useRemote) {
+						putRemote(key, result, ttl);
+					}
+				}
+			} else {
+				putNear(key, result, ttl);
+			}
+			future.complete(result);
+			return result;
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlightMap.remove(key, future);
+		}
+	}
+
+	private Result await(CompletableFuture<Result> running, String key, Supplier<Result> loader) {
+		try {
+			return running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return loader.get();
+		} catch (ExecutionException e) {
+			// 第一个请求失败时不共享异常，各自再查一次
+			Log.e(TAG, "await  key = " + key + "; " + e.getMessage());
+			return loader.get();
+		}
+	}
+
+	private Result getRemote(String key) {
+		if (remoteStore == null) {
+			return null;
+		}
+		long startTime = QueryMetrics.start();
+		Object value = remoteStore.get(getRemoteKey(key));
+		QueryMetrics.record(QueryMetrics.CACHE_LOOKUP, startTime);
+		String s = value == null ? null : value.toString();
+		return s == null || s.isEmpty() ? null : Result.decode(s);
+	}
+
+	private void putRemote(String key, Result result, long ttl) {
+		if (remoteStore != null && remoteStore.set(getRemoteKey(key), result.encode(), ttl) == false) {
+			Log.e(TAG, "putRemote  redis数据存储失败, key = " + getRemoteKey(key));
+		}
+	}
+
+	private void putNear(String key, Result result, long ttl) {
+		if (nearCache != null) {
+			nearCache.put(key, new CacheEntry(result, System.nanoTime() + TimeUnit.SECONDS.toNanos(ttl)));
+		}
+	}
+
+	public String getRemoteKey(String key) {
+		return name + "_result_" + key;
+	}
+
+	/**清空近缓存，远程缓存靠过期时间淘汰
+	 */
+	public void invalidateAll() {
+		if (nearCache != null) {
+			nearCache.invalidateAll();
+		}
+	}
+
+
+	/**查询结果和执行的 SQL
+	 */
+	public static class Result {
+		/**Redis 中带 SQL 的值以它开头，后面是 SQL 的长度、冒号、SQL 和结果，旧格式的值只有结果
+		 */
+		private static final char SQL_MARK = '\u0001';
+
+		private final String value;
+		private final String executedSQL;
+
+		public Result(String value, String executedSQL) {
+			this.value = value;
+			this.executedSQL = executedSQL;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		/**
+		 * @return 没有执行 SQL 或者没有记录时为 null
+		 */
+		public String getExecutedSQL() {
+			return executedSQL;
+		}
+
+		private String encode() {
+			if (executedSQL == null) {
+				return value;
+			}
+			return SQL_MARK + String.valueOf(executedSQL.length()) + ":" + executedSQL + value;
+		}
+
+		private static Result decode(@NotNull String s) {
+			int index = s.charAt(0) == SQL_MARK ? s.indexOf(':') : -1;
+			if (index > 1) {
+				try {
+					int start = index + 1;
+					int end = start + Integer.parseInt(s.substring(1, index));
+					if (end <= s.length()) {
+						return new Result(s.substring(end), s.substring(start, end));
+					}
+				} catch (NumberFormatException e) {
+					Log.e(TAG, "decode  " + e.getMessage());
+				}
+			}
+			return new Result(s, null);
+		}
+	}
+
+	private static class CacheEntry {
+		private final Result result;
+		private final long expireAt;
+
+		private CacheEntry(Result result, long expireAt) {
+			this.result = result;
+			this.expireAt = expireAt;
+		}
+	}
+
+}
@@ -0,0 +1,20 @@
+package apijson.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * dataservice_access_history 的一行，不含响应内容
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AccessHistory {
+	private String token;
+	private String service_path;
+	private String table_alias;
+	private String execute_sql;
+	private boolean success;
+	private String msg;
+}
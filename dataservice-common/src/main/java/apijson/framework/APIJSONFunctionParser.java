@@ -36,6 +36,7 @@ import apijson.RequestMethod;
 import apijson.RequestRole;
 import apijson.StringUtil;
 import apijson.orm.AbstractFunctionParser;
+import apijson.orm.FunctionParser;
 import apijson.orm.JSONRequest;
 import unitauto.MethodUtil;
 import unitauto.MethodUtil.Argument;
@@ -195,6 +196,12 @@ public class APIJSONFunctionParser extends AbstractFunctionParser {
 
 		}
 
+		// 远程函数的分派表和调用限制提前准备好，请求中不再反射查找
+		FunctionParser functionParser = creator.createFunctionParser();
+		if (functionParser instanceof AbstractFunctionParser) {
+			AbstractFunctionParser.prepare(((AbstractFunctionParser) functionParser).getClass());
+		}
+
 		return response;
 	}
 
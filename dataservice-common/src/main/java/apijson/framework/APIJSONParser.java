@@ -18,6 +18,8 @@ import static apijson.framework.APIJSONConstant.DEFAULTS;
 import static apijson.framework.APIJSONConstant.FORMAT;
 import static apijson.framework.APIJSONConstant.VERSION;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,8 +31,10 @@ import apijson.StringUtil;
 import apijson.entity.*;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import apijson.Log;
 import apijson.NotNull;
 import apijson.RequestMethod;
+import apijson.cache.AliasConfigSnapshot;
 import apijson.orm.AbstractParser;
 import apijson.orm.AbstractSQLConfig;
 import apijson.orm.FunctionParser;
@@ -139,8 +143,10 @@ public class APIJSONParser extends AbstractParser<Long> {
         return functionParser;
     }
 
+    /**并行解析时多个线程共用 functionParser，要串行调用
+     */
     @Override
-    public Object onFunctionParse(String key, String function, String parentPath, String currentName,
+    public synchronized Object onFunctionParse(String key, String function, String parentPath, String currentName,
                                   JSONObject currentObject) throws Exception {
         if (functionParser == null) {
             functionParser = createFunctionParser();
@@ -203,7 +209,12 @@ public class APIJSONParser extends AbstractParser<Long> {
     // return 50;
     // }
 
+    /**每批查询的 id 数量，避免 IN 过长
+     */
+    public static int LOAD_BATCH_SIZE = 500;
+
     public void loadAliasConfig() {
+        long startTime = System.currentTimeMillis();
         // 查询配置的数据库信息
         String request = "{\"@database\":\"DATASERVICE\",\"@schema\":\"bigdata_dataservice\",\"[]\":{\"Db_info\": {\"is_delete\":0,\"state\":1,\"common_service\":1},\"count\":0}}";
         setNeedVerify(false);
@@ -212,101 +223,272 @@ public class APIJSONParser extends AbstractParser<Long> {
             return;
         }
         List<JSONObject> db_infos = JSONArray.parseArray(object.get("[]").toString(), JSONObject.class);
-        Map<String, String> TABLE_KEY_MAP = new HashMap<String, String>();
-        Map<String, Map<String, String>> tableColumnMap = new HashMap<String, Map<String, String>>();
+        List<DbInfo> dbInfos = new ArrayList<>(db_infos.size());
+        List<Integer> dbIds = new ArrayList<>(db_infos.size());
         Map<String,DbInfo> dbInfoMap = new HashMap<String,DbInfo>();
         dbInfoMap.put("DATASERVICE",AbstractSQLConfig.dbInfoMap.get("DATASERVICE"));
         for (int m = 0; m < db_infos.size(); m++) {
             DbInfo dbInfo = JSONObject.parseObject(db_infos.get(m).getString("Db_info"), DbInfo.class);
             dbInfoMap.put(dbInfo.getService_name(),dbInfo);
+            dbInfos.add(dbInfo);
+            dbIds.add(dbInfo.getId());
+        }
+        long time = logLoadPhase("Db_info", dbInfos.size(), startTime);
+
+        // 每一层只查一次(按 id 分批)，不再按数据源、数据库、表逐个查询
+        List<Integer> databaseIds = new ArrayList<>();
+        Map<Integer, List<DatabaseInfo>> databaseInfoMap = new HashMap<>();
+        for (JSONObject item : loadConfigList("Database_info", "id,db_id,database", "db_id", dbIds)) {
+            DatabaseInfo databaseInfo = item.toJavaObject(DatabaseInfo.class);
+            databaseInfoMap.computeIfAbsent(databaseInfo.getDb_id(), k -> new ArrayList<>()).add(databaseInfo);
+            databaseIds.add(databaseInfo.getId());
+        }
+        time = logLoadPhase("Database_info", databaseIds.size(), time);
+
+        List<Integer> tableIds = new ArrayList<>();
+        Map<Integer, List<TableInfo>> tableInfoMap = new HashMap<>();
+        for (JSONObject item : loadConfigList("Table_info", "id,database_id,table_name,table_alias", "database_id", databaseIds)) {
+            TableInfo tableInfo = item.toJavaObject(TableInfo.class);
+            tableInfoMap.computeIfAbsent(tableInfo.getDatabase_id(), k -> new ArrayList<>()).add(tableInfo);
+            tableIds.add(tableInfo.getId());
+        }
+        time = logLoadPhase("Table_info", tableIds.size(), time);
+
+        Map<Integer, List<ColumnAlias>> columnAliasMap = new HashMap<>();
+        List<JSONObject> columnAliasList = loadConfigList("Column_alias", "id,table_id,column_name,column_alias", "table_id", tableIds);
+        for (JSONObject item : columnAliasList) {
+            ColumnAlias columnAlias = item.toJavaObject(ColumnAlias.class);
+            columnAliasMap.computeIfAbsent(columnAlias.getTable_id(), k -> new ArrayList<>()).add(columnAlias);
+        }
+        time = logLoadPhase("Column_alias", columnAliasList.size(), time);
+
+        Map<Integer, List<QuotoInfo>> quotoInfoMap = new HashMap<>();
+        List<JSONObject> quotoInfoList = loadConfigList("Quoto_info", "id,table_id,quoto_name,quoto_sql", "table_id", tableIds);
+        for (JSONObject item : quotoInfoList) {
+            QuotoInfo quotoInfo = item.toJavaObject(QuotoInfo.class);
+            quotoInfoMap.computeIfAbsent(quotoInfo.getTable_id(), k -> new ArrayList<>()).add(quotoInfo);
+        }
+        time = logLoadPhase("Quoto_info", quotoInfoList.size(), time);
+
+        Map<String, String> TABLE_KEY_MAP = new HashMap<String, String>();
+        Map<String, Map<String, String>> tableColumnMap = new HashMap<String, Map<String, String>>();
+        Map<Integer, String[]> tableIndex = new HashMap<>(tableIds.size());
+        for (DbInfo dbInfo : dbInfos) {
             String quote = AbstractSQLConfig.getQuote(dbInfo.getDb_name());
-            //根据url id查询数据库信息
-            int dbId = dbInfo.getId();
-            request = "{\"@database\":\"DATASERVICE\",\"@schema\":\"bigdata_dataservice\",\"[]\":{\"Database_info\": {\"is_delete\":0,\"state\":1,\"db_id\":"
-                    + dbId + "},\"count\":0}}";
-            object = parseResponse(request);
-            if (object.get("[]") == null) {
+            List<DatabaseInfo> databaseInfos = databaseInfoMap.get(dbInfo.getId());
+            if (databaseInfos == null) {
                 continue;
             }
-            List<JSONObject> database_infos = JSONArray.parseArray(object.get("[]").toString(), JSONObject.class);
-            for (int n = 0; n < database_infos.size(); n++) {
-                DatabaseInfo databaseInfo = JSONObject.parseObject(database_infos.get(n).getString("Database_info"), DatabaseInfo.class);
-                // 根据数据库id查询表信息
-                int dataBaseId = databaseInfo.getId();
-                String databaseName = databaseInfo.getDatabase();
-                request = "{\"@database\":\"DATASERVICE\",\"@schema\":\"bigdata_dataservice\",\"[]\":{\"Table_info\": {\"is_delete\":0,\"state\":1,\"database_id\":"
-                        + dataBaseId + "},\"count\":0}}";
-                object = parseResponse(request);
-                if (object.get("[]") == null) {
+            for (DatabaseInfo databaseInfo : databaseInfos) {
+                List<TableInfo> tableInfos = tableInfoMap.get(databaseInfo.getId());
+                if (tableInfos == null) {
                     continue;
                 }
-                TABLE_KEY_MAP.put(dbInfo.getService_name()+"."+databaseName + "." + Table.class.getSimpleName(), Table.TABLE_NAME);
-                TABLE_KEY_MAP.put(dbInfo.getService_name()+"."+databaseName + "." + Column.class.getSimpleName(), Column.TABLE_NAME);
-                TABLE_KEY_MAP.put(dbInfo.getService_name()+"."+databaseName + "." + PgClass.class.getSimpleName(), PgClass.TABLE_NAME);
-                TABLE_KEY_MAP.put(dbInfo.getService_name()+"."+databaseName + "." + PgAttribute.class.getSimpleName(), PgAttribute.TABLE_NAME);
-                TABLE_KEY_MAP.put(dbInfo.getService_name()+"."+databaseName + "." + SysTable.class.getSimpleName(), SysTable.TABLE_NAME);
-                TABLE_KEY_MAP.put(dbInfo.getService_name()+"."+databaseName + "." + SysColumn.class.getSimpleName(), SysColumn.TABLE_NAME);
-                TABLE_KEY_MAP.put(dbInfo.getService_name()+"."+databaseName + "." + ExtendedProperty.class.getSimpleName(), ExtendedProperty.TABLE_NAME);
-                List<JSONObject> tableInfos = JSONArray.parseArray(object.get("[]").toString(), JSONObject.class);
-                for (int i = 0; i < tableInfos.size(); i++) {
-                    TableInfo tableInfo = JSONObject.parseObject(tableInfos.get(i).getString("Table_info"), TableInfo.class);
+                String prefix = dbInfo.getService_name() + "." + databaseInfo.getDatabase() + ".";
+                putSystemTableKey(TABLE_KEY_MAP, prefix);
+                for (TableInfo tableInfo : tableInfos) {
                     if (tableInfo.getTable_name() == null) {
                         continue;
                     }
-                    // 根据表信息查询表别名信息
-                    if (tableInfo.getTable_alias() != null && (!tableInfo.getTable_alias().equals(""))) {
-                        TABLE_KEY_MAP.put(dbInfo.getService_name()+"."+databaseName + "." + tableInfo.getTable_alias(), tableInfo.getTable_name());
+                    tableIndex.put(tableInfo.getId(), putTableConfig(TABLE_KEY_MAP, tableColumnMap, prefix, quote, tableInfo
+                            , columnAliasMap.get(tableInfo.getId()), quotoInfoMap.get(tableInfo.getId())));
+                }
+            }
+        }
+        // 整体替换快照，不 clear 正在使用的 Map
+        AliasConfigSnapshot.apply(AliasConfigSnapshot.getCurrent().getVersion(), TABLE_KEY_MAP, tableColumnMap, tableIndex);
+        logLoadPhase("build", TABLE_KEY_MAP.size(), time);
+        Log.i(TAG, "loadAliasConfig  total = " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    /**按表增量刷新表别名、列别名配置，只查询这一张表，在当前快照的副本上删除旧配置、加入新配置后整体替换
+     * <br > 还没有全量加载过(没有表索引)时退化为 {@link #loadAliasConfig()}
+     * @param tableId Table_info.id
+     * @param delete 表已删除，不用再查询
+     */
+    public void loadTableAliasConfig(int tableId, boolean delete) {
+        AliasConfigSnapshot snapshot = AliasConfigSnapshot.getCurrent();
+        if (snapshot.getTableIndex() == null) {
+            loadAliasConfig();
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        Map<String, String> TABLE_KEY_MAP = new HashMap<>(snapshot.getTableKeyMap());
+        Map<String, Map<String, String>> tableColumnMap = new HashMap<>(snapshot.getTableColumnMap());
+        Map<Integer, String[]> tableIndex = new HashMap<>(snapshot.getTableIndex());
+        // 改名、下线、删除都先删掉旧配置
+        removeTableConfig(TABLE_KEY_MAP, tableColumnMap, tableIndex, tableId);
+
+        if (delete == false) {
+            setNeedVerify(false);
+            List<JSONObject> tableInfoList = loadConfigList("Table_info", "id,database_id,table_name,table_alias", "id", Collections.singletonList(tableId));
+            TableInfo tableInfo = tableInfoList.isEmpty() ? null : tableInfoList.get(0).toJavaObject(TableInfo.class);
+            if (tableInfo != null && tableInfo.getTable_name() != null) {
+                List<JSONObject> databaseInfoList = loadConfigList("Database_info", "id,db_id,database", "id", Collections.singletonList(tableInfo.getDatabase_id()));
+                DatabaseInfo databaseInfo = databaseInfoList.isEmpty() ? null : databaseInfoList.get(0).toJavaObject(DatabaseInfo.class);
+                DbInfo dbInfo = databaseInfo == null ? null : loadCommonDbInfo(databaseInfo.getDb_id());
+                // 只加载公共服务数据源下的表
+                if (dbInfo != null) {
+                    List<ColumnAlias> columnAliass = new ArrayList<>();
+                    for (JSONObject item : loadConfigList("Column_alias", "id,table_id,column_name,column_alias", "table_id", Collections.singletonList(tableId))) {
+                        columnAliass.add(item.toJavaObject(ColumnAlias.class));
                     }
-                    // 根据表信息查询列别名信息
-                    Map<String, String> valueAlias = new HashMap<String, String>();
-                    Map<String, String> valueReal = new HashMap<String, String>();
-                    Map<String, String> value = new HashMap<String, String>();
-                    request = "{\"@database\":\"DATASERVICE\",\"@schema\":\"bigdata_dataservice\",\"[]\":{\"Column_alias\": {\"is_delete\":0,\"state\":1,\"table_id\":"
-                            + tableInfo.getId() + "},\"count\":0}}";
-                    object = parseResponse(request);
-                    if (object.get("[]") != null) {
-                        List<JSONObject> columnAliass = JSONArray.parseArray(object.get("[]").toString(), JSONObject.class);
-                        for (int j = 0; j < columnAliass.size(); j++) {
-                            ColumnAlias columnAlias = JSONObject.parseObject(columnAliass.get(j).getString("Column_alias"),
-                                    ColumnAlias.class);
-                            value.put(quote + columnAlias.getColumn_alias() + quote, quote + columnAlias.getColumn_name() + quote);
-                            valueAlias.put(quote + columnAlias.getColumn_alias() + quote, quote + columnAlias.getColumn_name() + quote);
-                            valueReal.put(columnAlias.getColumn_alias(), columnAlias.getColumn_name());
-                        }
+                    List<QuotoInfo> quotoInfos = new ArrayList<>();
+                    for (JSONObject item : loadConfigList("Quoto_info", "id,table_id,quoto_name,quoto_sql", "table_id", Collections.singletonList(tableId))) {
+                        quotoInfos.add(item.toJavaObject(QuotoInfo.class));
                     }
+                    String prefix = dbInfo.getService_name() + "." + databaseInfo.getDatabase() + ".";
+                    putSystemTableKey(TABLE_KEY_MAP, prefix);
+                    tableIndex.put(tableId, putTableConfig(TABLE_KEY_MAP, tableColumnMap, prefix, AbstractSQLConfig.getQuote(dbInfo.getDb_name()), tableInfo
+                            , columnAliass, quotoInfos.isEmpty() ? null : quotoInfos));
+                }
+            }
+        }
+        AliasConfigSnapshot.apply(snapshot.getVersion(), TABLE_KEY_MAP, tableColumnMap, tableIndex);
+        Log.i(TAG, "loadTableAliasConfig  tableId = " + tableId + "; delete = " + delete + "; total = " + (System.currentTimeMillis() - startTime) + "ms");
+    }
 
-                    // 根据表信息查询指标信息
-                    request = "{\"@database\":\"DATASERVICE\",\"@schema\":\"bigdata_dataservice\",\"[]\":{\"Quoto_info\": {\"is_delete\":0,\"state\":1,\"table_id\":"
-                            + tableInfo.getId() + "},\"count\":0}}";
-                    object = parseResponse(request);
-                    if (object.get("[]") != null) {
-                        List<JSONObject> quotoInfos = JSONArray.parseArray(object.get("[]").toString(), JSONObject.class);
-                        for (int j = 0; j < quotoInfos.size(); j++) {
-                            QuotoInfo quotoInfo = JSONObject.parseObject(quotoInfos.get(j).getString("Quoto_info"),
-                                    QuotoInfo.class);
-                            if (quotoInfo.getQuoto_name() != null) {
-                                valueAlias.put(quote + quotoInfo.getQuoto_name() + quote, quotoInfo.getQuoto_sql());
-                                value.put(quote + quotoInfo.getQuoto_name() + quote, quotoInfo.getQuoto_sql());
-                                valueReal.put(quotoInfo.getQuoto_name(), quotoInfo.getQuoto_sql());
-                            }
-                        }
-                        tableColumnMap.put(dbInfo.getService_name()+"."+databaseName + "." + tableInfo.getTable_name() + "_aliasColumn", valueAlias);
-                        tableColumnMap.put(dbInfo.getService_name()+"."+databaseName + "." + tableInfo.getTable_name() + "_processColumn", value);
-                        tableColumnMap.put(dbInfo.getService_name()+"."+databaseName + "." + tableInfo.getTable_name() + "_realColumn", valueReal);
-                    } else {
-                        if (!valueAlias.isEmpty()) {
-                            tableColumnMap.put(dbInfo.getService_name()+"."+databaseName + "." + tableInfo.getTable_name() + "_aliasColumn", valueAlias);
-                            tableColumnMap.put(dbInfo.getService_name()+"."+databaseName + "." + tableInfo.getTable_name() + "_processColumn", value);
-                            tableColumnMap.put(dbInfo.getService_name()+"."+databaseName + "." + tableInfo.getTable_name() + "_realColumn", valueReal);
-                        }
-                    }
+    /**查询公共服务数据源
+     * @param dbId Db_info.id
+     * @return 不存在或不是公共服务时返回 null
+     */
+    protected DbInfo loadCommonDbInfo(int dbId) {
+        String request = "{\"@database\":\"DATASERVICE\",\"@schema\":\"bigdata_dataservice\",\"Db_info\": {\"@column\":\"id,db_name,service_name\",\"id\":" + dbId
+                + ",\"is_delete\":0,\"state\":1,\"common_service\":1}}";
+        setNeedVerify(false);
+        JSONObject object = parseResponse(request);
+        if (object.get("Db_info") == null) {
+            return null;
+        }
+        return JSONObject.parseObject(object.get("Db_info").toString(), DbInfo.class);
+    }
+
+    private static void putSystemTableKey(Map<String, String> tableKeyMap, String prefix) {
+        tableKeyMap.put(prefix + Table.class.getSimpleName(), Table.TABLE_NAME);
+        tableKeyMap.put(prefix + Column.class.getSimpleName(), Column.TABLE_NAME);
+        tableKeyMap.put(prefix + PgClass.class.getSimpleName(), PgClass.TABLE_NAME);
+        tableKeyMap.put(prefix + PgAttribute.class.getSimpleName(), PgAttribute.TABLE_NAME);
+        tableKeyMap.put(prefix + SysTable.class.getSimpleName(), SysTable.TABLE_NAME);
+        tableKeyMap.put(prefix + SysColumn.class.getSimpleName(), SysColumn.TABLE_NAME);
+        tableKeyMap.put(prefix + ExtendedProperty.class.getSimpleName(), ExtendedProperty.TABLE_NAME);
+    }
+
+    /**把一张表的表别名、列别名、指标放入 tableKeyMap 和 tableColumnMap
+     * @param tableKeyMap
+     * @param tableColumnMap
+     * @param prefix key 的前缀 service_name.database.
+     * @param quote
+     * @param tableInfo
+     * @param columnAliass 可为 null
+     * @param quotoInfos 可为 null
+     * @return [tableKeyMap 中的 key, tableColumnMap 中 key 的前缀]，用于 {@link #removeTableConfig}
+     */
+    private static String[] putTableConfig(Map<String, String> tableKeyMap, Map<String, Map<String, String>> tableColumnMap, String prefix, String quote
+            , TableInfo tableInfo, List<ColumnAlias> columnAliass, List<QuotoInfo> quotoInfos) {
+        // 表别名
+        String aliasKey = null;
+        if (tableInfo.getTable_alias() != null && (!tableInfo.getTable_alias().equals(""))) {
+            aliasKey = prefix + tableInfo.getTable_alias();
+            tableKeyMap.put(aliasKey, tableInfo.getTable_name());
+        }
+        // 列别名
+        Map<String, String> valueAlias = new HashMap<String, String>();
+        Map<String, String> valueReal = new HashMap<String, String>();
+        Map<String, String> value = new HashMap<String, String>();
+        if (columnAliass != null) {
+            for (ColumnAlias columnAlias : columnAliass) {
+                value.put(quote + columnAlias.getColumn_alias() + quote, quote + columnAlias.getColumn_name() + quote);
+                valueAlias.put(quote + columnAlias.getColumn_alias() + quote, quote + columnAlias.getColumn_name() + quote);
+                valueReal.put(columnAlias.getColumn_alias(), columnAlias.getColumn_name());
+            }
+        }
+
+        // 指标
+        if (quotoInfos != null) {
+            for (QuotoInfo quotoInfo : quotoInfos) {
+                if (quotoInfo.getQuoto_name() != null) {
+                    valueAlias.put(quote + quotoInfo.getQuoto_name() + quote, quotoInfo.getQuoto_sql());
+                    value.put(quote + quotoInfo.getQuoto_name() + quote, quotoInfo.getQuoto_sql());
+                    valueReal.put(quotoInfo.getQuoto_name(), quotoInfo.getQuoto_sql());
                 }
             }
         }
-        AbstractSQLConfig.TABLE_KEY_MAP.clear();
-        AbstractSQLConfig.tableColumnMap.clear();
-        AbstractSQLConfig.TABLE_KEY_MAP = TABLE_KEY_MAP;
-        AbstractSQLConfig.tableColumnMap = tableColumnMap;
+        String columnKey = prefix + tableInfo.getTable_name();
+        if (quotoInfos != null || !valueAlias.isEmpty()) {
+            tableColumnMap.put(columnKey + "_aliasColumn", valueAlias);
+            tableColumnMap.put(columnKey + "_processColumn", value);
+            tableColumnMap.put(columnKey + "_realColumn", valueReal);
+        }
+        return new String[] {aliasKey, columnKey};
+    }
+
+    /**删除一张表的配置，其它表也用到的 key(同一张物理表配置了多次)不删除
+     * @param tableKeyMap
+     * @param tableColumnMap
+     * @param tableIndex
+     * @param tableId
+     */
+    private static void removeTableConfig(Map<String, String> tableKeyMap, Map<String, Map<String, String>> tableColumnMap, Map<Integer, String[]> tableIndex, int tableId) {
+        String[] keys = tableIndex.remove(tableId);
+        if (keys == null) {
+            return;
+        }
+        boolean aliasShared = false;
+        boolean columnShared = false;
+        for (String[] other : tableIndex.values()) {
+            aliasShared = aliasShared || (keys[0] != null && keys[0].equals(other[0]));
+            columnShared = columnShared || keys[1].equals(other[1]);
+        }
+        if (keys[0] != null && aliasShared == false) {
+            tableKeyMap.remove(keys[0]);
+        }
+        if (columnShared == false) {
+            tableColumnMap.remove(keys[1] + "_aliasColumn");
+            tableColumnMap.remove(keys[1] + "_processColumn");
+            tableColumnMap.remove(keys[1] + "_realColumn");
+        }
+    }
+
+    /**按 idKey{}:[ids] 批量查询配置表，每 LOAD_BATCH_SIZE 个 id 一批
+     * <br > 每批按 id 递增分页，每页最多 getMaxQueryCount() 条，下一页从上一页最后的 id 开始，不受 count、page 上限截断
+     * <br > column 里必须有 id
+     * @param table
+     * @param column
+     * @param idKey
+     * @param ids
+     * @return table 对应的 JSONObject 列表
+     */
+    protected List<JSONObject> loadConfigList(String table, String column, String idKey, List<Integer> ids) {
+        List<JSONObject> list = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += LOAD_BATCH_SIZE) {
+            List<Integer> batch = ids.subList(i, Math.min(i + LOAD_BATCH_SIZE, ids.size()));
+            int count = getMaxQueryCount();
+            long lastId = 0;
+            while (true) {
+                String request = "{\"@database\":\"DATASERVICE\",\"@schema\":\"bigdata_dataservice\",\"[]\":{\"" + table + "\": {\"@column\":\"" + column
+                        + "\",\"@order\":\"id+\",\"is_delete\":0,\"state\":1,\"id>\":" + lastId + ",\"" + idKey + "{}\":" + JSONArray.toJSONString(batch) + "},\"count\":" + count + "}}";
+                JSONObject object = parseResponse(request);
+                if (object.get("[]") == null) {
+                    break;
+                }
+                List<JSONObject> items = JSONArray.parseArray(object.get("[]").toString(), JSONObject.class);
+                for (JSONObject item : items) {
+                    JSONObject config = item.getJSONObject(table);
+                    list.add(config);
+                    lastId = config.getLongValue("id");
+                }
+                if (items.size() < count) {
+                    break;
+                }
+            }
+        }
+        return list;
+    }
+
+    private long logLoadPhase(String phase, int size, long startTime) {
+        long time = System.currentTimeMillis();
+        Log.i(TAG, "loadAliasConfig  " + phase + ": size = " + size + "; " + (time - startTime) + "ms");
+        return time;
     }
 
 }
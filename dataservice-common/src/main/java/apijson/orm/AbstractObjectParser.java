@@ -15,12 +15,15 @@ import static apijson.orm.SQLConfig.TYPE_ITEM;
 import java.rmi.ServerException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.activation.UnsupportedDataTypeException;
 
@@ -92,8 +95,8 @@ public abstract class AbstractObjectParser implements ObjectParser {
 		this.isArrayMainTable = isArrayMainTable; // isSubquery == false && this.isTable && this.type == SQLConfig.TYPE_ITEM_CHILD_0 && RequestMethod.isGetMethod(method, true);
 //		this.isReuse = isReuse; // isArrayMainTable && arrayConfig != null && arrayConfig.getPosition() > 0;
 
-		this.objectCount = 0;
-		this.arrayCount = 0;
+		this.objectCount = new AtomicInteger();
+		this.arrayCount = new AtomicInteger();
 
 		boolean isEmpty = request.isEmpty();//empty有效 User:{}
 		if (isEmpty) {
@@ -165,8 +168,9 @@ public abstract class AbstractObjectParser implements ObjectParser {
 	 */
 	protected Map<String, JSONObject> childMap;
 
-	private int objectCount;
-	private int arrayCount;
+	//根对象下的子对象并行解析时会在多个线程内计数
+	private AtomicInteger objectCount;
+	private AtomicInteger arrayCount;
 	/**解析成员
 	 * response重新赋值
 	 * @return null or this
@@ -231,6 +235,10 @@ public abstract class AbstractObjectParser implements ObjectParser {
 					Object value;
 					int index = 0;
 
+					//根对象下连续的子对象先收集起来，遇到其它 key 或遍历结束时再按依赖关系并行解析
+					Map<String, JSONObject> parallelChildMap = childMap == null && isSubquery == false && arrayConfig == null
+							&& StringUtil.isEmpty(parentPath, true) && parser.isParallelEnabled() ? new LinkedHashMap<String, JSONObject>() : null;
+
 					for (Entry<String, Object> entry : set) {
 						if (isBreakParse()) {
 							break;
@@ -242,6 +250,11 @@ public abstract class AbstractObjectParser implements ObjectParser {
 						}
 						key = entry.getKey();
 
+						if (parallelChildMap != null && parallelChildMap.isEmpty() == false
+								&& (value instanceof JSONObject == false || key.startsWith("@") || key.endsWith("@"))) {
+							index += onParallelChildParse(index, parallelChildMap);
+						}
+
 						try {
 							if (key.startsWith("@") || key.endsWith("@")) {
 								if (onParse(key, value) == false) {
@@ -252,6 +265,9 @@ public abstract class AbstractObjectParser implements ObjectParser {
 								if (childMap != null) {  // 添加到childMap，最后再解析
 									childMap.put(key, (JSONObject)value);
 								}
+								else if (parallelChildMap != null) {  // 和相邻的子对象一起并行解析
+									parallelChildMap.put(key, (JSONObject)value);
+								}
 								else {  // 直接解析并替换原来的，[]:{} 内必须直接解析，否则会因为丢掉count等属性，并且total@:"/[]/total"必须在[]:{} 后！
 									response.put(key, onChildParse(index, key, (JSONObject)value));
 									index ++;
@@ -278,6 +294,9 @@ public abstract class AbstractObjectParser implements ObjectParser {
 						}
 					}
 
+					if (parallelChildMap != null && parallelChildMap.isEmpty() == false) {
+						onParallelChildParse(index, parallelChildMap);
+					}
 				}
 
 				if (isTable) {
@@ -319,6 +338,89 @@ public abstract class AbstractObjectParser implements ObjectParser {
 
 
 
+	/**并行解析根对象下相邻的子对象，引用了彼此的子对象按原顺序先后执行，结果按原顺序放入 response
+	 * @param index 第一个子对象的序号
+	 * @param parallelChildMap 解析后清空
+	 * @return 子对象数量
+	 * @throws Exception
+	 */
+	protected int onParallelChildParse(int index, @NotNull Map<String, JSONObject> parallelChildMap) throws Exception {
+		List<String> keyList = new ArrayList<>(parallelChildMap.keySet());
+		List<JSONObject> valueList = new ArrayList<>(parallelChildMap.values());
+		parallelChildMap.clear();
+
+		int size = keyList.size();
+		try {
+			if (size == 1) {
+				response.put(keyList.get(0), onChildParse(index, keyList.get(0), valueList.get(0)));
+				return size;
+			}
+
+			List<Set<String>> referenceList = new ArrayList<>(size);
+			for (JSONObject value : valueList) {
+				Set<String> references = new HashSet<>();
+				onReferenceCollect(value, references);
+				referenceList.add(references);
+			}
+
+			List<Callable<JSON>> taskList = new ArrayList<>(size);
+			List<Set<Integer>> dependencyList = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				int childIndex = index + i;
+				String key = keyList.get(i);
+				JSONObject value = valueList.get(i);
+				taskList.add(() -> onChildParse(childIndex, key, value));
+
+				// 不管谁引用谁，都要保证和串行解析时的先后顺序一致
+				Set<Integer> dependencies = new HashSet<>();
+				for (int j = 0; j < i; j++) {
+					if (referenceList.get(i).contains(keyList.get(j)) || referenceList.get(j).contains(key)) {
+						dependencies.add(j);
+					}
+				}
+				dependencyList.add(dependencies);
+			}
+
+			List<JSON> resultList = parser.executeParallel(taskList, dependencyList);
+			for (int i = 0; i < size; i++) {
+				response.put(keyList.get(i), resultList.get(i));
+			}
+		} catch (Exception e) {
+			if (tri == false) {
+				throw e;  // 不忽略错误，抛异常
+			}
+			invalidate();  // 忽略错误，还原request
+		}
+		return size;
+	}
+
+	/**收集 value 内所有 key@:"path" 引用路径的第一层 key，不区分绝对路径和相对路径，宁可多等不能少等
+	 * @param value
+	 * @param references
+	 */
+	protected void onReferenceCollect(Object value, @NotNull Set<String> references) {
+		if (value instanceof JSONObject) {
+			for (Entry<String, Object> entry : ((JSONObject) value).entrySet()) {
+				Object v = entry.getValue();
+				if (v instanceof String && entry.getKey().endsWith("@")) {
+					String p = (String) v;
+					p = p.startsWith("/") ? p.substring(1) : p;
+					int index = p.indexOf("/");
+					references.add(index < 0 ? p : p.substring(0, index));
+				}
+				else {
+					onReferenceCollect(v, references);
+				}
+			}
+		}
+		else if (value instanceof JSONArray) {
+			for (Object v : (JSONArray) value) {
+				onReferenceCollect(v, references);
+			}
+		}
+	}
+
+
 	/**解析普通成员
 	 * @param key
 	 * @param value
@@ -486,10 +588,10 @@ public abstract class AbstractObjectParser implements ObjectParser {
 			}
 
 			if (arrayConfig == null || arrayConfig.getPosition() == 0) {
-				arrayCount ++;
+				int count = arrayCount.incrementAndGet();
 				int maxArrayCount = parser.getMaxArrayCount();
-				if (arrayCount > maxArrayCount) {
-					throw new IllegalArgumentException(path + " 内截至 " + key + ":{} 时数组对象 key[]:{} 的数量达到 " + arrayCount + " 已超限，必须在 0-" + maxArrayCount + " 内 !");
+				if (count > maxArrayCount) {
+					throw new IllegalArgumentException(path + " 内截至 " + key + ":{} 时数组对象 key[]:{} 的数量达到 " + count + " 已超限，必须在 0-" + maxArrayCount + " 内 !");
 				}
 			}
 
@@ -505,11 +607,11 @@ public abstract class AbstractObjectParser implements ObjectParser {
 
 			if ( //避免使用 "test":{"Test":{}} 绕过限制，实现查询爆炸   isTableKey && 
 					(arrayConfig == null || arrayConfig.getPosition() == 0)) {
-				objectCount ++;
+				int count = objectCount.incrementAndGet();
 				int maxObjectCount = parser.getMaxObjectCount();
-				if (objectCount > maxObjectCount) {  //TODO 这里判断是批量新增/修改，然后上限为 maxUpdateCount
+				if (count > maxObjectCount) {  //TODO 这里判断是批量新增/修改，然后上限为 maxUpdateCount
 					throw new IllegalArgumentException(path + " 内截至 " + key + ":{} 时对象"
-							+ " key:{} 的数量达到 " + objectCount + " 已超限，必须在 0-" + maxObjectCount + " 内 !");
+							+ " key:{} 的数量达到 " + count + " 已超限，必须在 0-" + maxObjectCount + " 内 !");
 				}
 			}
 
@@ -37,10 +37,12 @@ import apijson.JSON;
 import apijson.JSONResponse;
 import apijson.Log;
 import apijson.NotNull;
+import apijson.QueryMetrics;
 import apijson.RequestMethod;
 import apijson.RequestRole;
 import apijson.SQL;
 import apijson.StringUtil;
+import apijson.cache.SQLPlanCache;
 import apijson.entity.MethodReplaceResult;
 import apijson.orm.exception.NotExistException;
 import apijson.orm.model.Access;
@@ -79,13 +81,13 @@ public abstract class AbstractSQLConfig implements SQLConfig {
      * 表名映射，隐藏真实表名，对安全要求很高的表可以这么做
      */
     public static Map<String, DbInfo> dbInfoMap = new HashMap<>();
-    public static Map<String, String> TABLE_KEY_MAP = new HashMap<String, String>();
+    public static volatile Map<String, String> TABLE_KEY_MAP = new HashMap<String, String>();
     public static final List<String> CONFIG_TABLE_LIST;
     public static final List<String> DATABASE_LIST;
     // 自定义原始 SQL 片段 Map<key, substring>：当 substring 为 null 时忽略；当 substring 为 "" 时整个
     // value 是 raw SQL；其它情况则只是 substring 这段为 raw SQL
     public static final Map<String, String> RAW_MAP;
-    public static Map<String, Map<String, String>> tableColumnMap = new HashMap<String, Map<String, String>>();
+    public static volatile Map<String, Map<String, String>> tableColumnMap = new HashMap<String, Map<String, String>>();
 
     static { // 凡是 SQL 边界符、分隔符、注释符 都不允许，例如 ' " ` ( ) ; # -- ，以免拼接 SQL 时被注入意外可执行指令
         PATTERN_RANGE = Pattern.compile("^[0-9%,!=\\<\\>/\\.\\+\\-\\*\\^]+$"); // ^[a-zA-Z0-9_*%!=<>(),"]+$ 导致
@@ -2756,7 +2758,87 @@ public abstract class AbstractSQLConfig implements SQLConfig {
     @JSONField(serialize = false)
     @Override
     public String getSQL(boolean prepared) throws Exception {
-        return getSQL(this.setPrepared(prepared));
+        long startTime = QueryMetrics.start();
+        try {
+            List<Object> values = new ArrayList<>();
+            String planKey = getPlanKey(values);
+            if (planKey == null) {
+                return getSQL(this.setPrepared(prepared));
+            }
+
+            SQLPlanCache.Plan plan = SQLPlanCache.get(planKey);
+            if (plan == null) {
+                long generation = SQLPlanCache.getGeneration();
+                String template = getSQL(this.setPrepared(true));
+                List<Object> preparedValueList = getPreparedValueList();
+                String sql = getSQL(this.setPrepared(false));
+                plan = SQLPlanCache.compile(generation, planKey, template, preparedValueList, values, sql, this::getSQLValue);
+            }
+            if (plan == SQLPlanCache.UNCACHEABLE) {
+                return getSQL(this.setPrepared(prepared));
+            }
+
+            setPrepared(prepared);
+            setPreparedValueList(prepared ? values : new ArrayList<>());
+            return prepared ? plan.getTemplate() : plan.render(values, this::getSQLValue);
+        } finally {
+            QueryMetrics.record(QueryMetrics.SQL_GENERATE, startTime);
+        }
+    }
+
+    /**
+     * 查询计划的 key，由表、字段、条件的 key 和操作符、分组、排序、分页等组成，不含条件的值
+     * <br > 只支持单表、无 JOIN、无子查询、无 @raw、无 @having，条件只有 =, !=, >, <, >=, <= 且值都是 [Boolean, Number, String] 的查询，
+     * 其它返回 null ，每次都重新生成 SQL
+     *
+     * @param values 按 SQL 中 ? 的顺序放入条件的值
+     * @return
+     */
+    protected String getPlanKey(@NotNull List<Object> values) {
+        if (RequestMethod.isQueryMethod(getMethod()) == false || isExplain() || isTest()
+                || StringUtil.isNotEmpty(getProcedure(), true) || StringUtil.isNotEmpty(getSql(), true)
+                || getFrom() != null || StringUtil.isNotEmpty(getHaving(), true)
+                || (joinList != null && joinList.isEmpty() == false) || (raw != null && raw.isEmpty() == false)) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(getClass().getName()).append('|').append(getMethod()).append('|').append(getSQLDatabase())
+                .append('|').append(getSchema()).append('|').append(getTable()).append('|').append(getAlias())
+                .append('|').append(getColumn()).append('|').append(getGroup()).append('|').append(getOrder())
+                .append('|').append(getCount()).append('|').append(getPage()).append('|').append(getQuery())
+                .append('|').append(getType()).append('|').append(getCache()).append('|').append(isMain())
+                .append('|').append(isDistinct()).append('|').append(isKeyPrefix()).append('|').append(getForce());
+
+        Map<String, List<String>> combine = getCombine();
+        if (combine != null) {
+            Map<String, Object> where = getWhere();
+            for (Entry<String, List<String>> ce : combine.entrySet()) {
+                List<String> keyList = ce.getValue();
+                if (keyList == null || keyList.isEmpty()) {
+                    continue;
+                }
+
+                sb.append('|').append(ce.getKey()).append(':');
+                for (String key : keyList) {
+                    Object value = where == null || key == null ? null : where.get(key);
+                    // 和 getWhereItem 一样跳过，不会生成条件
+                    if (value == null || key.endsWith("()") || key.startsWith("@")) {
+                        sb.append(key).append("=null,");
+                        continue;
+                    }
+                    if (key.contains("(") || key.endsWith("@") || key.endsWith("$") || key.endsWith("~") || key.endsWith("%")
+                            || key.endsWith("{}") || key.endsWith("}{") || key.endsWith("<>") || key.endsWith("{g}")
+                            || JSON.isBooleanOrNumberOrString(value) == false) {
+                        return null;
+                    }
+                    sb.append(key).append(',');
+                    values.add(value);
+                }
+            }
+        }
+
+        return sb.toString();
     }
 
     /**
@@ -2770,6 +2852,9 @@ public abstract class AbstractSQLConfig implements SQLConfig {
             return null;
         }
         if (config.getSql() != null && !config.getSql().isEmpty()) {
+            if (SQLPlanCache.isValidatedSql(config.getSql())) {
+                return config.getSql();
+            }
             //做sql校验
             String sqlLower = config.getSql().toLowerCase().trim().replaceAll("\n", " ");
             if (sqlLower.contains(" limit ")) {
@@ -2820,6 +2905,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
                 } catch (Exception e) {
                     throw new IllegalArgumentException("@sql limit后要接数字");
                 }
+                SQLPlanCache.putValidatedSql(config.getSql());
                 return config.getSql();
             } else {
                 int fromLocation = sqlLower.indexOf(" from");
@@ -2842,6 +2928,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
                             throw new IllegalArgumentException("@sql 里的sql需要limit做数据限制");
                         }
                     }
+                    SQLPlanCache.putValidatedSql(config.getSql());
                     return config.getSql();
                 }
             }
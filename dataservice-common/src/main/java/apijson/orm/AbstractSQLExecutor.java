@@ -10,7 +10,6 @@ import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Connection;
 import java.sql.Date;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
@@ -25,7 +24,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
@@ -33,6 +37,7 @@ import com.alibaba.fastjson.JSONObject;
 import apijson.JSONResponse;
 import apijson.Log;
 import apijson.NotNull;
+import apijson.QueryMetrics;
 import apijson.RequestMethod;
 import apijson.StringUtil;
 
@@ -78,25 +83,97 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
     }
 
     /**
-     * 缓存map
+     * 单个请求缓存的总行数上限，超过后按放入顺序淘汰
      */
-    protected Map<String, List<JSONObject>> cacheMap = new HashMap<>();
+    public static int MAX_CACHE_ROW_COUNT = 20000;
+    /**
+     * 单个请求缓存的估算字节数上限，超过后按放入顺序淘汰
+     */
+    public static long MAX_CACHE_BYTES = 32L * 1024 * 1024;
+    /**
+     * 单个结果超过这个行数不缓存，数组主表的列表由 Parser 单独缓存，不需要在这里再存一份
+     */
+    public static int MAX_CACHE_RESULT_SIZE = 1000;
+
+    /**
+     * 缓存map，读不加锁
+     */
+    protected Map<String, List<JSONObject>> cacheMap = new ConcurrentHashMap<>();
+    /**
+     * sql -> [行数, 估算字节数]
+     */
+    private final Map<String, long[]> cacheWeightMap = new ConcurrentHashMap<>();
+    /**
+     * 放入顺序，用于淘汰
+     */
+    private final Queue<String> cacheKeyQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong cacheRowCount = new AtomicLong();
+    private final AtomicLong cacheBytes = new AtomicLong();
+    private final AtomicInteger cacheMissCount = new AtomicInteger();
+    private final AtomicInteger cacheEvictionCount = new AtomicInteger();
+    private final AtomicInteger cacheSkipCount = new AtomicInteger();
+
+    @Override
+    public int getCacheMissCount() {
+        return cacheMissCount.get();
+    }
 
+    @Override
+    public int getCacheEvictionCount() {
+        return cacheEvictionCount.get();
+    }
+
+    @Override
+    public int getCacheSkipCount() {
+        return cacheSkipCount.get();
+    }
 
     /**
-     * 保存缓存
+     * 保存缓存，超过 MAX_CACHE_RESULT_SIZE 行的不缓存，总量超过 MAX_CACHE_ROW_COUNT 或 MAX_CACHE_BYTES 时淘汰最早放入的
      *
      * @param sql
      * @param list
      * @param isStatic
      */
     @Override
-    public synchronized void putCache(String sql, List<JSONObject> list, int type) {
+    public void putCache(String sql, List<JSONObject> list, int type) {
         if (sql == null || list == null) { //空map有效，说明查询过sql了  || list.isEmpty()) {
             Log.i(TAG, "saveList  sql == null || list == null >> return;");
             return;
         }
+        if (list.size() > MAX_CACHE_RESULT_SIZE) {
+            cacheSkipCount.incrementAndGet();
+            removeCache(sql, type);
+            return;
+        }
+
+        long[] weight = new long[]{list.size(), estimateSize(list)};
+        if (weight[1] > MAX_CACHE_BYTES) {
+            cacheSkipCount.incrementAndGet();
+            removeCache(sql, type);
+            return;
+        }
+
         cacheMap.put(sql, list);
+        long[] old = cacheWeightMap.put(sql, weight);
+        if (old == null) {
+            cacheKeyQueue.offer(sql);
+        } else {
+            cacheRowCount.addAndGet(-old[0]);
+            cacheBytes.addAndGet(-old[1]);
+        }
+        cacheRowCount.addAndGet(weight[0]);
+        cacheBytes.addAndGet(weight[1]);
+
+        while (cacheRowCount.get() > MAX_CACHE_ROW_COUNT || cacheBytes.get() > MAX_CACHE_BYTES) {
+            String eldest = cacheKeyQueue.poll();
+            if (eldest == null) {
+                break;
+            }
+            if (removeCacheEntry(eldest)) {
+                cacheEvictionCount.incrementAndGet();
+            }
+        }
     }
 
     /**
@@ -106,17 +183,55 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
      * @param isStatic
      */
     @Override
-    public synchronized void removeCache(String sql, int type) {
+    public void removeCache(String sql, int type) {
         if (sql == null) {
             Log.i(TAG, "removeList  sql == null >> return;");
             return;
         }
+        if (removeCacheEntry(sql)) {
+            cacheKeyQueue.remove(sql);
+        }
+    }
+
+    private boolean removeCacheEntry(String sql) {
+        long[] weight = cacheWeightMap.remove(sql);
         cacheMap.remove(sql);
+        if (weight == null) {
+            return false;
+        }
+        cacheRowCount.addAndGet(-weight[0]);
+        cacheBytes.addAndGet(-weight[1]);
+        return true;
+    }
+
+    /**
+     * 粗略估算结果占用的字节数，只按字段数量和字符串长度计算
+     *
+     * @param list
+     * @return
+     */
+    protected long estimateSize(@NotNull List<JSONObject> list) {
+        long size = 16L * list.size();
+        for (JSONObject item : list) {
+            if (item == null) {
+                continue;
+            }
+            for (Entry<String, Object> entry : item.entrySet()) {
+                size += 32 + 2L * entry.getKey().length();
+                Object value = entry.getValue();
+                size += value instanceof String ? 40 + 2L * ((String) value).length() : 16;
+            }
+        }
+        return size;
     }
 
     @Override
     public List<JSONObject> getCache(String sql, int type) {
-        return cacheMap.get(sql);
+        List<JSONObject> list = sql == null ? null : cacheMap.get(sql);
+        if (list == null) {
+            cacheMissCount.incrementAndGet();
+        }
+        return list;
     }
 
     /**
@@ -189,7 +304,7 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
         }
 
         long startTime = System.currentTimeMillis();
-        Log.d(TAG, "\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<"
+        Log.d(TAG, () -> "\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<"
                 + "\n已生成 " + generatedSQLCount + " 条 SQL"
                 + "\nexecute  startTime = " + startTime
                 + "\ndatabase = " + StringUtil.getString(config.getDatabase())
@@ -204,7 +319,9 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
         try {
             if (unknowType) {
                 Statement statement = getStatement(config);
+                long executeStartTime = QueryMetrics.start();
                 rs = execute(statement, sql);
+                QueryMetrics.record(QueryMetrics.JDBC_EXECUTE, executeStartTime);
 
                 result = new JSONObject(true);
                 int updateCount = statement.getUpdateCount();
@@ -215,7 +332,9 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
                 switch (config.getMethod()) {
                     case HEAD:
                     case HEADS:
+                        long headStartTime = QueryMetrics.start();
                         rs = executeQuery(config);
+                        QueryMetrics.record(QueryMetrics.JDBC_EXECUTE, headStartTime);
 
                         executedSQLCount++;
 
@@ -229,7 +348,9 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
                     case DELETE:
                         executedSQLCount++;
 
+                        long updateStartTime = QueryMetrics.start();
                         int updateCount = executeUpdate(config);
+                        QueryMetrics.record(QueryMetrics.JDBC_EXECUTE, updateStartTime);
 
                         result = AbstractParser.newResult(updateCount > 0 ? JSONResponse.CODE_SUCCESS : JSONResponse.CODE_NOT_FOUND
                                 , updateCount > 0 ? JSONResponse.MSG_SUCCEED : "没权限访问或对象不存在！");
@@ -246,7 +367,9 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
                     case GET:
                     case GETS:
                         result = getCacheItem(sql, position, config.getCache());
-                        Log.i(TAG, ">>> execute  result = getCache('" + sql + "', " + position + ") = " + result);
+                        if (Log.isInfoEnabled()) {
+                            Log.i(TAG, ">>> execute  result = getCache('" + sql + "', " + position + ") = " + result);
+                        }
                         if (result != null) {
                             cachedSQLCount++;
 
@@ -254,8 +377,11 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
                             return result;
                         }
 
+                        long queryStartTime = QueryMetrics.start();
                         rs = executeQuery(config);  //FIXME SQL Server 是一次返回两个结果集，包括查询结果和执行计划，需要 moreResults
 
+                        QueryMetrics.record(QueryMetrics.JDBC_EXECUTE, queryStartTime);
+
                         if (config.isExplain() == false) { //只有 SELECT 才能 EXPLAIN
                             executedSQLCount++;
                         }
@@ -268,6 +394,8 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
             }
 
 
+            // 包含从 ResultSet 逐行拉取数据的时间
+            long mappingStartTime = QueryMetrics.start();
             //		final boolean cache = config.getCount() != 1;
             resultList = new ArrayList<>();
             //		Log.d(TAG, "select  cache = " + cache + "; resultList" + (resultList == null ? "=" : "!=") + "null");
@@ -286,7 +414,9 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
             int viceColumnStart = length + 1; //第一个副表字段的index
             while (rs.next()) {
                 index++;
-                Log.d(TAG, "\n\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n execute while (rs.next()){  index = " + index + "\n\n");
+                if (Log.isDebugEnabled()) {
+                    Log.d(TAG, "\n\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n execute while (rs.next()){  index = " + index + "\n\n");
+                }
 
                 JSONObject item = new JSONObject(true);
 
@@ -313,9 +443,12 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 
                 resultList = onPutTable(config, rs, rsmd, resultList, index, item);
 
-                Log.d(TAG, "\n execute  while (rs.next()) { resultList.put( " + index + ", result); "
-                        + "\n >>>>>>>>>>>>>>>>>>>>>>>>>>> \n\n");
+                if (Log.isDebugEnabled()) {
+                    Log.d(TAG, "\n execute  while (rs.next()) { resultList.put( " + index + ", result); "
+                            + "\n >>>>>>>>>>>>>>>>>>>>>>>>>>> \n\n");
+                }
             }
+            QueryMetrics.record(QueryMetrics.ROW_MAPPING, mappingStartTime);
 
         } finally {
             if (rs != null) {
@@ -363,7 +496,9 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
         }
 
         putCache(sql, resultList, config.getCache());
-        Log.i(TAG, ">>> execute  putCache('" + sql + "', resultList);  resultList.size() = " + resultList.size());
+        if (Log.isInfoEnabled()) {
+            Log.i(TAG, ">>> execute  putCache('" + sql + "', resultList);  resultList.size() = " + resultList.size());
+        }
 
         // 数组主表对象额外一次返回全部，方便 Parser 缓存来提高性能
 
@@ -378,7 +513,7 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
         }
 
         long endTime = System.currentTimeMillis();
-        Log.d(TAG, "\n\n execute  endTime = " + endTime + "; duration = " + (endTime - startTime)
+        Log.d(TAG, () -> "\n\n execute  endTime = " + endTime + "; duration = " + (endTime - startTime)
                 + "\n return resultList.get(" + position + ");" + "\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n\n");
         return result;
     }
@@ -730,10 +865,13 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
             Log.i(TAG, "select  connection " + (connection == null ? " = null" : ("isClosed = " + connection.isClosed())));
             // PostgreSQL 不允许 cross-database
             String url = config.getDBUri();
+            String poolName = config.getSQLDatabase();
             if(config.isPostgreSQL()){
                 url = url + "/" + config.getSchema();
+                poolName = poolName + "/" + config.getSchema();
             }
-            connection = DriverManager.getConnection(url, config.getDBAccount(), config.getDBPassword());
+            // 从连接池借出，close 时归还，避免每个请求都重新握手
+            connection = SQLConnectionPool.getConnection(poolName, url, config.getDBAccount(), config.getDBPassword());
             connectionMap.put(config.getDatabase(), connection);
         }
 
@@ -807,6 +945,10 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
     public void close() {
         cacheMap.clear();
         cacheMap = null;
+        cacheWeightMap.clear();
+        cacheKeyQueue.clear();
+        cacheRowCount.set(0);
+        cacheBytes.set(0);
 
         generatedSQLCount = 0;
         cachedSQLCount = 0;
@@ -822,7 +964,7 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
             for (Connection connection : connections) {
                 try {
                     if (connection != null && connection.isClosed() == false) {
-                        connection.close();
+                        connection.close(); // 归还到 SQLConnectionPool
                     }
                 } catch (SQLException e) {
                     e.printStackTrace();
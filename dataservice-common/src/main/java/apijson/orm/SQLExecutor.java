@@ -115,6 +115,18 @@ public interface SQLExecutor {
 
 	int getExecutedSQLCount();
 
+	/**缓存未命中次数，命中次数见 {@link #getCachedSQLCount()}
+	 */
+	int getCacheMissCount();
+
+	/**因超过总行数或字节数上限被淘汰的缓存数量
+	 */
+	int getCacheEvictionCount();
+
+	/**结果太大没有缓存的次数
+	 */
+	int getCacheSkipCount();
+
 	String getExecutedSQL();
 	
 }
@@ -1,6 +1,7 @@
 package dataservice.controller;
 
-import apijson.JSON;
+import apijson.QueryMetrics;
+import apijson.cache.QueryResultCache;
 import apijson.entity.DbInfo;
 import apijson.framework.APIJSONApplication;
 import apijson.framework.APIJSONController;
@@ -8,19 +9,26 @@ import apijson.framework.APIJSONCreator;
 import apijson.framework.APIJSONParser;
 import apijson.orm.Parser;
 import apijson.orm.SQLConfig;
+import apijson.orm.SQLConnectionPool;
 import com.alibaba.fastjson.JSONObject;
 import dataservice.config.DBSQLConfig;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
 import dataservice.redis.RedisUtil;
 import dataservice.service.ExtendFunctionService;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/common/dataservice")
@@ -34,8 +42,40 @@ public class DataServiceControl extends APIJSONController {
     private  String configDbAccount;
     @Value("${configDbPassword}")
     private  String configDbPassword;
+    @Value("${dbPoolMaxSize:20}")
+    private int dbPoolMaxSize;
+    @Value("${dbPoolMinIdle:2}")
+    private int dbPoolMinIdle;
+    //查询结果缓存时间(秒),<=0 不缓存
+    @Value("${resultCacheTtl:0}")
+    private long resultCacheTtl;
+    @Value("${resultCacheNearSize:10000}")
+    private long resultCacheNearSize;
     @Autowired
     private ExtendFunctionService extendFunctionService;
+    private QueryResultCache queryResultCache;
+    //已配置的数据服务名,只有这些服务名作为指标标签
+    private volatile Set<String> dataserviceSet = Collections.emptySet();
+
+    @PostConstruct
+    public void initResultCache() {
+        queryResultCache = new QueryResultCache(serviceName, new QueryResultCache.RemoteStore() {
+            @Override
+            public Object get(String key) {
+                try {
+                    return redisUtil.get(key);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }
+
+            @Override
+            public boolean set(String key, Object value, long seconds) {
+                return redisUtil.set(key, value, seconds);
+            }
+        }, resultCacheNearSize);
+    }
 
     @Override
     public Parser<Long> newParser(HttpSession session, apijson.RequestMethod method) {
@@ -45,28 +85,57 @@ public class DataServiceControl extends APIJSONController {
     @PostMapping(value = "data/{dataservice}/{database}")
     public String getCephMetaData(@PathVariable("dataservice") String dataservice, @PathVariable("database") String database, @RequestBody String request, HttpServletRequest session) {
         request = "{'@database':'" + dataservice + "','@schema':'" + database + "'," + request.substring(request.indexOf("{") + 1);
-        return getData(request, session);
+        //dataservice、database来自url,未配置的服务名不作为指标标签,database不作为标签
+        if (dataserviceSet.contains(dataservice)) {
+            QueryMetrics.begin(dataservice, null);
+        }
+        try {
+            return getData(request, session);
+        } finally {
+            QueryMetrics.end();
+        }
     }
 
     public String getData(String request, HttpServletRequest httpServletRequest) {
         JSONObject response = new JSONObject();
         response.put("ok", false);
         response.put("code", 401);
-        String result = get(request, httpServletRequest.getSession());
-        JSONObject jsonResult = JSON.parseObject(result);
-        jsonResult.remove("execute_sql");
-        return jsonResult.toString();
+        HttpSession session = httpServletRequest.getSession();
+        String result;
+        if (resultCacheTtl > 0 && request != null && !request.equals("")) {
+            String item = DigestUtils.md5DigestAsHex(request.getBytes(StandardCharsets.UTF_8));
+            result = queryResultCache.get(item, resultCacheTtl, true, () -> get(request, session),
+                    value -> value.contains("\"code\":200,\"msg\":\"success\""));
+        } else {
+            result = get(request, session);
+        }
+        return result;
     }
 
     public void refreshConfig() {
         APIJSONParser abstractParser = new APIJSONParser();
         abstractParser.loadAliasConfig();
+        queryResultCache.invalidateAll();
+    }
+
+    /**
+     * 按表增量刷新配置
+     *
+     * @param tableId    表id
+     * @param changeType update/delete
+     */
+    public void refreshTableConfig(int tableId, String changeType) {
+        APIJSONParser abstractParser = new APIJSONParser();
+        abstractParser.loadTableAliasConfig(tableId, "delete".equals(changeType));
+        queryResultCache.invalidateAll();
     }
 
 
 
-    public void accessHistory(String token, String service_path, String table_alias, String response, HttpSession session) {
-        extendFunctionService.saveAccessHistory(token, service_path, table_alias, response, session);
+    public void accessHistory(String token, String service_path, String table_alias, String executeSql, String response, HttpSession session) {
+        long startTime = QueryMetrics.start();
+        extendFunctionService.saveAccessHistory(token, service_path, table_alias, executeSql, response, session);
+        QueryMetrics.record(QueryMetrics.ACCESS_HISTORY, startTime);
     }
 
     public void initAPIJSONApplication() {
@@ -105,6 +174,10 @@ public class DataServiceControl extends APIJSONController {
                 }
             }
         }
+        //数据源变化时关闭已删除/停用服务的连接池，url/账号/密码变化的在下次借连接时重建
+        SQLConnectionPool.setDefaultSize(dbPoolMaxSize, dbPoolMinIdle);
+        SQLConnectionPool.retain(dbInfoMap.keySet());
+        dataserviceSet = new HashSet<>(dbInfoMap.keySet());
         APIJSONApplication.DEFAULT_APIJSON_CREATOR = new APIJSONCreator() {
             @Override
             public SQLConfig createSQLConfig() {
@@ -29,6 +29,15 @@ public class MySubcribe implements MessageListener {
         } else if (messageInfo.equals("reflushConfig")) {
             log.info("reflushConfig");
             dataServiceControl.refreshConfig();
+        } else if (messageInfo.startsWith("reflushTable:")) {
+            //reflushTable:表id:update/delete
+            log.info(messageInfo);
+            String[] items = messageInfo.split(":");
+            try {
+                dataServiceControl.refreshTableConfig(Integer.parseInt(items[1]), items.length > 2 ? items[2] : "update");
+            } catch (NumberFormatException e) {
+                log.error("表id不合法：" + messageInfo);
+            }
         } else {
             log.info("接收不用处理的消息：" + messageInfo);
             return;
@@ -1,10 +1,12 @@
 package dataservice.service;
 
 import apijson.JSON;
+import apijson.entity.AccessHistory;
 import apijson.framework.APIJSONController;
+import apijson.framework.AccessHistoryWriter;
 import apijson.orm.Parser;
 import com.alibaba.fastjson.JSONObject;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 
@@ -12,24 +14,36 @@ import javax.servlet.http.HttpSession;
 
 @Service
 public class ExtendFunctionService extends APIJSONController {
+    @Autowired
+    private AccessHistoryWriter accessHistoryWriter;
 
     @Override
     public Parser<Long> newParser(HttpSession session, apijson.RequestMethod method) {
         return super.newParser(session, method).setNeedVerify(false); // TODO 这里关闭校验，方便新手快速测试，实际线上项目建议开启
     }
 
-    @Async("taskExecutor")
-    public void saveAccessHistory(String token, String service_path, String table_alias, String response, HttpSession session) {
-        //解析response
-        JSONObject responseJson = JSON.parseObject(response);
-        if (responseJson == null) {
+    /**
+     * 只把访问记录放入队列,由AccessHistoryWriter批量写入,不占用请求线程和taskExecutor
+     *
+     * @param executeSql 执行的sql,不在response中,命中结果缓存时为null
+     * @param response   成功时不解析
+     */
+    public void saveAccessHistory(String token, String service_path, String table_alias, String executeSql, String response, HttpSession session) {
+        if (response == null) {
             return;
         }
-        String executeSql = responseJson.getString("execute_sql").replaceAll("\"", "");
-        //Log.i("SaveAccessHistory", "token:" + token + " service_path:" + service_path + " table_alias:" + table_alias + " execute_sql:" + executeSql + " success:" + responseJson.getString("ok") + " msg:" + responseJson.getString("msg"));
-        String requestPost = "{\"@database\":\"DATASERVICE\",\"@schema\":\"bigdata_dataservice\",\"dataservice_access_history\": {\"token\":\"" + token + "\",\"service_path\":\"" + service_path +
-                "\",\"table_alias\":\"" + table_alias + "\",\"execute_sql\":\"" + executeSql + "\",\"success\":" + responseJson.getString("ok") + ",\"msg\":\"" + responseJson.getString("msg") + "\"}}";
-        post(requestPost, session);
+        boolean ok = true;
+        String msg = "success";
+        //只有失败时才解析response,失败的response很小
+        if (!response.contains("\"code\":200,\"msg\":\"success\"")) {
+            JSONObject responseJson = JSON.parseObject(response);
+            if (responseJson == null) {
+                return;
+            }
+            ok = responseJson.getBooleanValue("ok");
+            msg = responseJson.getString("msg");
+        }
+        accessHistoryWriter.offer(new AccessHistory(token, service_path, table_alias, executeSql == null ? "" : executeSql, ok, msg));
     }
 
 /*    @HystrixCommand(fallbackMethod = "getTokenMapTimeout",commandProperties =
@@ -83,30 +83,15 @@ public interface LabelItemMapper {
     public String findMaxTagEnumIdCode(String tag_id);
 
     @Select("select i.*,tt.state as task_state,tt.id as task_id,tt.cron,if(cc.tag_cate_id is null, c.tag_cate_id,cc.tag_cate_id) as tag_cate_one_id,if(cc.tag_cate_name is null,c.tag_cate_name,cc.tag_cate_name) as tag_cate_one_name,if(cc.tag_cate_id is null,null,c.tag_cate_id) as tag_cate_two_id,if(cc.tag_cate_id is null,null,c.tag_cate_name) as tag_cate_two_name from tag_item i left join (select * from tag_item_task where deleted=0)tt on i.tag_id=tt.tag_id LEFT JOIN tag_cate c on i.tag_cate_id=c.tag_cate_id left join tag_cate cc on c.pid=cc.tag_cate_id where ${condition} limit #{startLine},#{size}")
-    @Results({
-            @Result(property = "tag_id", column = "tag_id"),
-            @Result(property = "tagEnumValueList", column = "tag_id", javaType = List.class,
-                    many = @Many(select = "com.cloudminds.bigdata.dataservice.label.manage.mapper.LabelItemMapper.findTagEnumValueByTagId"))})
     public List<TagItemExtend> findTagItem(String condition, int startLine, int size);
 
     @Select("select i.*,if(cc.tag_cate_id is null, c.tag_cate_id,cc.tag_cate_id) as tag_cate_one_id,if(cc.tag_cate_name is null,c.tag_cate_name,cc.tag_cate_name) as tag_cate_one_name,if(cc.tag_cate_id is null,null,c.tag_cate_id) as tag_cate_two_id,if(cc.tag_cate_id is null,null,c.tag_cate_name) as tag_cate_two_name from tag_item i LEFT JOIN tag_cate c on i.tag_cate_id=c.tag_cate_id left join tag_cate cc on c.pid=cc.tag_cate_id where ${condition}")
-    @Results({
-            @Result(property = "tag_id", column = "tag_id"),
-            @Result(property = "tagEnumValueList", column = "tag_id", javaType = List.class,
-                    many = @Many(select = "com.cloudminds.bigdata.dataservice.label.manage.mapper.LabelItemMapper.findTagEnumValueByTagId"))})
     public List<TagItemExtend> findAllTagItem(String condition);
 
     @Select("select i.*,if(cc.tag_cate_id is null, c.tag_cate_id,cc.tag_cate_id) as tag_cate_one_id,if(cc.tag_cate_name is null,c.tag_cate_name,cc.tag_cate_name) as tag_cate_one_name,if(cc.tag_cate_id is null,null,c.tag_cate_id) as tag_cate_two_id,if(cc.tag_cate_id is null,null,c.tag_cate_name) as tag_cate_two_name from tag_item i LEFT JOIN tag_cate c on i.tag_cate_id=c.tag_cate_id left join tag_cate cc on c.pid=cc.tag_cate_id where i.tag_id in ${condition}")
     public List<TagItemExtend> findTagItemByTagEnums(String condition);
 
-    @Select("select * from tag_enum_value where deleted=0 and tag_id=#{tag_id} and tag_enum_id in ${condition}")
-    public List<TagEnumValue> findTagEnumValueByTagEnums(String tag_id,String condition);
-
     @Select("select i.*,if(cc.tag_cate_id is null, c.tag_cate_id,cc.tag_cate_id) as tag_cate_one_id,if(cc.tag_cate_name is null,c.tag_cate_name,cc.tag_cate_name) as tag_cate_one_name,if(cc.tag_cate_id is null,null,c.tag_cate_id) as tag_cate_two_id,if(cc.tag_cate_id is null,null,c.tag_cate_name) as tag_cate_two_name from tag_item i LEFT JOIN tag_cate c on i.tag_cate_id=c.tag_cate_id left join tag_cate cc on c.pid=cc.tag_cate_id left join tag_item_task tt on i.tag_id=tt.tag_id and tt.deleted is null where ${condition}")
-    @Results({
-            @Result(property = "tag_id", column = "tag_id"),
-            @Result(property = "tagEnumValueList", column = "tag_id", javaType = List.class,
-                    many = @Many(select = "com.cloudminds.bigdata.dataservice.label.manage.mapper.LabelItemMapper.findTagEnumValueByTagId"))})
     public List<TagItemExtend> findAllTagItemNoTask(String condition);
 
     @Select("select count(*) from tag_item i LEFT JOIN tag_cate c on i.tag_cate_id=c.tag_cate_id left join tag_cate cc on c.pid=cc.tag_cate_id where ${condition}")
@@ -115,6 +100,17 @@ public interface LabelItemMapper {
     @Select("select * from tag_enum_value where deleted=0 and tag_id=#{tag_id}")
     public List<TagEnumValue> findTagEnumValueByTagId(String tag_id);
 
+    @Select("select * from tag_enum_value where deleted=0")
+    public List<TagEnumValue> findAllTagEnumValue();
+
+    @Select("select tag_id,tag_name,tag_cate_id,value_type from tag_item where deleted=0")
+    public List<TagItem> findAllTagItemBrief();
+
+    //标签树三张表的数量和最后修改时间,有变化时重新加载标签树索引
+    @Select("select concat((select count(*) from tag_cate where deleted=0),',',(select count(*) from tag_item where deleted=0),',',(select count(*) from tag_enum_value where deleted=0),',',"
+            + "ifnull((select max(update_time) from tag_cate),''),',',ifnull((select max(update_time) from tag_item),''),',',ifnull((select max(update_time) from tag_enum_value),''))")
+    public String findLabelTreeVersion();
+
     @Select("select e.*,i.tag_name from tag_enum_value e LEFT JOIN tag_item i on e.tag_id=i.tag_id where tag_enum_id in (${condition})")
     public List<TagEnumValueExtend> findTagEnumValueByTagEnumIds(String tag_enum_ids);
 
@@ -21,6 +21,9 @@ public interface TagCateMapper {
     @Select("select * from tag_cate where deleted=0 and tag_object_id=#{tag_object_id}")
     public List<TagCate> queryTagCateBTagObjectId(int tag_object_id);
 
+    @Select("select * from tag_cate where deleted=0")
+    public List<TagCate> queryAllTagCate();
+
     @Select("select * from tag_cate where deleted=0 and tag_cate_id=#{tag_cate_id}")
     public TagCate queryTagCateById(String tag_cate_id);
 
@@ -30,6 +30,8 @@ public class LabelService {
     private TagItemComplexMapper tagItemComplexMapper;
     @Autowired
     private TagItemTaskMapper tagItemTaskMapper;
+    @Autowired
+    private LabelTreeIndex labelTreeIndex;
     @Value("${dataServiceUrl}")
     private String dataServiceUrl;
     @Autowired
@@ -45,12 +47,12 @@ public class LabelService {
         }
         //pid 为0 首次查询分类
         if (pid.equals("0")) {
-            commonResponse.setData(labelItemMapper.findTagInfoFromCate(pid));
+            commonResponse.setData(labelTreeIndex.findTagInfoFromCate(pid));
             return commonResponse;
         }
         //pid不为0 value不为0
         if (value > 0) {
-            TagItem labelItem = labelItemMapper.findTagItemByTagId(pid);
+            TagItem labelItem = labelTreeIndex.findTagItemByTagId(pid);
             if (labelItem == null) {
                 commonResponse.setSuccess(false);
                 commonResponse.setMessage("标签不存在");
@@ -63,14 +65,14 @@ public class LabelService {
                 return commonResponse;
             }
             //查询枚举类型
-            commonResponse.setData(labelItemMapper.findTagInfoFromTagEnumValue(pid));
+            commonResponse.setData(labelTreeIndex.findTagInfoFromTagEnumValue(pid));
             return commonResponse;
         }
 
         //pid不为0 value为0
-        List<TagInfo> taginfos = labelItemMapper.findTagInfoFromCate(pid);
+        List<TagInfo> taginfos = labelTreeIndex.findTagInfoFromCate(pid);
         if (taginfos == null || taginfos.isEmpty()) {
-            commonResponse.setData(labelItemMapper.findTagInfoFromTagItem(pid));
+            commonResponse.setData(labelTreeIndex.findTagInfoFromTagItem(pid));
         } else {
             commonResponse.setData(taginfos);
         }
@@ -189,6 +191,7 @@ public class LabelService {
                 commonResponse.setMessage("取值范围插入失败,请联系管理员或者更新标签");
             }
         }
+        labelTreeIndex.invalidate();
         return commonResponse;
     }
 
@@ -394,6 +397,7 @@ public class LabelService {
             commonResponse.setSuccess(false);
             commonResponse.setMessage("枚举值更新失败,请联系管理员");
         }
+        labelTreeIndex.invalidate();
         return commonResponse;
     }
 
@@ -480,6 +484,7 @@ public class LabelService {
             commonResponse.setMessage("删除失败,请联系管理员或稍后再试!");
             return commonResponse;
         }
+        labelTreeIndex.invalidate();
         return commonResponse;
     }
 
@@ -514,7 +519,9 @@ public class LabelService {
         }
         int startLine = (page - 1) * size;
         commonResponse.setCurrentPage(page);
-        commonResponse.setData(labelItemMapper.findTagItem(condition, startLine, size));
+        List<TagItemExtend> tagItemExtends = labelItemMapper.findTagItem(condition, startLine, size);
+        labelTreeIndex.fillTagEnumValues(tagItemExtends);
+        commonResponse.setData(tagItemExtends);
         commonResponse.setTotal(labelItemMapper.findTagItemCount(condition));
         return commonResponse;
     }
@@ -525,7 +532,9 @@ public class LabelService {
         if (state != null && state != -1) {
             condition = condition + " and i.state=" + state;
         }
-        commonResponse.setData(labelItemMapper.findAllTagItem(condition));
+        List<TagItemExtend> tagItemExtends = labelItemMapper.findAllTagItem(condition);
+        labelTreeIndex.fillTagEnumValues(tagItemExtends);
+        commonResponse.setData(tagItemExtends);
         return commonResponse;
     }
 
@@ -536,24 +545,23 @@ public class LabelService {
             commonResponse.setMessage("tag_enum_ids不能为空");
             return commonResponse;
         }
-        String tagItems = "(";
-        String tagItemEnums = "(";
-        for (int i = 0; i < labelItemByTagEnumsQuery.getTag_enum_ids().length; i++) {
-            String tagItemEnum = labelItemByTagEnumsQuery.getTag_enum_ids()[i];
-            String tagItem = tagItemEnum.substring(0, tagItemEnum.indexOf("_"));
-            tagItemEnums = tagItemEnums + "'" + tagItemEnum + "'";
-            tagItems = tagItems + "'" + tagItem + "'";
-            if (i != labelItemByTagEnumsQuery.getTag_enum_ids().length - 1) {
-                tagItemEnums = tagItemEnums + ",";
-                tagItems = tagItems + ",";
-            }
+        Set<String> tagItemEnums = new HashSet<>(Arrays.asList(labelItemByTagEnumsQuery.getTag_enum_ids()));
+        Set<String> tagItemSet = new LinkedHashSet<>();
+        for (String tagItemEnum : labelItemByTagEnumsQuery.getTag_enum_ids()) {
+            tagItemSet.add(tagItemEnum.substring(0, tagItemEnum.indexOf("_")));
         }
-        tagItems = tagItems + ")";
-        tagItemEnums = tagItemEnums + ")";
+        String tagItems = "('" + StringUtils.join(tagItemSet, "','") + "')";
         List<TagItemExtend> tagItemExtends = labelItemMapper.findTagItemByTagEnums(tagItems);
         if (tagItemExtends != null && tagItemExtends.size() > 0) {
-            for (int i = 0; i < tagItemExtends.size(); i++) {
-                tagItemExtends.get(i).setTagEnumValueList(labelItemMapper.findTagEnumValueByTagEnums(tagItemExtends.get(i).getTag_id(), tagItemEnums));
+            //枚举值从标签树索引里取,只保留请求的枚举值
+            for (TagItemExtend tagItemExtend : tagItemExtends) {
+                List<TagEnumValue> tagEnumValues = new ArrayList<>();
+                for (TagEnumValue tagEnumValue : labelTreeIndex.findTagEnumValueByTagId(tagItemExtend.getTag_id())) {
+                    if (tagItemEnums.contains(tagEnumValue.getTag_enum_id())) {
+                        tagEnumValues.add(tagEnumValue);
+                    }
+                }
+                tagItemExtend.setTagEnumValueList(tagEnumValues);
             }
         }
         commonResponse.setData(tagItemExtends);
@@ -563,7 +571,9 @@ public class LabelService {
     public CommonResponse queryAllLabelItemNoTask(int tag_object_id) {
         CommonResponse commonResponse = new CommonResponse();
         String condition = "c.tag_object_id=" + tag_object_id + " and i.deleted=0";
-        commonResponse.setData(labelItemMapper.findAllTagItemNoTask(condition));
+        List<TagItemExtend> tagItemExtends = labelItemMapper.findAllTagItemNoTask(condition);
+        labelTreeIndex.fillTagEnumValues(tagItemExtends);
+        commonResponse.setData(tagItemExtends);
         return commonResponse;
     }
 
@@ -0,0 +1,188 @@
+package com.cloudminds.bigdata.dataservice.label.manage.service;
+
+import com.cloudminds.bigdata.dataservice.label.manage.entity.TagCate;
+import com.cloudminds.bigdata.dataservice.label.manage.entity.TagEnumValue;
+import com.cloudminds.bigdata.dataservice.label.manage.entity.TagItem;
+import com.cloudminds.bigdata.dataservice.label.manage.entity.response.TagInfo;
+import com.cloudminds.bigdata.dataservice.label.manage.mapper.LabelItemMapper;
+import com.cloudminds.bigdata.dataservice.label.manage.mapper.TagCateMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 标签分类、标签、枚举值组成的标签树的内存索引
+ * 三张表各用一条sql整体加载,按父节点和标签id建索引,查询标签树和枚举值时不再逐层、逐个标签查库
+ * 本服务修改标签、分类时调用invalidate;其它实例的修改靠每隔labelTreeCheckInterval查一次版本
+ * (数量和最后修改时间)发现,兜底超过labelTreeTtl重新加载;返回的对象只读
+ */
+@Service
+public class LabelTreeIndex {
+    @Autowired
+    private LabelItemMapper labelItemMapper;
+    @Autowired
+    private TagCateMapper tagCateMapper;
+    //检查版本的间隔(毫秒)
+    @Value("${labelTreeCheckInterval:5000}")
+    private long checkInterval;
+    //没有检查到变化时最长的缓存时间(毫秒)
+    @Value("${labelTreeTtl:300000}")
+    private long ttl;
+
+    private volatile Snapshot snapshot;
+    private final AtomicLong lastCheckTime = new AtomicLong();
+
+    private static class Snapshot {
+        private final String version;
+        private final long loadTime = System.currentTimeMillis();
+        // pid -> 子分类
+        private final Map<String, List<TagCate>> cateByPid = new HashMap<>();
+        // tag_cate_id -> 分类下的标签
+        private final Map<String, List<TagItem>> itemByCateId = new HashMap<>();
+        private final Map<String, TagItem> itemById = new HashMap<>();
+        // tag_id -> 枚举值
+        private final Map<String, List<TagEnumValue>> enumByTagId = new HashMap<>();
+
+        private Snapshot(String version) {
+            this.version = version;
+        }
+    }
+
+    /**
+     * pid下的分类,和findTagInfoFromCate一致
+     */
+    public List<TagInfo> findTagInfoFromCate(String pid) {
+        List<TagInfo> tagInfos = new ArrayList<>();
+        for (TagCate tagCate : current().cateByPid.getOrDefault(pid, Collections.emptyList())) {
+            TagInfo tagInfo = new TagInfo();
+            tagInfo.setTag_id(tagCate.getTag_cate_id());
+            tagInfo.setTag_name(tagCate.getTag_cate_name());
+            tagInfos.add(tagInfo);
+        }
+        return tagInfos;
+    }
+
+    /**
+     * 分类下的标签,和findTagInfoFromTagItem一致
+     */
+    public List<TagInfo> findTagInfoFromTagItem(String tag_cate_id) {
+        List<TagInfo> tagInfos = new ArrayList<>();
+        for (TagItem tagItem : current().itemByCateId.getOrDefault(tag_cate_id, Collections.emptyList())) {
+            TagInfo tagInfo = new TagInfo();
+            tagInfo.setTag_id(tagItem.getTag_id());
+            tagInfo.setTag_name(tagItem.getTag_name());
+            tagInfo.setValue_type(tagItem.getValue_type());
+            tagInfos.add(tagInfo);
+        }
+        return tagInfos;
+    }
+
+    /**
+     * 标签的枚举值,和findTagInfoFromTagEnumValue一致
+     */
+    public List<TagInfo> findTagInfoFromTagEnumValue(String tag_id) {
+        List<TagInfo> tagInfos = new ArrayList<>();
+        for (TagEnumValue tagEnumValue : findTagEnumValueByTagId(tag_id)) {
+            TagInfo tagInfo = new TagInfo();
+            tagInfo.setTag_id(tagEnumValue.getTag_id());
+            tagInfo.setTag_name(tagEnumValue.getTag_value());
+            tagInfo.setValue_type(1);
+            tagInfo.setFinale(true);
+            tagInfos.add(tagInfo);
+        }
+        return tagInfos;
+    }
+
+    /**
+     * 只有标签表里的基本信息(id、名称、分类、值类型)
+     */
+    public TagItem findTagItemByTagId(String tag_id) {
+        return tag_id == null ? null : current().itemById.get(tag_id);
+    }
+
+    public List<TagEnumValue> findTagEnumValueByTagId(String tag_id) {
+        List<TagEnumValue> tagEnumValues = tag_id == null ? null : current().enumByTagId.get(tag_id);
+        return tagEnumValues == null ? new ArrayList<>() : new ArrayList<>(tagEnumValues);
+    }
+
+    /**
+     * 给查出来的标签填上枚举值
+     */
+    public void fillTagEnumValues(List<? extends TagItem> tagItems) {
+        if (tagItems == null || tagItems.isEmpty()) {
+            return;
+        }
+        Snapshot current = current();
+        for (TagItem tagItem : tagItems) {
+            List<TagEnumValue> tagEnumValues = current.enumByTagId.get(tagItem.getTag_id());
+            tagItem.setTagEnumValueList(tagEnumValues == null ? new ArrayList<>() : new ArrayList<>(tagEnumValues));
+        }
+    }
+
+    public List<TagCate> queryTagCateByPid(String pid, int tag_object_id) {
+        List<TagCate> tagCates = new ArrayList<>();
+        for (TagCate tagCate : current().cateByPid.getOrDefault(pid, Collections.emptyList())) {
+            if (tagCate.getTag_object_id() == tag_object_id) {
+                tagCates.add(tagCate);
+            }
+        }
+        return tagCates;
+    }
+
+    /**
+     * 标签、枚举值、分类有修改时调用,下次查询时重新加载
+     */
+    public synchronized void invalidate() {
+        snapshot = null;
+    }
+
+    /**
+     * 立即重新加载
+     */
+    public void reload() {
+        load();
+    }
+
+    private synchronized Snapshot load() {
+        Snapshot loaded = new Snapshot(labelItemMapper.findLabelTreeVersion());
+        for (TagCate tagCate : tagCateMapper.queryAllTagCate()) {
+            loaded.cateByPid.computeIfAbsent(tagCate.getPid(), k -> new ArrayList<>()).add(tagCate);
+        }
+        for (TagItem tagItem : labelItemMapper.findAllTagItemBrief()) {
+            loaded.itemById.put(tagItem.getTag_id(), tagItem);
+            loaded.itemByCateId.computeIfAbsent(tagItem.getTag_cate_id(), k -> new ArrayList<>()).add(tagItem);
+        }
+        for (TagEnumValue tagEnumValue : labelItemMapper.findAllTagEnumValue()) {
+            loaded.enumByTagId.computeIfAbsent(tagEnumValue.getTag_id(), k -> new ArrayList<>()).add(tagEnumValue);
+        }
+        snapshot = loaded;
+        lastCheckTime.set(System.currentTimeMillis());
+        return loaded;
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                current = snapshot;
+                return current == null ? load() : current;
+            }
+        }
+        long now = System.currentTimeMillis();
+        long last = lastCheckTime.get();
+        // 只有一个线程去检查,其它线程继续用当前的索引
+        if (now - last >= checkInterval && lastCheckTime.compareAndSet(last, now)) {
+            try {
+                if (now - current.loadTime >= ttl || !Objects.equals(current.version, labelItemMapper.findLabelTreeVersion())) {
+                    current = load();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return current;
+    }
+}
@@ -29,6 +29,9 @@ public class TagService {
     @Autowired
     private LabelItemMapper labelItemMapper;
 
+    @Autowired
+    private LabelTreeIndex labelTreeIndex;
+
     @Value("${metaJdbcConnet}")
     private String metaJdbcConnet;
 
@@ -133,6 +136,7 @@ public class TagService {
             commonResponse.setMessage("新增标签失败,请联系管理员！");
             return commonResponse;
         }
+        labelTreeIndex.invalidate();
         commonResponse.setData(tagCate.getTag_cate_id());
         return commonResponse;
     }
@@ -165,6 +169,7 @@ public class TagService {
             commonResponse.setMessage("更新标签名称失败,请稍好再试！");
             return commonResponse;
         }
+        labelTreeIndex.invalidate();
         return commonResponse;
     }
 
@@ -194,13 +199,14 @@ public class TagService {
             commonResponse.setMessage("删除失败,请稍后再试！");
             return commonResponse;
         }
+        labelTreeIndex.invalidate();
         return commonResponse;
     }
 
     public CommonResponse queryTagCate(int tag_object_id, String pid) {
         CommonResponse commonResponse = new CommonResponse();
         if (pid != null) {
-            commonResponse.setData(tagCateMapper.queryTagCateByPid(pid,tag_object_id));
+            commonResponse.setData(labelTreeIndex.queryTagCateByPid(pid, tag_object_id));
         } else {
             commonResponse.setData(tagCateMapper.queryTagCateBTagObjectId(tag_object_id));
         }
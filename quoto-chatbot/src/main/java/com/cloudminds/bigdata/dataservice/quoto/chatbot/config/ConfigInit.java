@@ -3,6 +3,7 @@ package com.cloudminds.bigdata.dataservice.quoto.chatbot.config;
 import apijson.framework.APIJSONApplication;
 import apijson.framework.APIJSONCreator;
 import apijson.orm.SQLConfig;
+import apijson.orm.SQLConnectionPool;
 import com.cloudminds.bigdata.dataservice.quoto.chatbot.controller.ChatbotQuotoControl;
 import com.cloudminds.bigdata.dataservice.quoto.chatbot.redis.RedisUtil;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,6 +18,7 @@ import java.util.Map;
 @Component
 public class ConfigInit implements ApplicationRunner {
     public static Map<String, String> dbInfo=new HashMap<String, String>();
+    public static Map<String, String> dbPoolInfo=new HashMap<String, String>();
     @Autowired
     private ChatbotQuotoControl chatbotQuotoControl;
     @Value("${dbUrl}")
@@ -31,6 +33,10 @@ public class ConfigInit implements ApplicationRunner {
     private String configDbAccount;
     @Value("${configDbPassword}")
     private String configDbPassword;
+    @Value("${dbPoolMaxSize:20}")
+    private String dbPoolMaxSize;
+    @Value("${dbPoolMinIdle:2}")
+    private String dbPoolMinIdle;
     @Override
     public void run(ApplicationArguments args) throws Exception {
         dbInfo.put("dbUrl", dbUrl);
@@ -39,6 +45,9 @@ public class ConfigInit implements ApplicationRunner {
         dbInfo.put("configDbUrl", configDbUrl);
         dbInfo.put("configDbAccount", configDbAccount);
         dbInfo.put("configDbPassword", configDbPassword);
+        dbPoolInfo.put("dbPoolMaxSize", dbPoolMaxSize);
+        dbPoolInfo.put("dbPoolMinIdle", dbPoolMinIdle);
+        SQLConnectionPool.setDefaultSize(Integer.parseInt(dbPoolMaxSize), Integer.parseInt(dbPoolMinIdle));
         APIJSONApplication.DEFAULT_APIJSON_CREATOR = new APIJSONCreator() {
             @Override
             public SQLConfig createSQLConfig() {
@@ -4,31 +4,49 @@ import java.rmi.ServerException;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Component;
 
 import com.cloudminds.bigdata.dataservice.quoto.chatbot.QuotoChatbotApplication;
 import com.purgeteam.dynamic.config.starter.event.ActionConfigEvent;
 
+import apijson.cache.QueryResultCache;
 import apijson.framework.APIJSONApplication;
 import apijson.framework.APIJSONCreator;
 import apijson.orm.SQLConfig;
+import apijson.orm.SQLConnectionPool;
 
 @Component
 public class NacosListener implements ApplicationListener<ActionConfigEvent> {
+	@Autowired
+	private QueryResultCache queryResultCache;
 
 	@Override
 	public void onApplicationEvent(ActionConfigEvent event) {
 		// TODO Auto-generated method stub
 		boolean dbChange=false;
+		boolean dbPoolChange=false;
 		Map<String, HashMap> change=event.getPropertyMap();
 		for (String key : change.keySet()) {
 			if(ConfigInit.dbInfo.containsKey(key)) {
 				ConfigInit.dbInfo.put(key, change.get(key).get("after").toString());
 				dbChange=true;
 			}
+			if(ConfigInit.dbPoolInfo.containsKey(key)) {
+				ConfigInit.dbPoolInfo.put(key, change.get(key).get("after").toString());
+				dbPoolChange=true;
+			}
+			if(key.equals("resultCacheTableTtl")) {
+				Object after=change.get(key).get("after");
+				queryResultCache.setTableTtl(after==null?null:after.toString());
+			}
 			
 		}
+		// 连接池大小在线调整，url/账号/密码变化的连接池在下次借连接时重建
+		if(dbPoolChange) {
+			SQLConnectionPool.setDefaultSize(Integer.parseInt(ConfigInit.dbPoolInfo.get("dbPoolMaxSize")), Integer.parseInt(ConfigInit.dbPoolInfo.get("dbPoolMinIdle")));
+		}
 	    if(dbChange) {
 	    	APIJSONApplication.DEFAULT_APIJSON_CREATOR = new APIJSONCreator() {
 				@Override
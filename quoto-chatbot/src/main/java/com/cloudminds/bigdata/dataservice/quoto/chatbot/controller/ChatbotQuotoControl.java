@@ -3,14 +3,13 @@ package com.cloudminds.bigdata.dataservice.quoto.chatbot.controller;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
-import apijson.JSON;
-import com.cloudminds.bigdata.dataservice.quoto.chatbot.entitys.TokenInfo;
+import com.cloudminds.bigdata.dataservice.quoto.chatbot.service.AliasConfigService;
 import com.cloudminds.bigdata.dataservice.quoto.chatbot.service.ExtendFunctionService;
+import com.cloudminds.bigdata.dataservice.quoto.chatbot.service.TokenPermissionService;
 import com.google.common.base.Joiner;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.util.DigestUtils;
@@ -18,16 +17,19 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.alibaba.fastjson.JSONObject;
 import com.cloudminds.bigdata.dataservice.quoto.chatbot.redis.RedisUtil;
 
+import apijson.QueryMetrics;
+import apijson.cache.QueryResultCache;
+import apijson.cache.TokenPermissionIndex;
 import apijson.entity.CommonResponse;
 import apijson.entity.ConfigLoadResponse;
 import apijson.framework.APIJSONController;
 import apijson.framework.APIJSONParser;
-import apijson.orm.AbstractSQLConfig;
 import apijson.orm.Parser;
 
 @RestController
@@ -38,6 +40,12 @@ public class ChatbotQuotoControl extends APIJSONController {
 	String serviceName = "chatbot";
 	@Autowired
 	private ExtendFunctionService extendFunctionService;
+	@Autowired
+	private QueryResultCache queryResultCache;
+	@Autowired
+	private AliasConfigService aliasConfigService;
+	@Autowired
+	private TokenPermissionService tokenPermissionService;
 
 	@Override
 	public Parser<Long> newParser(HttpSession session, apijson.RequestMethod method) {
@@ -45,6 +53,14 @@ public class ChatbotQuotoControl extends APIJSONController {
 	}
 
 	public String getData(String request, HttpServletRequest httpServletRequest, String servicePath) {
+		try {
+			return query(request, httpServletRequest, servicePath);
+		} finally {
+			QueryMetrics.end();
+		}
+	}
+
+	private String query(String request, HttpServletRequest httpServletRequest, String servicePath) {
 		JSONObject response = new JSONObject();
 		response.put("ok", false);
 		response.put("code", 401);
@@ -60,129 +76,79 @@ public class ChatbotQuotoControl extends APIJSONController {
 			response.put("msg", "验证用户权限时解析表名出错,请检查请求参数是否合法!");
 			return response.toString();
 		}
+		String tables = Joiner.on(",").join(tableNameList);
 
+		String checkResult = checkToken(httpServletRequest, servicePath, tableNameList);
+		if (checkResult != null) {
+			return checkResult;
+		}
 		HttpSession session = httpServletRequest.getSession();
 		String token = httpServletRequest.getHeader("token");
+		//权限校验通过后才打标签,标签值不直接取未校验的请求内容
+		QueryMetrics.begin(servicePath, QueryMetrics.table(tableNameList));
+		boolean redis = tokenPermissionService.isRedis();
+
+		// redis中的配置版本号变化时才重新加载表别名、列别名配置
+		if (redis) {
+			long startTime = QueryMetrics.start();
+			aliasConfigService.sync();
+			QueryMetrics.record(QueryMetrics.CONFIG_LOAD, startTime);
+		}
+
+		// 从缓存获取查询数据,近缓存未命中时查redis,相同请求并发时只查一次库
+		if (request == null || request.equals("")) {
+			return get(request, session);
+		}
+		String item = DigestUtils.md5DigestAsHex(request.getBytes(StandardCharsets.UTF_8));
+		long ttl = queryResultCache.getTtl(servicePath, tableNameList, 10);
+		QueryResultCache.Result result = queryResultCache.getResult(item, ttl, redis, () -> getResult(request, session),
+				value -> value.contains("\"code\":200,\"msg\":\"success\""));
+		accessHistory(token, servicePath, tables, result.getExecutedSQL(), result.getValue(), session);
+		return result.getValue();
+	}
+
+	/**
+	 * 校验token对这些表的访问权限,索引在内存中,不访问redis
+	 *
+	 * @return 没有权限时返回的响应,有权限时返回null
+	 */
+	private String checkToken(HttpServletRequest httpServletRequest, String servicePath, List<String> tableNameList) {
+		JSONObject response = new JSONObject();
+		response.put("ok", false);
+		response.put("code", 401);
+		String token = httpServletRequest.getHeader("token");
 		//第一步取token
 		if (token == null) {
 			response.put("msg", "token不能为空!");
 			return response.toString();
 		}
-		//第二步验证token值对应的权限
-		TokenInfo tokenInfo = extendFunctionService.getTokenMap();
-		if (tokenInfo.getToken() != null) {
-			Map<String, String> token_map = JSONObject.parseObject(JSONObject.toJSONString(tokenInfo.getToken()),
-					Map.class);
-			if (token_map != null) {
-				String tokenAccess = token_map.get(token);
-				if (tokenAccess == null) {
-					response.put("msg", "用户没有此表的访问权限,请联系管理员!");
-					return response.toString();
-				}
-				if (!tokenAccess.equals("ALL")) {
-					String[] tokenAccessList = tokenAccess.toString().split(",");
-					for (String tableName : tableNameList) {
-						boolean hasAccess = false;
-						for (String tokenAccessValue : tokenAccessList) {
-							if (tokenAccessValue.equals(servicePath + "." + tableName)) {
-								hasAccess = true;
-								break;
-							}
-						}
-						if (!hasAccess) {
-							response.put("msg", "用户没有" + tableName + "表的访问权限,请联系管理员!");
-							return response.toString();
-						}
-					}
-
-				}
-			} else {
+		//第二步验证token值对应的权限,没有权限返回时也计时
+		long startTime = QueryMetrics.start();
+		try {
+			TokenPermissionIndex tokenPermissionIndex = tokenPermissionService.getIndex();
+			if (!tokenPermissionIndex.isLoaded()) {
 				response.put("msg", "权限配置信息加载有问题,请联系大数据团队!");
 				return response.toString();
 			}
-		} else {
-			response.put("msg", "权限配置信息加载有问题,请联系大数据团队!");
-			return response.toString();
-		}
-
-		// 从redis获取配置信息
-		if (tokenInfo.isRedis()) {
-			try {
-				Object TABLE_KEY_MAP = redisUtil.get(serviceName + "_table_key_map");
-				Object TABLE_COLUMN_MAP = redisUtil.get(serviceName + "_table_column_map");
-				if (TABLE_KEY_MAP != null) {
-					@SuppressWarnings("unchecked")
-					Map<String, String> table_key_map = JSONObject.parseObject(JSONObject.toJSONString(TABLE_KEY_MAP),
-							Map.class);
-					if (table_key_map != null) {
-						AbstractSQLConfig.TABLE_KEY_MAP.clear();
-						AbstractSQLConfig.TABLE_KEY_MAP = table_key_map;
-					}
-				}
-				if (TABLE_COLUMN_MAP != null) {
-					@SuppressWarnings("unchecked")
-					Map<String, Map<String, String>> table_column_map = JSONObject
-							.parseObject(JSONObject.toJSONString(TABLE_COLUMN_MAP), Map.class);
-					if (table_column_map != null) {
-						AbstractSQLConfig.tableColumnMap.clear();
-						AbstractSQLConfig.tableColumnMap = table_column_map;
-					}
-				}
-
-			} catch (Exception e) {
-				// TODO: handle exception
-				e.printStackTrace();
-			}
-		}
-
-		// 从redis获取查询数据
-		if (request == null || request.equals("")) {
-			return get(request, session);
-		}
-		String item = DigestUtils.md5DigestAsHex(request.getBytes(StandardCharsets.UTF_8));
-		Object value = null;
-		boolean redisExce = false;
-		if (tokenInfo.isRedis()) {
-			try {
-				value = redisUtil.hget(serviceName, item);
-			} catch (Exception e) {
-				// TODO: handle exception
-				e.printStackTrace();
-				redisExce = true;
-			}
-		}
-		if (value != null) {
-			String valueS = value.toString();
-			if (!valueS.equals("")) {
-				accessHistory(token, servicePath, Joiner.on(",").join(tableNameList), valueS, session);
-				JSONObject jsonResult = JSON.parseObject(valueS);
-				jsonResult.remove("execute_sql");
-				return jsonResult.toString();
+			if (!tokenPermissionIndex.hasToken(token)) {
+				response.put("msg", "用户没有此表的访问权限,请联系管理员!");
+				return response.toString();
 			}
-
-		}
-		String result = get(request, session);
-		accessHistory(token, servicePath, Joiner.on(",").join(tableNameList), result, session);
-		if (redisExce) {
-			JSONObject jsonResult = JSON.parseObject(result);
-			jsonResult.remove("execute_sql");
-			return jsonResult.toString();
-		}
-		if (tokenInfo.isRedis()) {
-			if (result.contains("\"code\":200,\"msg\":\"success\"")) {
-				if (!redisUtil.hset(serviceName, item, result, 10)) {
-					System.err.println(
-							"\n\n\n redis数据存储失败,存储的value:" + result + "<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n");
-				}
+			String deniedTable = tokenPermissionIndex.getDeniedTable(token, servicePath, tableNameList);
+			if (deniedTable != null) {
+				response.put("msg", "用户没有" + deniedTable + "表的访问权限,请联系管理员!");
+				return response.toString();
 			}
+			return null;
+		} finally {
+			QueryMetrics.record(QueryMetrics.TOKEN_CHECK, startTime);
 		}
-		JSONObject jsonResult = JSON.parseObject(result);
-		jsonResult.remove("execute_sql");
-		return jsonResult.toString();
 	}
 
-	public void accessHistory(String token,String service_path,String table_alias,String response, HttpSession session){
-		extendFunctionService.saveAccessHistory(token,service_path,table_alias,response,session);
+	public void accessHistory(String token, String service_path, String table_alias, String executeSql, String response, HttpSession session) {
+		long startTime = QueryMetrics.start();
+		extendFunctionService.saveAccessHistory(token, service_path, table_alias, executeSql, response, session);
+		QueryMetrics.record(QueryMetrics.ACCESS_HISTORY, startTime);
 		//Thread t = new Thread(new SaveAccessHistory(token,service_path,table_alias,response,session));
 		//t.start();
 	}
@@ -203,14 +169,24 @@ public class ChatbotQuotoControl extends APIJSONController {
 	@GetMapping(value = "refreshConfig")
 	public CommonResponse refush() {
 		APIJSONParser abstractParser = new APIJSONParser();
-		ConfigLoadResponse configLoadResponse = abstractParser.loadAliasConfig();
+		return publishConfig(abstractParser.loadAliasConfig());
+	}
+
+	//按表增量刷新,changeType: update/delete;本地配置落后于redis时全量刷新
+	@GetMapping(value = "refreshTable")
+	public CommonResponse refreshTable(@RequestParam("tableId") int tableId, @RequestParam(value = "changeType", defaultValue = "update") String changeType) {
+		APIJSONParser abstractParser = new APIJSONParser();
+		if (!aliasConfigService.isLatest()) {
+			return publishConfig(abstractParser.loadAliasConfig());
+		}
+		return publishConfig(abstractParser.loadTableAliasConfig(tableId, "delete".equals(changeType)));
+	}
+
+	private CommonResponse publishConfig(ConfigLoadResponse configLoadResponse) {
 		if (configLoadResponse.isSuccess()) {
-			if (configLoadResponse.getTABLE_KEY_MAP() != null) {
-				redisUtil.set(serviceName + "_table_key_map", configLoadResponse.getTABLE_KEY_MAP());
-			}
-			if (configLoadResponse.getTableColumnMap() != null) {
-				redisUtil.set(serviceName + "_table_column_map", configLoadResponse.getTableColumnMap());
-			}
+			aliasConfigService.publish(configLoadResponse);
+			// 配置变了，旧的查询结果不再可信
+			queryResultCache.invalidateAll();
 		}
 		CommonResponse commonResponse=new CommonResponse();
 		commonResponse.setData(configLoadResponse.getData());
@@ -508,7 +508,7 @@ public class DataServiceConfig {
             commonResponse.setSuccess(false);
             return commonResponse;
         }
-        refreshDataService(id);
+        refreshDataService(id, "delete");
         return commonResponse;
     }
 
@@ -1085,6 +1085,8 @@ public class DataServiceConfig {
             }
         }
         redisUtil.set("roc_token", userTokenCkMap);
+        // 通知roc服务重新编译token权限索引
+        redisUtil.convertAndSend("roc", "reflushToken");
         //chatbot服务加载用户权限
         List<UserToken> userTokenKylin = userTokenMapper.findTokenTables("Mysql");
         Map<String, String> userTokenMapKylin = new HashMap<>();
@@ -1097,6 +1099,8 @@ public class DataServiceConfig {
             }
         }
         redisUtil.set("chatbot_token", userTokenMapKylin);
+        // 通知chatbot服务重新编译token权限索引
+        redisUtil.convertAndSend("chatbot", "reflushToken");
 
         commonResponse.setMessage("刷新成功！");
         return commonResponse;
@@ -1472,6 +1476,16 @@ public class DataServiceConfig {
     }
 
     public void refreshDataService(int tableId) {
+        refreshDataService(tableId, "update");
+    }
+
+    /**
+     * 按表增量刷新数据服务的配置,只重新加载这一张表的表别名、列别名和指标
+     *
+     * @param tableId    表id
+     * @param changeType update:新增、修改、启用禁用 delete:删除
+     */
+    public void refreshDataService(int tableId, String changeType) {
         //查询数据服务刷新地址
         String servicePath = tableInfoMapper.getDataServicePathByTableId(tableId);
         if (org.apache.commons.lang.StringUtils.isEmpty(servicePath)) {
@@ -1479,13 +1493,13 @@ public class DataServiceConfig {
         }
         if (servicePath.startsWith(commonDataserviceUrl)) {
             //设置redis订阅通道去更新通用数据服务的配置信息
-            redisUtil.convertAndSend(commonDataserviceName, "reflushConfig");
+            redisUtil.convertAndSend(commonDataserviceName, "reflushTable:" + tableId + ":" + changeType);
             return;
         }
         Thread t = new Thread() {
             @Override
             public void run() {
-                String url = dataServiceUrl + servicePath + "refreshConfig";
+                String url = dataServiceUrl + servicePath + "refreshTable?tableId=" + tableId + "&changeType=" + changeType;
                 //请求刷新地址
                 ResponseEntity<String> responseEntity = restTemplate.getForEntity(url, String.class);
                 if (!responseEntity.getStatusCode().is2xxSuccessful()) {
@@ -1,9 +1,17 @@
 package com.cloudminds.bigdata.dataservice.quoto.manage;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
 
@@ -12,8 +20,28 @@ import org.springframework.web.client.RestTemplate;
 public class QuotoManageApplication 
 {
 	@Bean
-	RestTemplate restTemplate() {
-		return new RestTemplate();
+	RestTemplate restTemplate(@Value("${dataServiceConnectTimeout:5000}") int connectTimeout,
+			@Value("${dataServiceReadTimeout:60000}") int readTimeout) {
+		SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+		requestFactory.setConnectTimeout(connectTimeout);
+		requestFactory.setReadTimeout(readTimeout);
+		return new RestTemplate(requestFactory);
+	}
+
+	/**
+	 * 复合指标并发获取各操作数的数据，排满后由调用线程自己执行
+	 */
+	@Bean(destroyMethod = "shutdown")
+	ExecutorService operandExecutor(@Value("${operandFetchThreads:16}") int threads) {
+		AtomicInteger threadCount = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(256), r -> {
+					Thread thread = new Thread(r, "quoto-operand-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
 	}
 	public static void main(String[] args) throws Exception {
 		SpringApplication.run(QuotoManageApplication.class, args);
@@ -20,13 +20,19 @@ import com.cloudminds.bigdata.dataservice.quoto.manage.entity.request.QuotoQuery
 import com.cloudminds.bigdata.dataservice.quoto.manage.entity.response.CommonQueryResponse;
 import com.cloudminds.bigdata.dataservice.quoto.manage.entity.response.CommonResponse;
 import com.cloudminds.bigdata.dataservice.quoto.manage.entity.response.DataCommonResponse;
+import com.cloudminds.bigdata.dataservice.quoto.manage.service.QuotoAccessHistoryWriter;
 import com.cloudminds.bigdata.dataservice.quoto.manage.service.QuotoService;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 @RestController
 @RequestMapping("/quotoManage/quoto")
 public class QuotoControl {
 	@Autowired
 	private QuotoService quotoService;
+	@Autowired
+	private QuotoAccessHistoryWriter quotoAccessHistoryWriter;
 
 	// 检查是否唯一
 	@RequestMapping(value = "checkUnique", method = RequestMethod.POST)
@@ -265,5 +271,17 @@ public class QuotoControl {
 		return dataCommonResponse;
 	}
 
+	// 指标访问记录写入队列的状态
+	@RequestMapping(value = "queryAccessHistoryStats", method = RequestMethod.GET)
+	public CommonResponse queryAccessHistoryStats() {
+		CommonResponse commonResponse = new CommonResponse();
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("queueSize", quotoAccessHistoryWriter.getQueueSize());
+		stats.put("written", quotoAccessHistoryWriter.getWrittenCount());
+		stats.put("dropped", quotoAccessHistoryWriter.getDroppedCount());
+		stats.put("failed", quotoAccessHistoryWriter.getFailedCount());
+		commonResponse.setData(stats);
+		return commonResponse;
+	}
 
 }
@@ -1,6 +1,6 @@
 package com.cloudminds.bigdata.dataservice.quoto.manage.entity;
 
-import java.sql.Date;
+import java.util.Date;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
 
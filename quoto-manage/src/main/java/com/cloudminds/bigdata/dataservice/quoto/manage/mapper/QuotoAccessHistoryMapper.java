@@ -1,5 +1,7 @@
 package com.cloudminds.bigdata.dataservice.quoto.manage.mapper;
 
+import java.util.List;
+
 import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 
@@ -10,4 +12,10 @@ public interface QuotoAccessHistoryMapper {
 	@Insert("insert into quoto_access_history(quoto_id,quoto_name,business,theme,level,type,success,message) "
 			+ "values(#{quoto_id}, #{quoto_name},#{business},#{theme},#{level},#{type},#{success}, #{message})")
 	public void insertAccessHistory(QuotoAccessHistory quotoAccessHistory);
+
+	@Insert({"<script>", "insert into quoto_access_history(quoto_id,quoto_name,business,theme,level,type,success,message,create_time) values ",
+			"<foreach collection='list' item='item' index='index' separator=','>",
+			"(#{item.quoto_id}, #{item.quoto_name},#{item.business},#{item.theme},#{item.level},#{item.type},#{item.success}, #{item.message}, #{item.create_time})",
+			"</foreach>", "</script>"})
+	public int batchInsertAccessHistory(List<QuotoAccessHistory> list);
 }
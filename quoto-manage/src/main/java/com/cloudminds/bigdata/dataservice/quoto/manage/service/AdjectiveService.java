@@ -30,6 +30,8 @@ public class AdjectiveService {
     private AdjectiveMapper adjectiveMapper;
     @Autowired
     private DimensionMapper dimensionMapper;
+    @Autowired
+    private QuotoCatalog quotoCatalog;
 
 
     //删除修饰词
@@ -356,6 +358,7 @@ public class AdjectiveService {
             commonResponse.setMessage("数据更新失败,请稍后再试");
             return commonResponse;
         }
+        quotoCatalog.invalidate();
         return commonResponse;
     }
 
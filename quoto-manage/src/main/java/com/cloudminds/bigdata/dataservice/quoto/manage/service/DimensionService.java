@@ -19,6 +19,8 @@ import java.util.List;
 public class DimensionService {
     @Autowired
     private DimensionMapper dimensionMapper;
+    @Autowired
+    private QuotoCatalog quotoCatalog;
 
     //新增维度对象
     public CommonResponse addDimensionObject(DimensionObject dimensionObject) {
@@ -89,6 +91,7 @@ public class DimensionService {
             commonResponse.setMessage("维度更新失败,请联系管理员");
             return commonResponse;
         }
+        quotoCatalog.invalidate();
         return commonResponse;
     }
 
@@ -226,6 +229,7 @@ public class DimensionService {
             commonResponse.setMessage("维度属性更新失败");
             return commonResponse;
         }
+        quotoCatalog.invalidate();
 
         return commonResponse;
     }
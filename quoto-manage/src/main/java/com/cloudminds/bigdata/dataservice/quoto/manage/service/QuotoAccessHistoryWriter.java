@@ -0,0 +1,151 @@
+package com.cloudminds.bigdata.dataservice.quoto.manage.service;
+
+import com.cloudminds.bigdata.dataservice.quoto.manage.entity.QuotoAccessHistory;
+import com.cloudminds.bigdata.dataservice.quoto.manage.mapper.QuotoAccessHistoryMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 指标访问记录先放入内存队列,由后台线程攒够条数或到时间后批量插入,查询指标时不再同步写库
+ * 队列满时丢弃新的记录并计数,不阻塞查询;停止服务时把队列里剩下的记录写完
+ */
+@Service
+public class QuotoAccessHistoryWriter {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private QuotoAccessHistoryMapper quotoAccessHistoryMapper;
+    //队列最多缓存的记录数
+    @Value("${accessHistoryQueueSize:10000}")
+    private int queueSize;
+    //一次批量插入的最大条数
+    @Value("${accessHistoryBatchSize:200}")
+    private int batchSize;
+    //第一条记录进入批次后最多等待的时间(毫秒)
+    @Value("${accessHistoryFlushInterval:1000}")
+    private long flushInterval;
+
+    private BlockingQueue<QuotoAccessHistory> queue;
+    private Thread writerThread;
+    private volatile boolean running;
+
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(queueSize);
+        running = true;
+        writerThread = new Thread(this::run, "quoto-access-history");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writerThread.join(flushInterval * 2 + 5000);
+        // 后台线程没有及时结束时,由当前线程写完剩下的
+        List<QuotoAccessHistory> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            flush(batch);
+        }
+        logger.info("quoto access history writer stopped, written: {}, dropped: {}, failed: {}",
+                writtenCount.get(), droppedCount.get(), failedCount.get());
+    }
+
+    /**
+     * 记录一次访问,访问时间取调用时的时间
+     *
+     * @param quotoAccessHistory 放入队列后不能再修改
+     * @return 队列已满被丢弃时返回false
+     */
+    public boolean record(QuotoAccessHistory quotoAccessHistory) {
+        quotoAccessHistory.setCreate_time(new Date());
+        if (queue.offer(quotoAccessHistory)) {
+            return true;
+        }
+        long dropped = droppedCount.incrementAndGet();
+        if (dropped == 1 || dropped % 1000 == 0) {
+            logger.warn("quoto access history queue is full, dropped: {}", dropped);
+        }
+        return false;
+    }
+
+    private void run() {
+        List<QuotoAccessHistory> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                QuotoAccessHistory first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + flushInterval;
+                while (batch.size() < batchSize && running) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long wait = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || wait <= 0) {
+                        break;
+                    }
+                    QuotoAccessHistory next = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                queue.drainTo(batch, batchSize - batch.size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+            flush(batch);
+        }
+    }
+
+    private void flush(List<QuotoAccessHistory> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            quotoAccessHistoryMapper.batchInsertAccessHistory(batch);
+            writtenCount.addAndGet(batch.size());
+        } catch (Exception e) {
+            failedCount.addAndGet(batch.size());
+            logger.error("insert quoto access history failed, size: " + batch.size(), e);
+        }
+        batch.clear();
+    }
+
+    //当前队列中等待写入的记录数
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+}
@@ -0,0 +1,141 @@
+package com.cloudminds.bigdata.dataservice.quoto.manage.service;
+
+import com.cloudminds.bigdata.dataservice.quoto.manage.entity.ColumnAlias;
+import com.cloudminds.bigdata.dataservice.quoto.manage.entity.Quoto;
+import com.cloudminds.bigdata.dataservice.quoto.manage.entity.QuotoInfo;
+import com.cloudminds.bigdata.dataservice.quoto.manage.entity.ServicePathInfo;
+import com.cloudminds.bigdata.dataservice.quoto.manage.entity.response.AdjectiveExtend;
+import com.cloudminds.bigdata.dataservice.quoto.manage.entity.response.DimensionExtend;
+import com.cloudminds.bigdata.dataservice.quoto.manage.mapper.DimensionMapper;
+import com.cloudminds.bigdata.dataservice.quoto.manage.mapper.QuotoMapper;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 查询指标数据时用到的元数据(指标、维度、修饰词、服务路径等)的内存缓存
+ * 第一次用到时从数据库加载,指标、维度、修饰词变更时整体失效,换一个新版本;
+ * 数据表、列别名等由其它服务维护,靠过期时间刷新
+ */
+@Service
+public class QuotoCatalog {
+    @Autowired
+    private QuotoMapper quotoMapper;
+    @Autowired
+    private DimensionMapper dimensionMapper;
+    //缓存的过期时间(毫秒),过期后整体重新加载
+    @Value("${quotoCatalogTtl:300000}")
+    private long quotoCatalogTtl;
+
+    private volatile Snapshot snapshot = new Snapshot(0);
+
+    /**
+     * 同一版本的缓存,失效时整体替换,正在加载的旧版本数据不会放进新版本
+     */
+    private static class Snapshot {
+        private final long version;
+        private final long createTime = System.currentTimeMillis();
+        private final Map<Integer, Optional<Quoto>> quotoById = new ConcurrentHashMap<>();
+        private final Map<Integer, Optional<Quoto>> findQuotoById = new ConcurrentHashMap<>();
+        private final Map<String, Optional<Quoto>> quotoByName = new ConcurrentHashMap<>();
+        private final Map<String, Optional<Quoto>> quotoByField = new ConcurrentHashMap<>();
+        private final Map<String, Optional<QuotoInfo>> quotoInfo = new ConcurrentHashMap<>();
+        private final Map<Integer, Optional<ServicePathInfo>> servicePathInfo = new ConcurrentHashMap<>();
+        private final Map<String, Optional<ColumnAlias>> timeColumn = new ConcurrentHashMap<>();
+        private final Map<Integer, List<DimensionExtend>> dimensions = new ConcurrentHashMap<>();
+        private final Map<Integer, List<AdjectiveExtend>> adjectives = new ConcurrentHashMap<>();
+
+        private Snapshot(long version) {
+            this.version = version;
+        }
+    }
+
+    /**
+     * 指标、维度、修饰词有变更时调用
+     */
+    public synchronized void invalidate() {
+        snapshot = new Snapshot(snapshot.version + 1);
+    }
+
+    public long getVersion() {
+        return current().version;
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (System.currentTimeMillis() - current.createTime > quotoCatalogTtl) {
+            synchronized (this) {
+                if (snapshot == current) {
+                    snapshot = new Snapshot(current.version + 1);
+                }
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    private static <K, V> V load(Map<K, Optional<V>> cache, K key, Function<K, V> loader) {
+        return cache.computeIfAbsent(key, k -> Optional.ofNullable(loader.apply(k))).orElse(null);
+    }
+
+    // 查询数据时会修改指标和修饰词(替换变量、回写周期等),返回副本
+    private static Quoto copy(Quoto quoto) {
+        if (quoto == null) {
+            return null;
+        }
+        Quoto copy = new Quoto();
+        BeanUtils.copyProperties(quoto, copy);
+        return copy;
+    }
+
+    public Quoto queryQuotoById(int id) {
+        return copy(load(current().quotoById, id, quotoMapper::queryQuotoById));
+    }
+
+    public Quoto findQuotoById(int id) {
+        return copy(load(current().findQuotoById, id, quotoMapper::findQuotoById));
+    }
+
+    public Quoto queryQuotoByName(String name) {
+        return copy(load(current().quotoByName, name, quotoMapper::queryQuotoByName));
+    }
+
+    public Quoto queryQuotoByField(String field) {
+        return copy(load(current().quotoByField, field, quotoMapper::queryQuotoByField));
+    }
+
+    public QuotoInfo queryQuotoInfo(String metric, int tableId) {
+        return load(current().quotoInfo, tableId + "," + metric, k -> quotoMapper.queryQuotoInfo(metric, tableId));
+    }
+
+    public ServicePathInfo queryServicePathInfo(int tableId) {
+        return load(current().servicePathInfo, tableId, quotoMapper::queryServicePathInfo);
+    }
+
+    public ColumnAlias queryTimeColumnById(int tableId, int id) {
+        return load(current().timeColumn, tableId + "," + id, k -> dimensionMapper.queryTimeColumnById(tableId, id));
+    }
+
+    public List<DimensionExtend> queryDimensionByQuotoId(int quotoId) {
+        return current().dimensions.computeIfAbsent(quotoId, quotoMapper::queryDimensionByQuotoId);
+    }
+
+    public List<AdjectiveExtend> queryAdjective(int quotoId) {
+        List<AdjectiveExtend> adjectives = current().adjectives.computeIfAbsent(quotoId, quotoMapper::queryAdjective);
+        List<AdjectiveExtend> copy = new ArrayList<>(adjectives.size());
+        for (AdjectiveExtend adjective : adjectives) {
+            AdjectiveExtend adjectiveCopy = new AdjectiveExtend();
+            BeanUtils.copyProperties(adjective, adjectiveCopy);
+            copy.add(adjectiveCopy);
+        }
+        return copy;
+    }
+}
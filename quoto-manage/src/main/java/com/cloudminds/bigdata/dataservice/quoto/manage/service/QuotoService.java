@@ -11,7 +11,6 @@ import com.cloudminds.bigdata.dataservice.quoto.manage.entity.request.QuotoQuery
 import com.cloudminds.bigdata.dataservice.quoto.manage.entity.response.*;
 import com.cloudminds.bigdata.dataservice.quoto.manage.mapper.AdjectiveMapper;
 import com.cloudminds.bigdata.dataservice.quoto.manage.mapper.DimensionMapper;
-import com.cloudminds.bigdata.dataservice.quoto.manage.mapper.QuotoAccessHistoryMapper;
 import com.cloudminds.bigdata.dataservice.quoto.manage.mapper.QuotoMapper;
 import com.cloudminds.bigdata.dataservice.quoto.manage.utils.DateTimeUtils;
 import com.cloudminds.bigdata.dataservice.quoto.manage.utils.QuotoCaculateUtils;
@@ -36,13 +35,19 @@ import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalAdjuster;
 import java.time.temporal.TemporalAdjusters;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Service
 public class QuotoService {
     @Autowired
     private QuotoMapper quotoMapper;
     @Autowired
-    private QuotoAccessHistoryMapper quotoAccessHistoryMapper;
+    private QuotoAccessHistoryWriter quotoAccessHistoryWriter;
     @Value("${dataServiceUrl}")
     private String dataServiceUrl;
     @Autowired
@@ -50,7 +55,16 @@ public class QuotoService {
     @Autowired
     private AdjectiveMapper adjectiveMapper;
     @Autowired
+    private QuotoCatalog quotoCatalog;
+    @Autowired
     RestTemplate restTemplate;
+    @Autowired
+    private ExecutorService operandExecutor;
+    //复合指标等待单个操作数数据的最长时间(毫秒)
+    @Value("${operandFetchTimeout:60000}")
+    private long operandFetchTimeout;
+    //在operandExecutor线程内获取操作数时为true,嵌套的复合指标直接串行获取,避免线程池内互相等待
+    private static final ThreadLocal<Boolean> IN_OPERAND_FETCH = new ThreadLocal<>();
 
     @SuppressWarnings("deprecation")
     public CommonResponse checkUnique(CheckReq checkReq) {
@@ -670,6 +684,7 @@ public class QuotoService {
             commonResponse.setMessage("指标(" + quoto.getName() + ")删除失败,请稍后再试");
             commonResponse.setSuccess(false);
         }
+        quotoCatalog.invalidate();
         return commonResponse;
     }
 
@@ -873,6 +888,7 @@ public class QuotoService {
             commonResponse.setMessage("数据插入失败,请稍后再试");
             return commonResponse;
         }
+        quotoCatalog.invalidate();
         return commonResponse;
     }
 
@@ -1169,6 +1185,7 @@ public class QuotoService {
             commonResponse.setMessage("编辑指标失败，请稍后再试！");
             return commonResponse;
         }
+        quotoCatalog.invalidate();
         //插入历史记录
         if (commonResponse.isSuccess()) {
             quotoMapper.insertQuotoUpdateHistory(oldQuoto);
@@ -1346,6 +1363,7 @@ public class QuotoService {
             commonResponse.setMessage("激活失败,请稍后再试");
             return commonResponse;
         }
+        quotoCatalog.invalidate();
         return commonResponse;
     }
 
@@ -1371,14 +1389,14 @@ public class QuotoService {
         // 查询指标
         Quoto quoto = null;
         if (id != null && id > 0) {
-            quoto = quotoMapper.queryQuotoById(id);
+            quoto = quotoCatalog.queryQuotoById(id);
         }
         if (quoto == null && (!StringUtils.isEmpty(quotoName))) {
-            quoto = quotoMapper.queryQuotoByName(quotoName);
+            quoto = quotoCatalog.queryQuotoByName(quotoName);
         }
 
         if (quoto == null && (!StringUtils.isEmpty(fildName))) {
-            quoto = quotoMapper.queryQuotoByField(fildName);
+            quoto = quotoCatalog.queryQuotoByField(fildName);
         }
 
         if (page == null) {
@@ -1423,9 +1441,9 @@ public class QuotoService {
         quotoAccessHistory.setType(quoto.getType());
         quotoAccessHistory.setSuccess(commonResponse.isSuccess());
         quotoAccessHistory.setMessage(commonResponse.getMessage());
-        quotoAccessHistoryMapper.insertAccessHistory(quotoAccessHistory);
+        quotoAccessHistoryWriter.record(quotoAccessHistory);
         if (quoto.getType() == TypeEnum.derive_quoto.getCode()) {
-            Quoto atomicQuoto = quotoMapper.queryQuotoById(quoto.getOrigin_quoto());
+            Quoto atomicQuoto = quotoCatalog.queryQuotoById(quoto.getOrigin_quoto());
             String auoto_business_name = "";
             if (!StringUtils.isEmpty(atomicQuoto.getBusiness_name_one_level())) {
                 auoto_business_name = auoto_business_name + atomicQuoto.getBusiness_name_one_level();
@@ -1436,6 +1454,8 @@ public class QuotoService {
             if (!StringUtils.isEmpty(atomicQuoto.getBusiness_name_three_level())) {
                 auoto_business_name = auoto_business_name + "/" + atomicQuoto.getBusiness_name_three_level();
             }
+            // 上一条记录已放入写入队列,不能再修改
+            quotoAccessHistory = new QuotoAccessHistory();
             quotoAccessHistory.setQuoto_id(atomicQuoto.getId());
             quotoAccessHistory.setQuoto_name(atomicQuoto.getName());
             quotoAccessHistory.setBusiness(auoto_business_name);
@@ -1444,7 +1464,7 @@ public class QuotoService {
             quotoAccessHistory.setType(atomicQuoto.getType());
             quotoAccessHistory.setSuccess(commonResponse.isSuccess());
             quotoAccessHistory.setMessage(commonResponse.getMessage());
-            quotoAccessHistoryMapper.insertAccessHistory(quotoAccessHistory);
+            quotoAccessHistoryWriter.record(quotoAccessHistory);
         }
         return commonResponse;
     }
@@ -1458,10 +1478,13 @@ public class QuotoService {
             try {
                 DataCommonResponse dataCommonResponse = caculate(quoto.getExpression().replace(" ", "") + "#", page,
                         count, orders, acs, parm_value);
-                if (dataCommonResponse.isSuccess()) {
+                // 周期、维度有变化时才回写
+                if (dataCommonResponse.isSuccess() && (quoto.getCycle() != dataCommonResponse.getCycle()
+                        || !Arrays.equals(quoto.getDimension(), dataCommonResponse.getDimensionIds()))) {
                     quoto.setCycle(dataCommonResponse.getCycle());
                     quoto.setDimension(dataCommonResponse.getDimensionIds());
                     quotoMapper.updateQuoto(quoto);
+                    quotoCatalog.invalidate();
                 }
                 return dataCommonResponse;
             } catch (Exception e) {
@@ -1474,19 +1497,19 @@ public class QuotoService {
         // 非复合指标处理逻辑
         Quoto atomicQuoto = quoto;
         if (quoto.getType() == TypeEnum.derive_quoto.getCode()) {
-            atomicQuoto = quotoMapper.findQuotoById(quoto.getOrigin_quoto());
+            atomicQuoto = quotoCatalog.findQuotoById(quoto.getOrigin_quoto());
         }
         Set<String> fileds = new HashSet<>();
         fileds.add(atomicQuoto.getMetric());
         boolean quotoIsColumn = false;
-        QuotoInfo quotoInfo = quotoMapper.queryQuotoInfo(atomicQuoto.getMetric(), atomicQuoto.getTable_id());
+        QuotoInfo quotoInfo = quotoCatalog.queryQuotoInfo(atomicQuoto.getMetric(), atomicQuoto.getTable_id());
         if (quotoInfo != null && quotoInfo.is_column()) {
             quotoIsColumn = true;
         }
         commonResponse.setFields(fileds);
         commonResponse.setCycle(atomicQuoto.getCycle());
         // 查询数据服务对应的信息
-        ServicePathInfo servicePathInfo = quotoMapper.queryServicePathInfo(atomicQuoto.getTable_id());
+        ServicePathInfo servicePathInfo = quotoCatalog.queryServicePathInfo(atomicQuoto.getTable_id());
         if (servicePathInfo == null) {
             commonResponse.setSuccess(false);
             commonResponse.setMessage("指标对应的服务不可用,请联系管理员排查");
@@ -1498,7 +1521,7 @@ public class QuotoService {
             //判断是否启用的指标sql
             if (quoto.isUse_sql()) {
                 if (quoto.getDimension() != null && quoto.getDimension().length > 0) {
-                    List<DimensionExtend> dimensionName = quotoMapper.queryDimensionByQuotoId(quoto.getId());
+                    List<DimensionExtend> dimensionName = quotoCatalog.queryDimensionByQuotoId(quoto.getId());
                     Set<String> dimensionSet = new HashSet<>();
                     commonResponse.setDimensionIds(quoto.getDimension());
                     for (DimensionExtend dimension : dimensionName) {
@@ -1554,13 +1577,13 @@ public class QuotoService {
                 bodyRequest = "{'[]':{'" + servicePathInfo.getTableName() + "':{'@sql':'" + quoto.getSql() + "'";
 
             } else {
-                ColumnAlias columnAlias = dimensionMapper.queryTimeColumnById(atomicQuoto.getTable_id(), quoto.getTime_column_id());
+                ColumnAlias columnAlias = quotoCatalog.queryTimeColumnById(atomicQuoto.getTable_id(), quoto.getTime_column_id());
                 // 添加维度的请求参数
                 if (quoto.getDimension() != null && quoto.getDimension().length > 0) {
                     String group = "'@group':'";
                     bodyRequest = bodyRequest + ";";
                     // 查询维度的名称
-                    List<DimensionExtend> dimensionName = quotoMapper.queryDimensionByQuotoId(quoto.getId());
+                    List<DimensionExtend> dimensionName = quotoCatalog.queryDimensionByQuotoId(quoto.getId());
                     Set<String> dimensionSet = new HashSet<>();
                     commonResponse.setDimensionIds(quoto.getDimension());
                     int i = 0;
@@ -1596,7 +1619,7 @@ public class QuotoService {
                 // 添加修饰词的请求参数
                 if (quoto.getAdjective() != null && quoto.getAdjective().length > 0) {
                     // 查询修饰词信息
-                    List<AdjectiveExtend> adjectives = quotoMapper.queryAdjective(quoto.getId());
+                    List<AdjectiveExtend> adjectives = quotoCatalog.queryAdjective(quoto.getId());
                     for (int i = 0; i < adjectives.size(); i++) {
                         boolean isDate = false;
                         //若是时间修饰词,将时间字段填入进去
@@ -1973,71 +1996,135 @@ public class QuotoService {
         // 2.循环开始解析字符串，当字符串解析完，且符号栈为空时，则计算完成
         StringBuffer tempNum = new StringBuffer();// 用来临时存放数字字符串(当为多位数时)
         StringBuffer string = new StringBuffer().append(str);// 用来保存，提高效率
-
-        while (string.length() != 0) {
-            temp = string.substring(0, 1);
-            string.delete(0, 1);
-            // 判断temp，当temp为操作符时
-            if (QuotoCaculateUtils.isOperator(temp)) {
-                // 1.此时的tempNum内即为需要操作的数，取出数，压栈，并且清空tempNum
-                if (!"".equals(tempNum.toString())) {
-                    // 当表达式的第一个符号为括号
-                    String num = tempNum.toString();
-                    numStack.push(getCalculateValue(num, page, count, order, acs, parm_value));
-                    tempNum.delete(0, tempNum.length());
-                }
-                // 用当前取得的运算符与栈顶运算符比较优先级：若高于，则因为会先运算，放入栈顶；若等于，因为出现在后面，所以会后计算，所以栈顶元素出栈，取出操作数运算；
-                // 若小于，则同理，取出栈顶元素运算，将结果入操作数栈。
-                // 判断当前运算符与栈顶元素优先级，取出元素，进行计算(因为优先级可能小于栈顶元素，还小于第二个元素等等，需要用循环判断)
-                while (!QuotoCaculateUtils.compare(temp.charAt(0), priStack) && (!priStack.empty())) {
-                    DataCommonResponse a = numStack.pop();// 第二个运算数
-                    DataCommonResponse b = numStack.pop();// 第一个运算数
-                    char ope = priStack.pop();
-                    DataCommonResponse result = null;// 运算结果
-                    switch (ope) {
-                        // 如果是加号或者减号，则
-                        case '+':
-                            result = QuotoCaculateUtils.CalculateValue(b, a, "+");
-                            // 将操作结果放入操作数栈
-                            numStack.push(result);
-                            break;
-                        case '&':
-                            result = QuotoCaculateUtils.CalculateValue(b, a, "&");
-                            // 将操作结果放入操作数栈
-                            numStack.push(result);
-                            break;
-                        case '-':
-                            result = QuotoCaculateUtils.CalculateValue(b, a, "-");
-                            // 将操作结果放入操作数栈
-                            numStack.push(result);
-                            break;
-                        case '*':
-                            result = QuotoCaculateUtils.CalculateValue(b, a, "*");
-                            // 将操作结果放入操作数栈
-                            numStack.push(result);
-                            break;
-                        case '/':
-                            result = QuotoCaculateUtils.CalculateValue(b, a, "/");
-                            numStack.push(result);
-                            break;
+        // 先并发获取所有操作数的数据，按出现顺序取用
+        Queue<Future<DataCommonResponse>> operandQueue = fetchOperands(str, page, count, order, acs, parm_value);
+        try {
+            while (string.length() != 0) {
+                temp = string.substring(0, 1);
+                string.delete(0, 1);
+                // 判断temp，当temp为操作符时
+                if (QuotoCaculateUtils.isOperator(temp)) {
+                    // 1.此时的tempNum内即为需要操作的数，取出数，压栈，并且清空tempNum
+                    if (!"".equals(tempNum.toString())) {
+                        // 当表达式的第一个符号为括号
+                        String num = tempNum.toString();
+                        numStack.push(getOperand(operandQueue.poll(), num));
+                        tempNum.delete(0, tempNum.length());
                     }
+                    // 用当前取得的运算符与栈顶运算符比较优先级：若高于，则因为会先运算，放入栈顶；若等于，因为出现在后面，所以会后计算，所以栈顶元素出栈，取出操作数运算；
+                    // 若小于，则同理，取出栈顶元素运算，将结果入操作数栈。
+                    // 判断当前运算符与栈顶元素优先级，取出元素，进行计算(因为优先级可能小于栈顶元素，还小于第二个元素等等，需要用循环判断)
+                    while (!QuotoCaculateUtils.compare(temp.charAt(0), priStack) && (!priStack.empty())) {
+                        DataCommonResponse a = numStack.pop();// 第二个运算数
+                        DataCommonResponse b = numStack.pop();// 第一个运算数
+                        char ope = priStack.pop();
+                        DataCommonResponse result = null;// 运算结果
+                        switch (ope) {
+                            // 如果是加号或者减号，则
+                            case '+':
+                                result = QuotoCaculateUtils.CalculateValue(b, a, "+");
+                                // 将操作结果放入操作数栈
+                                numStack.push(result);
+                                break;
+                            case '&':
+                                result = QuotoCaculateUtils.CalculateValue(b, a, "&");
+                                // 将操作结果放入操作数栈
+                                numStack.push(result);
+                                break;
+                            case '-':
+                                result = QuotoCaculateUtils.CalculateValue(b, a, "-");
+                                // 将操作结果放入操作数栈
+                                numStack.push(result);
+                                break;
+                            case '*':
+                                result = QuotoCaculateUtils.CalculateValue(b, a, "*");
+                                // 将操作结果放入操作数栈
+                                numStack.push(result);
+                                break;
+                            case '/':
+                                result = QuotoCaculateUtils.CalculateValue(b, a, "/");
+                                numStack.push(result);
+                                break;
+                        }
 
-                }
-                // 判断当前运算符与栈顶元素优先级， 如果高，或者低于平，计算完后，将当前操作符号，放入操作符栈
-                if (temp.charAt(0) != '#') {
-                    priStack.push(new Character(temp.charAt(0)));
-                    if (temp.charAt(0) == ')') {// 当栈顶为'('，而当前元素为')'时，则是括号内以算完，去掉括号
-                        priStack.pop();
-                        priStack.pop();
                     }
-                }
-            } else
-                // 当为非操作符时（数字）
-                tempNum = tempNum.append(temp);// 将读到的这一位数接到以读出的数后(当不是个位数的时候)
+                    // 判断当前运算符与栈顶元素优先级， 如果高，或者低于平，计算完后，将当前操作符号，放入操作符栈
+                    if (temp.charAt(0) != '#') {
+                        priStack.push(new Character(temp.charAt(0)));
+                        if (temp.charAt(0) == ')') {// 当栈顶为'('，而当前元素为')'时，则是括号内以算完，去掉括号
+                            priStack.pop();
+                            priStack.pop();
+                        }
+                    }
+                } else
+                    // 当为非操作符时（数字）
+                    tempNum = tempNum.append(temp);// 将读到的这一位数接到以读出的数后(当不是个位数的时候)
+            }
+        } catch (RuntimeException e) {
+            // 计算失败，剩下的操作数不再需要
+            for (Future<DataCommonResponse> future : operandQueue) {
+                future.cancel(true);
+            }
+            throw e;
         }
         return numStack.pop();
     }
 
+    /**
+     * 按和caculate相同的规则拆出公式中的操作数，每个操作数提交到operandExecutor并发获取
+     *
+     * @param str 计算公式
+     * @return 按出现顺序排列的操作数数据
+     */
+    private Queue<Future<DataCommonResponse>> fetchOperands(String str, int page, int count, Set<String> order,
+                                                            Boolean acs, Map<String, Object> parm_value) {
+        Queue<Future<DataCommonResponse>> operandQueue = new LinkedList<>();
+        boolean async = IN_OPERAND_FETCH.get() == null;
+        StringBuilder operand = new StringBuilder();
+        for (int i = 0; i < str.length(); i++) {
+            String temp = str.substring(i, i + 1);
+            if (!QuotoCaculateUtils.isOperator(temp)) {
+                operand.append(temp);
+                continue;
+            }
+            if (operand.length() == 0) {
+                continue;
+            }
+            String fieldName = operand.toString();
+            operand.setLength(0);
+            if (!async || NumberUtils.isNumber(fieldName)) {
+                operandQueue.add(CompletableFuture.completedFuture(getCalculateValue(fieldName, page, count, order, acs, parm_value)));
+            } else {
+                operandQueue.add(CompletableFuture.supplyAsync(() -> {
+                    IN_OPERAND_FETCH.set(Boolean.TRUE);
+                    try {
+                        return getCalculateValue(fieldName, page, count, order, acs, parm_value);
+                    } finally {
+                        IN_OPERAND_FETCH.remove();
+                    }
+                }, operandExecutor));
+            }
+        }
+        return operandQueue;
+    }
+
+    private DataCommonResponse getOperand(Future<DataCommonResponse> future, String fieldName) {
+        try {
+            return future.get(operandFetchTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new UnsupportedOperationException("指标(" + fieldName + ")获取超时");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new UnsupportedOperationException("指标(" + fieldName + ")获取失败：" + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnsupportedOperationException("指标(" + fieldName + ")获取被中断");
+        }
+    }
+
     /**
      * @param fieldName 根据指标名称获取数据
      * @param page
@@ -0,0 +1,123 @@
+package com.cloudminds.bigdata.dataservice.quoto.manage.utils;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.alibaba.fastjson.JSONObject;
+
+/**
+ * 多行指标数据,按维度值建立哈希索引,用于复合指标的&和四则运算
+ * 行仍是数据服务返回的JSONObject(保留维度、指标以外的列),只在创建时转换一次,之后直接读写
+ */
+public class MetricFrame {
+	private final List<JSONObject> rows;
+	private final String[] dimensions;
+	// 维度值 -> 行号,同一维度值有多行时按原顺序排列
+	private final Map<List<String>, Deque<Integer>> index;
+	private final boolean[] polled;
+	private int remaining;
+
+	/**
+	 * @param rows       多行数据
+	 * @param dimensions 维度的名称,两边用同一个Set保证维度值顺序一致
+	 */
+	public MetricFrame(List<JSONObject> rows, Set<String> dimensions) {
+		this.rows = rows;
+		this.dimensions = dimensions.toArray(new String[dimensions.size()]);
+		this.index = new HashMap<>(rows.size() * 4 / 3 + 1);
+		for (int i = 0; i < rows.size(); i++) {
+			index.computeIfAbsent(key(rows.get(i)), k -> new ArrayDeque<>()).add(i);
+		}
+		this.polled = new boolean[rows.size()];
+		this.remaining = rows.size();
+	}
+
+	/**
+	 * 取出第一个维度值相同、还没被取出的行,和逐行比较维度值后remove的结果一致
+	 *
+	 * @param row 另一个指标的一行
+	 * @return 没有时返回null
+	 */
+	public JSONObject poll(JSONObject row) {
+		Deque<Integer> positions = index.get(key(row));
+		if (positions == null || positions.isEmpty()) {
+			return null;
+		}
+		int i = positions.poll();
+		polled[i] = true;
+		remaining--;
+		return rows.get(i);
+	}
+
+	/**
+	 * 还没被取出的行数
+	 */
+	public int remaining() {
+		return remaining;
+	}
+
+	/**
+	 * 还没被取出的行,按原顺序
+	 */
+	public List<JSONObject> remainingRows() {
+		List<JSONObject> list = new ArrayList<>(remaining);
+		for (int i = 0; i < rows.size(); i++) {
+			if (!polled[i]) {
+				list.add(rows.get(i));
+			}
+		}
+		return list;
+	}
+
+	private List<String> key(JSONObject row) {
+		String[] values = new String[dimensions.length];
+		for (int i = 0; i < dimensions.length; i++) {
+			values[i] = row.getString(dimensions[i]);
+		}
+		return Arrays.asList(values);
+	}
+
+	/**
+	 * 指标的值
+	 */
+	public static BigDecimal getValue(JSONObject row, String field) {
+		return row.getBigDecimal(field);
+	}
+
+	/**
+	 * DataCommonResponse里的单行数据,已经是JSONObject时不再序列化后重新解析
+	 */
+	public static JSONObject toRow(Object data) {
+		if (data instanceof JSONObject) {
+			return (JSONObject) data;
+		}
+		return JSONObject.parseObject(data.toString());
+	}
+
+	/**
+	 * DataCommonResponse里的多行数据,每行都已经是JSONObject时不再序列化后重新解析
+	 *
+	 * @return 新的list,可以增删
+	 */
+	public static List<JSONObject> toRows(Object data) {
+		if (data instanceof List) {
+			List<?> list = (List<?>) data;
+			List<JSONObject> rows = new ArrayList<>(list.size());
+			for (Object row : list) {
+				if (!(row instanceof JSONObject)) {
+					return JSONObject.parseArray(data.toString(), JSONObject.class);
+				}
+				rows.add((JSONObject) row);
+			}
+			return rows;
+		}
+		return JSONObject.parseArray(data.toString(), JSONObject.class);
+	}
+}
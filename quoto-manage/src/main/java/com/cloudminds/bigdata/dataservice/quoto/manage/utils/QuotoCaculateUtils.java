@@ -118,8 +118,8 @@ public class QuotoCaculateUtils {
 				return a;
 			} else {
 				if (b.getDimensions() == null && a.getDimensions() == null) {
-					JSONObject aObject = JSONObject.parseObject(a.getData().toString());
-					JSONObject bObject = JSONObject.parseObject(b.getData().toString());
+					JSONObject aObject = MetricFrame.toRow(a.getData());
+					JSONObject bObject = MetricFrame.toRow(b.getData());
 					if (a.getType() == 1 && b.getType() == 1) {
 						for (String field : b.getFields()) {
 							aObject.put(field, bObject.get(field));
@@ -132,9 +132,9 @@ public class QuotoCaculateUtils {
 					}
 				} else if (SetUtils.isEqualSet(b.getDimensions(), a.getDimensions())) {
 					if (a.getType() == 1) {
-						JSONObject aObject = JSONObject.parseObject(a.getData().toString());
+						JSONObject aObject = MetricFrame.toRow(a.getData());
 						if (b.getType() == 1) {
-							JSONObject bObject = JSONObject.parseObject(b.getData().toString());
+							JSONObject bObject = MetricFrame.toRow(b.getData());
 							if (dimensionValueEqual(aObject, bObject, a.getDimensions())) {
 								for (String field : b.getFields()) {
 									aObject.put(field, bObject.get(field));
@@ -150,23 +150,19 @@ public class QuotoCaculateUtils {
 						}
 					} else {
 						if (b.getType() == 2) {
-							List<JSONObject> alist = JSONObject.parseArray(a.getData().toString(), JSONObject.class);
-							List<JSONObject> bList = JSONObject.parseArray(b.getData().toString(), JSONObject.class);
-							for (int i = 0; i < alist.size(); i++) {
-								JSONObject aObject = alist.get(i);
-								for (int j = 0; j < bList.size(); j++) {
-									JSONObject bObject = bList.get(j);
-									if (dimensionValueEqual(aObject, bObject, a.getDimensions())) {
-										for (String field : b.getFields()) {
-											aObject.put(field, bObject.get(field));
-										}
-										alist.set(i, aObject);
-										bList.remove(j);
-										break;
-									}
-									if (j == bList.size() - 1) {
-										throw new UnsupportedOperationException("指标维度值不能一一对应时,是不能做&运算");
-									}
+							List<JSONObject> alist = MetricFrame.toRows(a.getData());
+							// 按维度值哈希匹配,每条b的数据只用一次
+							MetricFrame bFrame = new MetricFrame(MetricFrame.toRows(b.getData()), a.getDimensions());
+							for (JSONObject aObject : alist) {
+								if (bFrame.remaining() == 0) {
+									break;
+								}
+								JSONObject bObject = bFrame.poll(aObject);
+								if (bObject == null) {
+									throw new UnsupportedOperationException("指标维度值不能一一对应时,是不能做&运算");
+								}
+								for (String field : b.getFields()) {
+									aObject.put(field, bObject.get(field));
 								}
 							}
 							a.setData(alist);
@@ -206,14 +202,14 @@ public class QuotoCaculateUtils {
 					if (b.getType() == 3) {
 						b.setData(new BigDecimal(b.getData().toString()).multiply(new BigDecimal("-1")));
 					} else if (b.getType() == 2) {
-						List<JSONObject> list = JSONObject.parseArray(b.getData().toString(), JSONObject.class);
+						List<JSONObject> list = MetricFrame.toRows(b.getData());
 						for (int i = 0; i < list.size(); i++) {
 							BigDecimal value = list.get(i).getBigDecimal(b.getFields().iterator().next());
 							list.get(i).put(b.getFields().iterator().next(), value.multiply(new BigDecimal("-1")));
 						}
 						b.setData(list);
 					} else {
-						JSONObject object = JSONObject.parseObject(b.getData().toString());
+						JSONObject object = MetricFrame.toRow(b.getData());
 						object.put(b.getFields().iterator().next(), object.getBigDecimal(b.getFields().iterator().next()).multiply(new BigDecimal("-1")));
 						b.setData(object);
 					}
@@ -237,7 +233,7 @@ public class QuotoCaculateUtils {
 				b.setData(caluclate(aValue, new BigDecimal(b.getData().toString()), op, "除法里分母为0,请检查加工方式"));
 				return b;
 			} else if (b.getType() == 2) {
-				List<JSONObject> list = JSONObject.parseArray(b.getData().toString(), JSONObject.class);
+				List<JSONObject> list = MetricFrame.toRows(b.getData());
 				for (int i = 0; i < list.size(); i++) {
 					list.get(i).put(b.getFields().iterator().next(), caluclate(aValue, list.get(i).getBigDecimal(b.getFields().iterator().next()), op,
 							"除法里分母为0,具体分母数据：" + b.getFields() + "(" + list.get(i) + ")"));
@@ -245,7 +241,7 @@ public class QuotoCaculateUtils {
 				b.setData(list);
 				return b;
 			} else {
-				JSONObject object = JSONObject.parseObject(b.getData().toString());
+				JSONObject object = MetricFrame.toRow(b.getData());
 				object.put(b.getFields().iterator().next(), caluclate(aValue, object.getBigDecimal(b.getFields().iterator().next()), op,
 						"除法里分母为0,具体分母数据：" + b.getFields() + "(" + object + ")"));
 				b.setData(object);
@@ -255,7 +251,7 @@ public class QuotoCaculateUtils {
 		}
 		// 代表a查出来的数据是只有一个
 		if (a.getType() == 1) {
-			JSONObject aObject = JSONObject.parseObject(a.getData().toString());
+			JSONObject aObject = MetricFrame.toRow(a.getData());
 			BigDecimal aValue = aObject.getBigDecimal(a.getFields().iterator().next());
 			if (b.getType() == 0) {
 				if (op.equals("+") || op.equals("-")) {
@@ -278,7 +274,7 @@ public class QuotoCaculateUtils {
 						throw new UnsupportedOperationException("维度不同的指标,不能做四则运算");
 					} else {
 						// 维度相同的运算 1对1
-						JSONObject bObject = JSONObject.parseObject(b.getData().toString());
+						JSONObject bObject = MetricFrame.toRow(b.getData());
 						BigDecimal bValue = bObject.getBigDecimal(b.getFields().iterator().next());
 						if (dimensionValueEqual(aObject, bObject, a.getDimensions())) {
 							aObject.put(a.getFields().iterator().next(), caluclate(aValue, bValue, op,
@@ -306,7 +302,7 @@ public class QuotoCaculateUtils {
 
 				} else {
 					// 一个有维度，一个没有维度，或者都没维度 进行四则运算
-					JSONObject bObject = JSONObject.parseObject(b.getData().toString());
+					JSONObject bObject = MetricFrame.toRow(b.getData());
 					BigDecimal bValue = bObject.getBigDecimal(b.getFields().iterator().next());
 					aObject.put(a.getFields().iterator().next(),
 							caluclate(aValue, bValue, op, "除法里分母为0,具体分母数据：" + b.getFields() + "(" + b.getData() + ")"));
@@ -318,7 +314,7 @@ public class QuotoCaculateUtils {
 					return a;
 				}
 			} else { // b为多维的
-				List<JSONObject> list = JSONObject.parseArray(b.getData().toString(), JSONObject.class);
+				List<JSONObject> list = MetricFrame.toRows(b.getData());
 				if (a.getDimensions() == null || a.getDimensions().size() == 0) {
 					for (int i = 0; i < list.size(); i++) {
 						list.get(i).put(b.getFields().iterator().next(), caluclate(aValue, list.get(i).getBigDecimal(b.getFields().iterator().next()), op,
@@ -342,6 +338,7 @@ public class QuotoCaculateUtils {
 								for (int i = 0; i < list.size(); i++) {
 									list.get(i).put(b.getFields().iterator().next(), list.get(i).getBigDecimal(b.getFields().iterator().next()).negate());
 								}
+								b.setData(list);
 							}
 							return addN1(b, a);
 						}
@@ -352,7 +349,7 @@ public class QuotoCaculateUtils {
 
 		// 代表查出来的数据是多个
 		if (a.getType() == 2) {
-			List<JSONObject> list = JSONObject.parseArray(a.getData().toString(), JSONObject.class);
+			List<JSONObject> list = MetricFrame.toRows(a.getData());
 			if (b.getType() == 0) {
 				if (op.equals("+") || op.equals("-")) {
 					return a;
@@ -371,7 +368,7 @@ public class QuotoCaculateUtils {
 				return a;
 			} else if (b.getType() == 1) {
 				// b为1个
-				JSONObject bObject = JSONObject.parseObject(b.getData().toString());
+				JSONObject bObject = MetricFrame.toRow(b.getData());
 				BigDecimal bValue = bObject.getBigDecimal(b.getFields().iterator().next());
 				if (b.getDimensions() == null || b.getDimensions().size() == 0) {
 					for (int i = 0; i < list.size(); i++) {
@@ -394,7 +391,9 @@ public class QuotoCaculateUtils {
 							// 做+-操作 如果是-，将b变为相反数
 							if (op.equals("-")) {
 								bObject.put(b.getFields().iterator().next(), bValue.negate());
+								b.setData(bObject);
 							}
+							a.setData(list);
 							return addN1(a, b);
 						}
 					}
@@ -406,34 +405,35 @@ public class QuotoCaculateUtils {
 						|| !SetUtils.isEqualSet(a.getDimensions(), b.getDimensions())) {
 					throw new UnsupportedOperationException("两个多条的指标数据维度不同时是不能做四则运算的");
 				}
-				List<JSONObject> bList = JSONObject.parseArray(b.getData().toString(), JSONObject.class);
+				List<JSONObject> bRows = MetricFrame.toRows(b.getData());
 				if (op.equals("*") || op.equals("/")) {
-					if (list.size() != bList.size()) {
+					if (list.size() != bRows.size()) {
 						throw new UnsupportedOperationException("都包含多个数据的指标,数据量不相等是不能做*/运算");
 					}
 				}
-				for (int i = 0; i < list.size(); i++) {
-					JSONObject aObject = list.get(i);
-					for (int j = 0; j < bList.size(); j++) {
-						JSONObject bObject = bList.get(j);
-						if (dimensionValueEqual(aObject, bObject, a.getDimensions())) {
-							aObject.put(a.getFields().iterator().next(), caluclate(aObject.getBigDecimal(a.getFields().iterator().next()),
-									bObject.getBigDecimal(b.getFields().iterator().next()), op, "除法里分母为0,具体分母数据：" + bObject));
-							list.set(i, aObject);
-							bList.remove(j);
-							break;
-						}
-						if (j == bList.size() - 1) {
-							if (op.equals("*") || op.equals("/")) {
-								throw new UnsupportedOperationException("指标维度值不能一一对应时,是不能做*/运算");
-							}
+				// 按维度值哈希匹配,每条b的数据只用一次
+				String aField = a.getFields().iterator().next();
+				String bField = b.getFields().iterator().next();
+				MetricFrame bFrame = new MetricFrame(bRows, a.getDimensions());
+				for (JSONObject aObject : list) {
+					if (bFrame.remaining() == 0) {
+						break;
+					}
+					JSONObject bObject = bFrame.poll(aObject);
+					if (bObject == null) {
+						if (op.equals("*") || op.equals("/")) {
+							throw new UnsupportedOperationException("指标维度值不能一一对应时,是不能做*/运算");
 						}
+						continue;
 					}
+					aObject.put(aField, caluclate(MetricFrame.getValue(aObject, aField), MetricFrame.getValue(bObject, bField), op,
+							"除法里分母为0,具体分母数据：" + bObject));
 				}
 				if (op.equals("*") || op.equals("/")) {
 					a.setData(list);
 					return a;
 				} else {
+					List<JSONObject> bList = bFrame.remainingRows();
 					// 如果是符号-,减数变相反数
 					if (op.equals("-")) {
 						for (int i = 0; i < bList.size(); i++) {
@@ -479,13 +479,12 @@ public class QuotoCaculateUtils {
 	 * @return
 	 */
 	public static DataCommonResponse addN1(DataCommonResponse a, DataCommonResponse b) {
-		List<JSONObject> list = JSONObject.parseArray(a.getData().toString(), JSONObject.class);
-		JSONObject bObject = JSONObject.parseObject(b.getData().toString());
-		for (int i = 0; i < list.size(); i++) {
-			JSONObject aObject = list.get(i);
+		List<JSONObject> list = MetricFrame.toRows(a.getData());
+		JSONObject bObject = MetricFrame.toRow(b.getData());
+		String aField = a.getFields().iterator().next();
+		for (JSONObject aObject : list) {
 			if (dimensionValueEqual(aObject, bObject, a.getDimensions())) {
-				aObject.put(a.getFields().iterator().next(), aObject.getBigDecimal(a.getFields().iterator().next()).add(bObject.getBigDecimal(b.getFields().iterator().next())));
-				list.set(i, aObject);
+				aObject.put(aField, MetricFrame.getValue(aObject, aField).add(MetricFrame.getValue(bObject, b.getFields().iterator().next())));
 				a.setData(list);
 				return a;
 			}
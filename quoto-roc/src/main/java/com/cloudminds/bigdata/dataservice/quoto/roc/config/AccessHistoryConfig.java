@@ -0,0 +1,26 @@
+package com.cloudminds.bigdata.dataservice.quoto.roc.config;
+
+import apijson.framework.AccessHistoryWriter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class AccessHistoryConfig {
+    //队列容量,满了直接丢弃访问记录
+    @Value("${accessHistoryBufferSize:8192}")
+    private int accessHistoryBufferSize;
+    //每次批量写入的最大条数
+    @Value("${accessHistoryBatchSize:200}")
+    private int accessHistoryBatchSize;
+    //不满一批时最长等待时间(毫秒)
+    @Value("${accessHistoryFlushInterval:1000}")
+    private long accessHistoryFlushInterval;
+
+    @Bean(destroyMethod = "stop")
+    public AccessHistoryWriter accessHistoryWriter() {
+        AccessHistoryWriter accessHistoryWriter = new AccessHistoryWriter(accessHistoryBufferSize, accessHistoryBatchSize, accessHistoryFlushInterval);
+        accessHistoryWriter.start();
+        return accessHistoryWriter;
+    }
+}
@@ -3,6 +3,7 @@ package com.cloudminds.bigdata.dataservice.quoto.roc.config;
 import apijson.framework.APIJSONApplication;
 import apijson.framework.APIJSONCreator;
 import apijson.orm.SQLConfig;
+import apijson.orm.SQLConnectionPool;
 import com.cloudminds.bigdata.dataservice.quoto.roc.controller.RobotQuotoControl;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -16,6 +17,7 @@ import java.util.Map;
 @Component
 public class ConfigInit implements ApplicationRunner {
     public static Map<String, String> dbInfo=new HashMap<String, String>();
+    public static Map<String, String> dbPoolInfo=new HashMap<String, String>();
     @Autowired
     private RobotQuotoControl robotQuotoControl;
     @Value("${dbUrl}")
@@ -30,6 +32,10 @@ public class ConfigInit implements ApplicationRunner {
     private String configDbAccount;
     @Value("${configDbPassword}")
     private String configDbPassword;
+    @Value("${dbPoolMaxSize:20}")
+    private String dbPoolMaxSize;
+    @Value("${dbPoolMinIdle:2}")
+    private String dbPoolMinIdle;
     @Override
     public void run(ApplicationArguments args) throws Exception {
         dbInfo.put("dbUrl", dbUrl);
@@ -38,6 +44,9 @@ public class ConfigInit implements ApplicationRunner {
         dbInfo.put("configDbUrl", configDbUrl);
         dbInfo.put("configDbAccount", configDbAccount);
         dbInfo.put("configDbPassword", configDbPassword);
+        dbPoolInfo.put("dbPoolMaxSize", dbPoolMaxSize);
+        dbPoolInfo.put("dbPoolMinIdle", dbPoolMinIdle);
+        SQLConnectionPool.setDefaultSize(Integer.parseInt(dbPoolMaxSize), Integer.parseInt(dbPoolMinIdle));
         APIJSONApplication.DEFAULT_APIJSON_CREATOR = new APIJSONCreator() {
             @Override
             public SQLConfig createSQLConfig() {
@@ -0,0 +1,38 @@
+package com.cloudminds.bigdata.dataservice.quoto.roc.config;
+
+import apijson.cache.QueryResultCache;
+import com.cloudminds.bigdata.dataservice.quoto.roc.redis.RedisUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ResultCacheConfig {
+    @Value("${resultCacheNearSize:10000}")
+    private long resultCacheNearSize;
+    //按表配置过期时间,格式 servicePath.table_alias:seconds,多个用逗号分隔
+    @Value("${resultCacheTableTtl:}")
+    private String resultCacheTableTtl;
+
+    @Bean
+    public QueryResultCache queryResultCache(RedisUtil redisUtil) {
+        QueryResultCache queryResultCache = new QueryResultCache("roc", new QueryResultCache.RemoteStore() {
+            @Override
+            public Object get(String key) {
+                try {
+                    return redisUtil.get(key);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }
+
+            @Override
+            public boolean set(String key, Object value, long seconds) {
+                return redisUtil.set(key, value, seconds);
+            }
+        }, resultCacheNearSize);
+        queryResultCache.setTableTtl(resultCacheTableTtl);
+        return queryResultCache;
+    }
+}
@@ -1,30 +1,42 @@
 package com.cloudminds.bigdata.dataservice.quoto.roc.controller;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import apijson.JSON;
-import com.alibaba.fastjson.JSONArray;
-import com.cloudminds.bigdata.dataservice.quoto.roc.entitys.TokenInfo;
+import apijson.Log;
+import com.cloudminds.bigdata.dataservice.quoto.roc.service.AliasConfigService;
 import com.cloudminds.bigdata.dataservice.quoto.roc.service.ExtendFunctionService;
+import com.cloudminds.bigdata.dataservice.quoto.roc.service.TagBitmapService;
+import com.cloudminds.bigdata.dataservice.quoto.roc.service.TokenPermissionService;
 import com.google.common.base.Joiner;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.util.DigestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 import org.springframework.web.bind.annotation.*;
 
 import com.alibaba.fastjson.JSONObject;
 import com.cloudminds.bigdata.dataservice.quoto.roc.redis.RedisUtil;
 
+import apijson.QueryMetrics;
+import apijson.cache.QueryResultCache;
+import apijson.cache.TokenPermissionIndex;
 import apijson.entity.CommonResponse;
 import apijson.entity.ConfigLoadResponse;
 import apijson.framework.APIJSONController;
 import apijson.framework.APIJSONParser;
 import apijson.orm.AbstractSQLConfig;
+import apijson.orm.AbstractParser;
 import apijson.orm.Parser;
 
 @RestController
@@ -35,6 +47,14 @@ public class RobotQuotoControl extends APIJSONController {
     String serviceName = "roc";
     @Autowired
     private ExtendFunctionService extendFunctionService;
+    @Autowired
+    private QueryResultCache queryResultCache;
+    @Autowired
+    private AliasConfigService aliasConfigService;
+    @Autowired
+    private TokenPermissionService tokenPermissionService;
+    @Autowired
+    private TagBitmapService tagBitmapService;
 
     @Override
     public Parser<Long> newParser(HttpSession session, apijson.RequestMethod method) {
@@ -144,7 +164,6 @@ public class RobotQuotoControl extends APIJSONController {
         String count = "10";
         String table = "";
         boolean queryCount = false;
-        String subSql = "";
         //得到真实的表名和库名
         if (requestJson.containsKey("table_name")) {
             String tableName = requestJson.get("table_name").toString();
@@ -172,191 +191,79 @@ public class RobotQuotoControl extends APIJSONController {
         //是否请求count
         if (requestJson.containsKey("query") && requestJson.getObject("query", Integer.class) == 1) {
             queryCount = true;
-            subSql = "select count(*) as total from " + table + " where oid global in (select arrayJoin(";
-        } else if (requestJson.containsKey("column")) {
-            subSql = "select " + requestJson.getString("column") + " from " + table + " where oid global in (select arrayJoin(";
-        } else {
-            subSql = "select * from " + table + " where oid global in (select arrayJoin(";
-        }
-
-        String sql = "WITH";
-        //解析tag_str的sql
-        boolean tag_str = false;
-        String tag_str_sql = "SELECT oids FROM tag.dis_" + business + "_tag_string WHERE ";
-        if (requestJson.containsKey("tag_str")) {
-            List<JSONObject> tagJsons = JSONArray.parseArray(requestJson.get("tag_str").toString(), JSONObject.class);
-            for (JSONObject tagJson : tagJsons) {
-                if (tagJson.containsKey("column") && tagJson.containsKey("op") && tagJson.containsKey("value")) {
-                    if (tag_str) {
-                        tag_str_sql = tag_str_sql + " and ";
-                    }
-                    tag_str_sql = tag_str_sql + tagJson.getString("column") + " " + tagJson.getString("op") + " '" + tagJson.getString("value") + "'";
-                    tag_str = true;
-                } else {
-                    JSONObject response = new JSONObject();
-                    response.put("ok", false);
-                    response.put("code", 401);
-                    response.put("msg", "tag_str column,op,value必须成对出现!");
-                    return response.toString();
-                }
-            }
-        }
-        //解析tag_int的sql
-        boolean tag_int = false;
-        String tag_int_sql = "select oids from tag.dis_" + business + "_tag_int where ";
-        if (requestJson.containsKey("tag_int")) {
-            List<JSONObject> tagJsons = JSONArray.parseArray(requestJson.get("tag_int").toString(), JSONObject.class);
-            for (JSONObject tagJson : tagJsons) {
-                if (tagJson.containsKey("column") && tagJson.containsKey("op") && tagJson.containsKey("value")) {
-                    if (tag_int) {
-                        tag_int_sql = tag_int_sql + " and ";
-                    }
-                    tag_int_sql = tag_int_sql + tagJson.getString("column") + " " + tagJson.getString("op");
-                    if (tagJson.get("value") instanceof String) {
-                        tag_int_sql = tag_int_sql + " '" + tagJson.getString("value") + "'";
-                    } else {
-                        tag_int_sql = tag_int_sql + " " + tagJson.getString("value");
-                    }
-                    tag_int = true;
-                } else {
-                    JSONObject response = new JSONObject();
-                    response.put("ok", false);
-                    response.put("code", 401);
-                    response.put("msg", "tag_int column,op,value必须成对出现!");
-                    return response.toString();
-                }
-            }
-        }
-        //解析tag_long的sql
-        boolean tag_long = false;
-        String tag_long_sql = "select oids from tag.dis_" + business + "_tag_Long where ";
-        if (requestJson.containsKey("tag_long")) {
-            List<JSONObject> tagJsons = JSONArray.parseArray(requestJson.get("tag_long").toString(), JSONObject.class);
-            for (JSONObject tagJson : tagJsons) {
-                if (tagJson.containsKey("column") && tagJson.containsKey("op") && tagJson.containsKey("value")) {
-                    if (tag_long) {
-                        tag_long_sql = tag_long_sql + " and ";
-                    }
-                    tag_long_sql = tag_long_sql + tagJson.getString("column") + " " + tagJson.getString("op");
-                    if (tagJson.get("value") instanceof String) {
-                        tag_long_sql = tag_long_sql + " '" + tagJson.getString("value") + "'";
-                    } else {
-                        tag_long_sql = tag_long_sql + " " + tagJson.getString("value");
-                    }
-                    tag_long = true;
-                } else {
-                    JSONObject response = new JSONObject();
-                    response.put("ok", false);
-                    response.put("code", 401);
-                    response.put("msg", "tag_long column,op,value必须成对出现!");
-                    return response.toString();
-                }
-            }
-        }
-        //解析tag_date的sql
-        boolean tag_date = false;
-        String tag_date_sql = "select oids from tag.dis_" + business + "_tag_date where ";
-        if (requestJson.containsKey("tag_date")) {
-            List<JSONObject> tagJsons = JSONArray.parseArray(requestJson.get("tag_date").toString(), JSONObject.class);
-            for (JSONObject tagJson : tagJsons) {
-                if (tagJson.containsKey("column") && tagJson.containsKey("op") && tagJson.containsKey("value")) {
-                    if (tag_date) {
-                        tag_date_sql = tag_date_sql + " and ";
-                    }
-                    tag_date_sql = tag_date_sql + tagJson.getString("column") + " " + tagJson.getString("op") + " '" + tagJson.getString("value") + "'";
-                    tag_date = true;
-                } else {
-                    JSONObject response = new JSONObject();
-                    response.put("ok", false);
-                    response.put("code", 401);
-                    response.put("msg", "tag_date column,op,value必须成对出现!");
-                    return response.toString();
-                }
-            }
-        }
-
-        //组装整体sql
-        int i = 0;
-        if (tag_str) {
-            i++;
-            sql = sql + "(" + tag_str_sql + ") AS bitmap" + i;
-        }
-        if (tag_int) {
-            if (i > 0) {
-                sql = sql + ",";
-            }
-            i++;
-            sql = sql + "(" + tag_int_sql + ") AS bitmap" + i;
-        }
-        if (tag_long) {
-            if (i > 0) {
-                sql = sql + ",";
-            }
-            i++;
-            sql = sql + "(" + tag_long_sql + ") AS bitmap" + i;
-        }
-        if (tag_date) {
-            if (i > 0) {
-                sql = sql + ",";
-            }
-            i++;
-            sql = sql + "(" + tag_date_sql + ") AS bitmap" + i;
         }
-        if (i == 0) {
+        //解析筛选条件,相同的条件在数据没变时只查一次clickhouse
+        TagBitmapService.Plan plan;
+        try {
+            plan = tagBitmapService.plan(business, requestJson);
+        } catch (IllegalArgumentException e) {
             JSONObject response = new JSONObject();
             response.put("ok", false);
             response.put("code", 401);
-            response.put("msg", "筛选条件必须传入");
+            response.put("msg", e.getMessage());
             return response.toString();
-        } else if (i == 1) {
-            sql = sql + " " + subSql + "bitmapToArray(bitmap1)))";
-        } else if (i == 2) {
-            sql = sql + " " + subSql + "bitmapToArray(bitmapAnd(bitmap1, bitmap2))))";
-        } else if (i == 3) {
-            sql = sql + " " + subSql + "bitmapToArray(bitmapAnd(bitmapAnd(bitmap1, bitmap2),bitmap3))))";
-        } else if (i == 4) {
-            sql = sql + " " + subSql + "bitmapToArray(bitmapAnd(bitmapAnd(bitmapAnd(bitmap1, bitmap2),bitmap3),bitmap4))))";
         }
-        if (!queryCount) {
+        String tableName = requestJson.getString("table_name");
+        try {
+            String checkResult = checkToken(session, "tag", Collections.singletonList(tableName));
+            if (checkResult != null) {
+                return checkResult;
+            }
+            QueryMetrics.begin("tag", tableName);
+            Roaring64NavigableMap bitmap;
+            try {
+                bitmap = tagBitmapService.evaluate(plan);
+            } catch (Exception e) {
+                JSONObject response = new JSONObject();
+                response.put("ok", false);
+                response.put("code", 500);
+                response.put("msg", e.getMessage());
+                return response.toString();
+            }
+            //总数直接取bitmap的基数
+            if (queryCount) {
+                JSONObject makeResult = new JSONObject();
+                makeResult.put("ok", true);
+                makeResult.put("code", 200);
+                makeResult.put("msg", "success");
+                makeResult.put("total", bitmap.getLongCardinality());
+                accessHistory(session.getHeader("token"), "tag", tableName, "bitmap " + plan.getKey(), makeResult.toString(), session.getSession());
+                return makeResult.toString();
+            }
             if (requestJson.containsKey("count") && Integer.parseInt(requestJson.getString("count")) > 0) {
                 count = requestJson.getString("count");
             }
             if (requestJson.containsKey("page")) {
                 page = requestJson.getString("page");
             }
-            sql = sql + " order by oid LIMIT " + count;
-            if (Integer.parseInt(page) > 0) {
-                sql = sql + " offset " + Integer.parseInt(count) * Integer.parseInt(page);
-            }
-        }
-        request = "{\"@schema\":\"tag\",\"[]\":{\"" + requestJson.getString("table_name") + "\": {\"@sql\":\"" + sql + "\"},\"page\":" + page + ",\"count\":" + count + "}}";
-        String result = getData(request, session, "tag");
-        JSONObject jsonResult = JSON.parseObject(result);
-        if (jsonResult.getString("msg").contains("DB::Exception: Scalar subquery returned empty result of type")) {
-            JSONObject makeResult = new JSONObject();
-            makeResult.put("ok", true);
-            makeResult.put("code", 200);
-            makeResult.put("msg", "success");
-            if (queryCount) {
-                makeResult.put("total", 0);
+            //按排名取这一页的oid,再查这些oid的数据
+            List<Long> oids = TagBitmapService.page(bitmap, Math.max(0L, (long) Integer.parseInt(count) * Integer.parseInt(page)), Integer.parseInt(count));
+            if (oids.isEmpty()) {
+                JSONObject makeResult = new JSONObject();
+                makeResult.put("ok", true);
+                makeResult.put("code", 200);
+                makeResult.put("msg", "success");
+                return makeResult.toString();
             }
-            return makeResult.toString();
+            String column = requestJson.containsKey("column") ? requestJson.getString("column") : "*";
+            String sql = "select " + column + " from " + table + " where oid in (" + Joiner.on(",").join(oids) + ") order by oid LIMIT " + count;
+            //sql里已经只有这一页的oid,page固定为0,不受数据服务page最大100的限制
+            request = "{\"@schema\":\"tag\",\"[]\":{\"" + tableName + "\": {\"@sql\":\"" + sql + "\"},\"page\":0,\"count\":" + count + "}}";
+            return getData(request, session, "tag");
+        } finally {
+            QueryMetrics.end();
         }
-        if (queryCount) {
+    }
 
-            if (jsonResult.containsKey("ok") && jsonResult.getObject("ok", Boolean.class)) {
-                Object total = JSONArray.parseArray(jsonResult.get("[]").toString(), JSONObject.class).get(0).getJSONObject(requestJson.getString("table_name")).get("total");
-                jsonResult.remove("[]");
-                jsonResult.put("total", total);
-                return jsonResult.toString();
-            } else {
-                return result;
-            }
-        } else {
-            return result;
+    public String getData(String request, HttpServletRequest httpServletRequest, String servicePath) {
+        try {
+            return query(request, httpServletRequest, servicePath);
+        } finally {
+            QueryMetrics.end();
         }
     }
-    public String getData(String request, HttpServletRequest httpServletRequest, String servicePath) {
+
+    private String query(String request, HttpServletRequest httpServletRequest, String servicePath) {
         JSONObject response = new JSONObject();
         response.put("ok", false);
         response.put("code", 401);
@@ -372,138 +279,122 @@ public class RobotQuotoControl extends APIJSONController {
             response.put("msg", "验证用户权限时解析表名出错,请检查请求参数是否合法!");
             return response.toString();
         }
+        String tables = Joiner.on(",").join(tableNameList);
 
+        String checkResult = checkToken(httpServletRequest, servicePath, tableNameList);
+        if (checkResult != null) {
+            return checkResult;
+        }
+        //权限校验通过后才打标签,标签值不直接取未校验的请求内容
+        QueryMetrics.begin(servicePath, QueryMetrics.table(tableNameList));
         HttpSession session = httpServletRequest.getSession();
         String token = httpServletRequest.getHeader("token");
-        //第一步取token
-        if (token == null) {
-            response.put("msg", "token不能为空!");
-            return response.toString();
-        }
-        //第二步验证token值对应的权限
-        TokenInfo tokenInfo = extendFunctionService.getTokenMap();
-        if (tokenInfo.getToken() != null) {
-            Map<String, String> token_map = JSONObject.parseObject(JSONObject.toJSONString(tokenInfo.getToken()),
-                    Map.class);
-            if (token_map != null) {
-                String tokenAccess = token_map.get(token);
-                if (tokenAccess == null) {
-                    response.put("msg", "用户没有此表的访问权限,请联系管理员!");
-                    return response.toString();
-                }
-                if (!tokenAccess.equals("ALL")) {
-                    String[] tokenAccessList = tokenAccess.toString().split(",");
-                    for (String tableName : tableNameList) {
-                        boolean hasAccess = false;
-                        for (String tokenAccessValue : tokenAccessList) {
-                            if (tokenAccessValue.equals(servicePath + "." + tableName)) {
-                                hasAccess = true;
-                                break;
-                            }
-                        }
-                        if (!hasAccess) {
-                            response.put("msg", "用户没有" + tableName + "表的访问权限,请联系管理员!");
-                            return response.toString();
-                        }
-                    }
+        boolean redis = tokenPermissionService.isRedis();
 
-                }
-            } else {
-                response.put("msg", "权限配置信息加载有问题,请联系大数据团队!");
-                return response.toString();
-            }
-        } else {
-            response.put("msg", "权限配置信息加载有问题,请联系大数据团队!");
-            return response.toString();
+        // redis中的配置版本号变化时才重新加载表别名、列别名配置
+        if (redis) {
+            long startTime = QueryMetrics.start();
+            aliasConfigService.sync();
+            QueryMetrics.record(QueryMetrics.CONFIG_LOAD, startTime);
         }
 
-        // 从redis获取配置信息
-        if (tokenInfo.isRedis()) {
-            try {
-                Object TABLE_KEY_MAP = redisUtil.get(serviceName + "_table_key_map");
-                Object TABLE_COLUMN_MAP = redisUtil.get(serviceName + "_table_column_map");
-                if (TABLE_KEY_MAP != null) {
-                    @SuppressWarnings("unchecked")
-                    Map<String, String> table_key_map = JSONObject.parseObject(JSONObject.toJSONString(TABLE_KEY_MAP),
-                            Map.class);
-                    if (table_key_map != null) {
-                        AbstractSQLConfig.TABLE_KEY_MAP.clear();
-                        AbstractSQLConfig.TABLE_KEY_MAP = table_key_map;
-                    }
-                }
-                if (TABLE_COLUMN_MAP != null) {
-                    @SuppressWarnings("unchecked")
-                    Map<String, Map<String, String>> table_column_map = JSONObject
-                            .parseObject(JSONObject.toJSONString(TABLE_COLUMN_MAP), Map.class);
-                    if (table_column_map != null) {
-                        AbstractSQLConfig.tableColumnMap.clear();
-                        AbstractSQLConfig.tableColumnMap = table_column_map;
-                    }
-                }
-
-            } catch (Exception e) {
-                // TODO: handle exception
-                e.printStackTrace();
-            }
+        // 流式输出,逐行写入响应,不缓存、不在内存中拼接整个结果集,适合大结果集
+        if ("true".equals(httpServletRequest.getHeader("stream")) && request != null && !request.equals("")) {
+            return streamData(request, session, token, servicePath, tableNameList);
         }
 
-        // 从redis获取查询数据
+        // 从缓存获取查询数据,近缓存未命中时查redis,相同请求并发时只查一次库
         if (request == null || request.equals("")) {
             return get(request, session);
         }
         String item = DigestUtils.md5DigestAsHex(request.getBytes(StandardCharsets.UTF_8));
-        Object value = null;
-        boolean redisExce = false;
-        if (tokenInfo.isRedis()) {
-            try {
-                value = redisUtil.hget(serviceName, item);
-            } catch (Exception e) {
-                // TODO: handle exception
-                e.printStackTrace();
-                redisExce = true;
-            }
+        long ttl = queryResultCache.getTtl(servicePath, tableNameList, 10);
+        QueryResultCache.Result result = queryResultCache.getResult(item, ttl, redis, () -> getResult(request, session),
+                value -> value.contains("\"code\":200,\"msg\":\"success\""));
+        accessHistory(token, servicePath, tables, result.getExecutedSQL(), result.getValue(), session);
+        return result.getValue();
+    }
+
+    /**
+     * 校验token对这些表的访问权限,索引在内存中,不访问redis
+     *
+     * @return 没有权限时返回的响应,有权限时返回null
+     */
+    private String checkToken(HttpServletRequest httpServletRequest, String servicePath, List<String> tableNameList) {
+        JSONObject response = new JSONObject();
+        response.put("ok", false);
+        response.put("code", 401);
+        String token = httpServletRequest.getHeader("token");
+        //第一步取token
+        if (token == null) {
+            response.put("msg", "token不能为空!");
+            return response.toString();
         }
-        if (value != null) {
-            String valueS = value.toString();
-            if (!valueS.equals("")) {
-                accessHistory(token, servicePath, Joiner.on(",").join(tableNameList), valueS, session);
-                JSONObject jsonResult = JSON.parseObject(valueS);
-                jsonResult.remove("execute_sql");
-                return jsonResult.toString();
+        //第二步验证token值对应的权限,没有权限返回时也计时
+        long startTime = QueryMetrics.start();
+        try {
+            TokenPermissionIndex tokenPermissionIndex = tokenPermissionService.getIndex();
+            if (!tokenPermissionIndex.isLoaded()) {
+                response.put("msg", "权限配置信息加载有问题,请联系大数据团队!");
+                return response.toString();
             }
-
+            if (!tokenPermissionIndex.hasToken(token)) {
+                response.put("msg", "用户没有此表的访问权限,请联系管理员!");
+                return response.toString();
+            }
+            String deniedTable = tokenPermissionIndex.getDeniedTable(token, servicePath, tableNameList);
+            if (deniedTable != null) {
+                response.put("msg", "用户没有" + deniedTable + "表的访问权限,请联系管理员!");
+                return response.toString();
+            }
+            return null;
+        } finally {
+            QueryMetrics.record(QueryMetrics.TOKEN_CHECK, startTime);
         }
-        String result = get(request, session);
-        accessHistory(token, servicePath, Joiner.on(",").join(tableNameList), result, session);
-        if (redisExce) {
-            JSONObject jsonResult = JSON.parseObject(result);
-            jsonResult.remove("execute_sql");
-            return jsonResult.toString();
+    }
+
+    private String streamData(String request, HttpSession session, String token, String servicePath, List<String> tableNameList) {
+        HttpServletResponse httpServletResponse = ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes()).getResponse();
+        if (httpServletResponse == null) {
+            return get(request, session);
         }
-        if (tokenInfo.isRedis()) {
-            if (result.contains("\"code\":200,\"msg\":\"success\"")) {
-                if (!redisUtil.hset(serviceName, item, result, 10)) {
-                    System.err.println(
-                            "\n\n\n redis数据存储失败,存储的value:" + result + "<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n");
-                }
-            }
+        AbstractParser<Long> parser = (AbstractParser<Long>) newParser(session, apijson.RequestMethod.GET);
+        JSONObject response;
+        try {
+            httpServletResponse.setContentType("application/json;charset=UTF-8");
+            Writer out = httpServletResponse.getWriter();
+            response = stream(parser, request, out);
+            out.flush();
+        } catch (IOException e) {
+            Log.e("RobotQuotoControl", "streamData  写入响应失败: " + e.getMessage());
+            return null;
         }
-        JSONObject jsonResult = JSON.parseObject(result);
-        jsonResult.remove("execute_sql");
-        return jsonResult.toString();
+        accessHistory(token, servicePath, Joiner.on(",").join(tableNameList), parser.getExecutedSQL(), response.toJSONString(), session);
+        // 响应已经写完
+        return null;
     }
 
     @GetMapping(value = "refreshConfig")
     public CommonResponse refush() {
         APIJSONParser abstractParser = new APIJSONParser();
-        ConfigLoadResponse configLoadResponse = abstractParser.loadAliasConfig();
+        return publishConfig(abstractParser.loadAliasConfig());
+    }
+
+    //按表增量刷新,changeType: update/delete;本地配置落后于redis时全量刷新
+    @GetMapping(value = "refreshTable")
+    public CommonResponse refreshTable(@RequestParam("tableId") int tableId, @RequestParam(value = "changeType", defaultValue = "update") String changeType) {
+        APIJSONParser abstractParser = new APIJSONParser();
+        if (!aliasConfigService.isLatest()) {
+            return publishConfig(abstractParser.loadAliasConfig());
+        }
+        return publishConfig(abstractParser.loadTableAliasConfig(tableId, "delete".equals(changeType)));
+    }
+
+    private CommonResponse publishConfig(ConfigLoadResponse configLoadResponse) {
         if (configLoadResponse.isSuccess()) {
-            if (configLoadResponse.getTABLE_KEY_MAP() != null) {
-                redisUtil.set(serviceName + "_table_key_map", configLoadResponse.getTABLE_KEY_MAP());
-            }
-            if (configLoadResponse.getTableColumnMap() != null) {
-                redisUtil.set(serviceName + "_table_column_map", configLoadResponse.getTableColumnMap());
-            }
+            aliasConfigService.publish(configLoadResponse);
+            // 配置变了，旧的查询结果不再可信
+            queryResultCache.invalidateAll();
         }
         CommonResponse commonResponse = new CommonResponse();
         commonResponse.setData(configLoadResponse.getData());
@@ -512,8 +403,10 @@ public class RobotQuotoControl extends APIJSONController {
         return commonResponse;
     }
 
-    public void accessHistory(String token, String service_path, String table_alias, String response, HttpSession session) {
-        extendFunctionService.saveAccessHistory(token, service_path, table_alias, response, session);
+    public void accessHistory(String token, String service_path, String table_alias, String executeSql, String response, HttpSession session) {
+        long startTime = QueryMetrics.start();
+        extendFunctionService.saveAccessHistory(token, service_path, table_alias, executeSql, response, session);
+        QueryMetrics.record(QueryMetrics.ACCESS_HISTORY, startTime);
         //Thread t = new Thread(new SaveAccessHistory(token,service_path,table_alias,response,session));
         //t.start();
     }
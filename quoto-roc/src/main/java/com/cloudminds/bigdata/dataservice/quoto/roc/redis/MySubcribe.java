@@ -0,0 +1,31 @@
+package com.cloudminds.bigdata.dataservice.quoto.roc.redis;
+
+import com.cloudminds.bigdata.dataservice.quoto.roc.service.TokenPermissionService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+
+@Slf4j
+public class MySubcribe implements MessageListener {
+
+    private TokenPermissionService tokenPermissionService;
+
+    public MySubcribe(TokenPermissionService tokenPermissionService) {
+        this.tokenPermissionService = tokenPermissionService;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (message == null) {
+            log.info("接收消息内容为空,不处理");
+            return;
+        }
+        String messageInfo = message.toString().replaceAll("\"", "");
+        if (messageInfo.equals("reflushToken")) {
+            log.info("接收消息reflushToken");
+            tokenPermissionService.refresh();
+        } else {
+            log.info("接收不用处理的消息：" + messageInfo);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.cloudminds.bigdata.dataservice.quoto.roc.redis;
+
+import com.cloudminds.bigdata.dataservice.quoto.roc.service.TokenPermissionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.adapter.MessageListenerAdapter;
+import org.springframework.stereotype.Component;
+
+@Component
+public class RedisMessageListener {
+    public static final String CHANNEL = "roc";
+    @Autowired
+    private TokenPermissionService tokenPermissionService;
+    /**
+     * 绑定消息监听者和接收监听的方法,必须要注入这个监听器，不然会报错
+     */
+    @Bean
+    MessageListenerAdapter messageListener() {
+        return new MessageListenerAdapter(new MySubcribe(tokenPermissionService));
+    }
+
+    @Bean
+    RedisMessageListenerContainer redisContainer(RedisConnectionFactory factory) {
+        final RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        container.addMessageListener(messageListener(), new ChannelTopic(CHANNEL));
+        return container;
+    }
+}
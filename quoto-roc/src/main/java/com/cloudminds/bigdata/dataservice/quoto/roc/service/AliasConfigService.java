@@ -0,0 +1,97 @@
+package com.cloudminds.bigdata.dataservice.quoto.roc.service;
+
+import apijson.cache.AliasConfigSnapshot;
+import apijson.cache.QueryResultCache;
+import apijson.entity.ConfigLoadResponse;
+import com.alibaba.fastjson.JSONObject;
+import com.cloudminds.bigdata.dataservice.quoto.roc.redis.RedisUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+
+/**
+ * 表别名、列别名配置在多实例间同步
+ * 刷新配置的实例把配置写入redis并把版本号加1,其它实例发现版本号变化后才重新加载
+ */
+@Service
+public class AliasConfigService implements AliasConfigSnapshot.Source {
+    @Autowired
+    private RedisUtil redisUtil;
+    @Autowired
+    private QueryResultCache queryResultCache;
+    String serviceName = "roc";
+    //检查redis版本号的间隔(毫秒)
+    @Value("${aliasConfigCheckInterval:1000}")
+    private long aliasConfigCheckInterval;
+
+    public void sync() {
+        if (AliasConfigSnapshot.sync(this, aliasConfigCheckInterval)) {
+            // 其它实例刷新了配置，本地近缓存里的查询结果不再可信
+            queryResultCache.invalidateAll();
+        }
+    }
+
+    /**
+     * 立即和redis同步,本地快照是最新发布的版本时返回true
+     * 按表增量刷新是在本地快照上修改后整体发布,快照落后时会覆盖其它实例已经发布的修改,这时要全量加载
+     */
+    public boolean isLatest() {
+        if (AliasConfigSnapshot.syncNow(this)) {
+            queryResultCache.invalidateAll();
+        }
+        Long version = getVersion();
+        return version != null && version == AliasConfigSnapshot.getCurrent().getVersion();
+    }
+
+    public void publish(ConfigLoadResponse configLoadResponse) {
+        if (configLoadResponse.getTABLE_KEY_MAP() == null || configLoadResponse.getTableColumnMap() == null) {
+            return;
+        }
+        redisUtil.set(serviceName + "_table_key_map", configLoadResponse.getTABLE_KEY_MAP());
+        redisUtil.set(serviceName + "_table_column_map", configLoadResponse.getTableColumnMap());
+        try {
+            long version = redisUtil.incr(serviceName + "_alias_config_version", 1);
+            // 本地刚加载的快照带有表索引，保留下来用于按表增量刷新
+            AliasConfigSnapshot.apply(version, configLoadResponse.getTABLE_KEY_MAP(), configLoadResponse.getTableColumnMap(), AliasConfigSnapshot.getCurrent().getTableIndex());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public Long getVersion() {
+        try {
+            Object version = redisUtil.get(serviceName + "_alias_config_version");
+            return version == null ? null : Long.valueOf(version.toString());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, String> getTableKeyMap() {
+        try {
+            Object tableKeyMap = redisUtil.get(serviceName + "_table_key_map");
+            return tableKeyMap == null ? null : JSONObject.parseObject(JSONObject.toJSONString(tableKeyMap), Map.class);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Map<String, String>> getTableColumnMap() {
+        try {
+            Object tableColumnMap = redisUtil.get(serviceName + "_table_column_map");
+            return tableColumnMap == null ? null : JSONObject.parseObject(JSONObject.toJSONString(tableColumnMap), Map.class);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -2,7 +2,9 @@ package com.cloudminds.bigdata.dataservice.quoto.roc.service;
 
 import apijson.JSON;
 import apijson.Log;
+import apijson.entity.AccessHistory;
 import apijson.framework.APIJSONController;
+import apijson.framework.AccessHistoryWriter;
 import apijson.orm.Parser;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
@@ -11,7 +13,6 @@ import com.cloudminds.bigdata.dataservice.quoto.roc.redis.RedisUtil;
 import com.netflix.hystrix.contrib.javanica.annotation.HystrixCommand;
 import com.netflix.hystrix.contrib.javanica.annotation.HystrixProperty;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import javax.servlet.http.HttpSession;
@@ -21,6 +22,8 @@ import java.util.Map;
 
 @Service
 public class ExtendFunctionService extends APIJSONController {
+    @Autowired
+    private AccessHistoryWriter accessHistoryWriter;
     @Autowired
     private RedisUtil redisUtil;
     String serviceName = "roc";
@@ -30,18 +33,28 @@ public class ExtendFunctionService extends APIJSONController {
         return super.newParser(session, method).setNeedVerify(false); // TODO 这里关闭校验，方便新手快速测试，实际线上项目建议开启
     }
 
-    @Async("taskExecutor")
-    public void saveAccessHistory(String token, String service_path, String table_alias, String response, HttpSession session) {
-        //解析response
-        JSONObject responseJson = JSON.parseObject(response);
-        if (responseJson == null) {
+    /**
+     * 只把访问记录放入队列,由AccessHistoryWriter批量写入,不占用请求线程和taskExecutor
+     *
+     * @param executeSql 执行的sql,不在response中,命中结果缓存时是缓存时执行的sql
+     * @param response   成功时不解析
+     */
+    public void saveAccessHistory(String token, String service_path, String table_alias, String executeSql, String response, HttpSession session) {
+        if (response == null) {
             return;
         }
-        String executeSql = responseJson.getString("execute_sql").replaceAll("\"", "");
-        //Log.i("SaveAccessHistory", "token:" + token + " service_path:" + service_path + " table_alias:" + table_alias + " execute_sql:" + executeSql + " success:" + responseJson.getString("ok") + " msg:" + responseJson.getString("msg"));
-        String requestPost = "{\"@database\":\"DATASERVICE\",\"@schema\":\"bigdata_dataservice\",\"dataservice_access_history\": {\"token\":\"" + token + "\",\"service_path\":\"" + service_path +
-                "\",\"table_alias\":\"" + table_alias + "\",\"execute_sql\":\"" + executeSql + "\",\"success\":" + responseJson.getString("ok") + ",\"msg\":\"" + responseJson.getString("msg") + "\"}}";
-        post(requestPost, session);
+        boolean ok = true;
+        String msg = "success";
+        //只有失败时才解析response,失败的response很小
+        if (!response.contains("\"code\":200,\"msg\":\"success\"")) {
+            JSONObject responseJson = JSON.parseObject(response);
+            if (responseJson == null) {
+                return;
+            }
+            ok = responseJson.getBooleanValue("ok");
+            msg = responseJson.getString("msg");
+        }
+        accessHistoryWriter.offer(new AccessHistory(token, service_path, table_alias, executeSql == null ? "" : executeSql, ok, msg));
     }
 
     @HystrixCommand(fallbackMethod = "getTokenMapTimeout",commandProperties =
@@ -0,0 +1,301 @@
+package com.cloudminds.bigdata.dataservice.quoto.roc.service;
+
+import apijson.Log;
+import apijson.framework.APIJSONApplication;
+import apijson.orm.SQLConfig;
+import apijson.orm.SQLConnectionPool;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 标签圈人的bitmap查询
+ * 每组标签条件(tag_str、tag_int、tag_long、tag_date)规范化后只去clickhouse查一次oids,
+ * 在本地缓存为RoaringBitmap,key包含业务的数据版本;条件之间的and/or/not在本地计算,组合结果也缓存,
+ * 总数取组合结果的基数,分页按排名取oid,不再每页都在clickhouse里重新计算bitmap
+ * 数据版本取集群所有副本system.parts里标签表的最后修改时间和行数,每隔tagBitmapVersionCheckInterval检查一次,
+ * 兜底按tagBitmapTtl过期;缓存的bitmap只读
+ */
+@Service
+public class TagBitmapService {
+    private static final String TAG = "TagBitmapService";
+    // 请求里的条件组 -> 标签表的后缀
+    private static final String[][] TAG_TYPES = {{"tag_str", "string"}, {"tag_int", "int"}, {"tag_long", "Long"}, {"tag_date", "date"}};
+
+    //本地缓存bitmap的最大字节数
+    @Value("${tagBitmapCacheBytes:536870912}")
+    private long tagBitmapCacheBytes;
+    //缓存的最长时间(毫秒)
+    @Value("${tagBitmapTtl:3600000}")
+    private long tagBitmapTtl;
+    //检查数据版本的间隔(毫秒)
+    @Value("${tagBitmapVersionCheckInterval:60000}")
+    private long tagBitmapVersionCheckInterval;
+    //标签表所在的clickhouse集群
+    @Value("${tagBitmapCluster:cm_ck_cluster}")
+    private String tagBitmapCluster;
+
+    private Cache<String, Roaring64NavigableMap> bitmapCache;
+    // business -> 数据版本
+    private final Map<String, DataVersion> versionMap = new ConcurrentHashMap<>();
+
+    private static class DataVersion {
+        private final String version;
+        private final long checkTime = System.currentTimeMillis();
+
+        private DataVersion(String version) {
+            this.version = version;
+        }
+    }
+
+    /**
+     * 一组条件对应标签表里的一个bitmap
+     */
+    private static class Term {
+        private final String key;
+        private final String sql;
+
+        private Term(String key, String sql) {
+            this.key = key;
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * 规范化后的查询计划,key相同的计划结果相同
+     */
+    public static class Plan {
+        private final String business;
+        private final boolean or;
+        private final List<Term> include;
+        private final List<Term> exclude;
+        private final String key;
+
+        private Plan(String business, boolean or, List<Term> include, List<Term> exclude) {
+            this.business = business;
+            this.or = or;
+            this.include = include;
+            this.exclude = exclude;
+            StringBuilder key = new StringBuilder(or ? "or(" : "and(");
+            for (Term term : include) {
+                key.append(term.key).append(';');
+            }
+            key.append(")not(");
+            for (Term term : exclude) {
+                key.append(term.key).append(';');
+            }
+            this.key = key.append(')').toString();
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        bitmapCache = Caffeine.newBuilder()
+                .maximumWeight(tagBitmapCacheBytes)
+                .weigher((String key, Roaring64NavigableMap bitmap) -> (int) Math.min(Integer.MAX_VALUE, bitmap.getLongSizeInBytes()))
+                .expireAfterWrite(tagBitmapTtl, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 解析请求里的条件
+     * tag_str、tag_int、tag_long、tag_date每组内的条件是and关系,组之间默认and,op为or时取并集;
+     * exclude里按同样的格式传入要排除的条件组
+     *
+     * @throws IllegalArgumentException 条件不合法,message为返回给用户的提示
+     */
+    public Plan plan(String business, JSONObject requestJson) {
+        List<Term> include = parseTerms(business, requestJson);
+        if (include.isEmpty()) {
+            throw new IllegalArgumentException("筛选条件必须传入");
+        }
+        List<Term> exclude = new ArrayList<>();
+        if (requestJson.containsKey("exclude")) {
+            exclude = parseTerms(business, requestJson.getJSONObject("exclude"));
+        }
+        boolean or = requestJson.containsKey("op") && "or".equalsIgnoreCase(requestJson.getString("op"));
+        // and、or和顺序无关,排序后相同的条件共用缓存
+        Comparator<Term> byKey = Comparator.comparing(term -> term.key);
+        include.sort(byKey);
+        exclude.sort(byKey);
+        return new Plan(business, or, include, exclude);
+    }
+
+    private static List<Term> parseTerms(String business, JSONObject requestJson) {
+        List<Term> terms = new ArrayList<>();
+        for (String[] tagType : TAG_TYPES) {
+            if (!requestJson.containsKey(tagType[0])) {
+                continue;
+            }
+            List<JSONObject> tagJsons = JSONArray.parseArray(requestJson.get(tagType[0]).toString(), JSONObject.class);
+            List<String> conditions = new ArrayList<>();
+            for (JSONObject tagJson : tagJsons) {
+                if (!(tagJson.containsKey("column") && tagJson.containsKey("op") && tagJson.containsKey("value"))) {
+                    throw new IllegalArgumentException(tagType[0] + " column,op,value必须成对出现!");
+                }
+                String condition = tagJson.getString("column").trim() + " " + tagJson.getString("op").trim().toLowerCase();
+                // 字符串和日期类型的值总是加引号,数值类型的值按传入的类型
+                if (tagType[0].equals("tag_str") || tagType[0].equals("tag_date") || tagJson.get("value") instanceof String) {
+                    condition = condition + " '" + tagJson.getString("value").replace("\\", "\\\\").replace("'", "\\'") + "'";
+                } else {
+                    condition = condition + " " + tagJson.getString("value");
+                }
+                conditions.add(condition);
+            }
+            if (conditions.isEmpty()) {
+                continue;
+            }
+            Collections.sort(conditions);
+            String where = String.join(" and ", conditions);
+            String table = "tag.dis_" + business + "_tag_" + tagType[1];
+            terms.add(new Term(tagType[1] + ":" + where,
+                    "select arrayJoin(bitmapToArray(oids)) as oid from " + table + " where " + where));
+        }
+        return terms;
+    }
+
+    /**
+     * 计算查询计划的结果,相同计划和各组条件在数据版本不变时只查一次clickhouse
+     *
+     * @return 只读,不能修改
+     */
+    public Roaring64NavigableMap evaluate(Plan plan) throws SQLException {
+        String version = getVersion(plan.business);
+        String planKey = plan.business + "|" + version + "|" + plan.key;
+        Roaring64NavigableMap result = bitmapCache.getIfPresent(planKey);
+        if (result != null) {
+            return result;
+        }
+        result = new Roaring64NavigableMap();
+        for (int i = 0; i < plan.include.size(); i++) {
+            Roaring64NavigableMap bitmap = getBitmap(plan.business, version, plan.include.get(i));
+            if (i == 0 || plan.or) {
+                result.or(bitmap);
+            } else {
+                result.and(bitmap);
+            }
+        }
+        for (Term term : plan.exclude) {
+            result.andNot(getBitmap(plan.business, version, term));
+        }
+        result.runOptimize();
+        // 提前算好各段的累计基数,之后按排名取值时不再修改内部状态,可以多线程共用
+        result.getLongCardinality();
+        bitmapCache.put(planKey, result);
+        return result;
+    }
+
+    /**
+     * 按排名取一页oid,排名从0开始,和order by oid的顺序一致
+     */
+    public static List<Long> page(Roaring64NavigableMap bitmap, long offset, int count) {
+        long end = Math.min(bitmap.getLongCardinality(), offset + count);
+        List<Long> oids = new ArrayList<>((int) Math.max(0, end - offset));
+        for (long rank = offset; rank < end; rank++) {
+            oids.add(bitmap.select(rank));
+        }
+        return oids;
+    }
+
+    private Roaring64NavigableMap getBitmap(String business, String version, Term term) throws SQLException {
+        try {
+            return bitmapCache.get(business + "|" + version + "|" + term.key, key -> {
+                try {
+                    return loadBitmap(term.sql);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private Roaring64NavigableMap loadBitmap(String sql) throws SQLException {
+        long startTime = System.currentTimeMillis();
+        Roaring64NavigableMap bitmap = new Roaring64NavigableMap();
+        // 条件匹配多行时取并集,没有匹配时为空
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                bitmap.addLong(resultSet.getLong(1));
+            }
+        }
+        bitmap.runOptimize();
+        bitmap.getLongCardinality();
+        Log.i(TAG, "loadBitmap  sql = " + sql + "; cardinality = " + bitmap.getLongCardinality()
+                + "; bytes = " + bitmap.getLongSizeInBytes() + "; duration = " + (System.currentTimeMillis() - startTime));
+        return bitmap;
+    }
+
+    /**
+     * 业务标签表的数据版本,查询失败时沿用旧版本,只靠过期时间刷新
+     * dis_表是分布式表,数据在各分片的本地表里,要查集群所有副本的system.parts,任何一个分片重新计算标签都会改变版本
+     */
+    private String getVersion(String business) {
+        DataVersion dataVersion = versionMap.get(business);
+        long now = System.currentTimeMillis();
+        if (dataVersion != null && now - dataVersion.checkTime < tagBitmapVersionCheckInterval) {
+            return dataVersion.version;
+        }
+        String version = dataVersion == null ? "" : dataVersion.version;
+        String sql = "select toString(max(modification_time)), toString(sum(rows)) from clusterAllReplicas('" + tagBitmapCluster + "', system.parts)"
+                + " where database = 'tag' and active and startsWith(table, ?)";
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, business + "_tag_");
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    version = resultSet.getString(1) + "," + resultSet.getString(2);
+                }
+            }
+        } catch (SQLException e) {
+            Log.e(TAG, "getVersion  business = " + business + "; " + e.getMessage());
+        }
+        DataVersion newVersion = new DataVersion(version);
+        if (dataVersion == null) {
+            versionMap.putIfAbsent(business, newVersion);
+        } else {
+            versionMap.replace(business, dataVersion, newVersion);
+        }
+        return newVersion.version;
+    }
+
+    private static Connection getConnection() throws SQLException {
+        SQLConfig config = APIJSONApplication.DEFAULT_APIJSON_CREATOR.createSQLConfig();
+        return SQLConnectionPool.getConnection(config.getSQLDatabase(), config.getDBUri(), config.getDBAccount(), config.getDBPassword());
+    }
+
+    /**
+     * 清空缓存,标签数据重新计算后调用
+     */
+    public void invalidateAll() {
+        bitmapCache.invalidateAll();
+        versionMap.clear();
+    }
+
+    public long getCacheSize() {
+        return bitmapCache.estimatedSize();
+    }
+}
@@ -0,0 +1,65 @@
+package com.cloudminds.bigdata.dataservice.quoto.roc.service;
+
+import apijson.Log;
+import apijson.cache.TokenPermissionIndex;
+import com.alibaba.fastjson.JSONObject;
+import com.cloudminds.bigdata.dataservice.quoto.roc.entitys.TokenInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * token权限索引,收到reflushToken消息时重新加载,兜底按tokenRefreshInterval定时重新加载
+ * 校验权限时不访问redis
+ */
+@Service
+public class TokenPermissionService {
+    @Autowired
+    private ExtendFunctionService extendFunctionService;
+    //兜底重新加载的间隔(毫秒),防止漏掉消息
+    @Value("${tokenRefreshInterval:60000}")
+    private long tokenRefreshInterval;
+    private volatile TokenPermissionIndex index = TokenPermissionIndex.EMPTY;
+    private volatile boolean redis = true;
+    private final AtomicLong lastLoadTime = new AtomicLong();
+
+    public TokenPermissionIndex getIndex() {
+        if (!index.isLoaded()) {
+            refresh();
+        } else {
+            long now = System.currentTimeMillis();
+            long last = lastLoadTime.get();
+            // 只有一个线程去重新加载,其它线程继续用旧索引
+            if (now - last >= tokenRefreshInterval && lastLoadTime.compareAndSet(last, now)) {
+                refresh();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 最近一次加载时redis是否可用
+     */
+    public boolean isRedis() {
+        return redis;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized void refresh() {
+        TokenInfo tokenInfo = extendFunctionService.getTokenMap();
+        redis = tokenInfo.isRedis();
+        lastLoadTime.set(System.currentTimeMillis());
+        if (tokenInfo.getToken() == null) {
+            Log.e("TokenPermissionService", "refresh  token权限加载失败, 继续使用旧的权限");
+            return;
+        }
+        Map<String, String> tokenMap = JSONObject.parseObject(JSONObject.toJSONString(tokenInfo.getToken()), Map.class);
+        if (tokenMap != null) {
+            index = TokenPermissionIndex.compile(tokenMap, index);
+            Log.i("TokenPermissionService", "refresh  token.size() = " + index.size() + "; redis = " + redis);
+        }
+    }
+}
@@ -3,11 +3,11 @@ package com.cloudminds.bigdata.dataservice.quoto.search.config;
 import org.apache.commons.collections.CollectionUtils;
 
 import javax.servlet.http.HttpServletResponse;
-import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.*;
 import java.net.URLEncoder;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 public class CsvExportUtil {
     /**
@@ -68,14 +68,123 @@ public class CsvExportUtil {
      */
     public static void responseSetProperties(String fileName, HttpServletResponse response) throws UnsupportedEncodingException {
        // 设置文件后缀
-        String fn = fileName + ".csv";
+        responseSetProperties(fileName + ".csv", "application/force-download", response);
+    }
+
+    /**
+     * 设置Header
+     *
+     * @param fn          带后缀的文件名
+     * @param contentType 响应的类型
+     * @param response
+     * @throws UnsupportedEncodingException
+     */
+    public static void responseSetProperties(String fn, String contentType, HttpServletResponse response) throws UnsupportedEncodingException {
       // 读取字符编码
         String utf = "UTF-8";
         // 设置响应
-        response.setContentType("application/force-download");
+        response.setContentType(contentType);
         response.setCharacterEncoding(utf);
         response.setHeader("Pragma", "public");
         response.setHeader("Cache-Control", "max-age=30");
         response.setHeader("Content-Disposition", "attachment; filename=" + URLEncoder.encode(fn, utf));
     }
+
+    /**
+     * 边查边写的csv输出,不设置Content-Length,由容器按chunked方式分段返回,
+     * 只缓存writer缓冲区里的数据,内存占用和导出的行数无关
+     */
+    public static class CsvStreamWriter implements Closeable {
+        private final Writer writer;
+        private final String[] keys;
+        private long rows;
+
+        /**
+         * @param fileName 文件名,不含后缀
+         * @param titles   表头,同时作为表内容的键值
+         * @param gzip     为true时下载gzip压缩后的.csv.gz文件
+         */
+        public CsvStreamWriter(String fileName, String titles, boolean gzip, HttpServletResponse response) throws IOException {
+            this.keys = titles.split(CSV_COLUMN_SEPARATOR);
+            if (gzip) {
+                responseSetProperties(fileName + ".csv.gz", "application/gzip", response);
+            } else {
+                responseSetProperties(fileName, response);
+            }
+            OutputStream os = response.getOutputStream();
+            if (gzip) {
+                os = new GZIPOutputStream(os, 64 * 1024);
+            }
+            this.writer = new BufferedWriter(new OutputStreamWriter(os, "GBK"), 64 * 1024);
+            writeLine(titles);
+        }
+
+        /**
+         * 按表头的顺序写一行
+         */
+        public void write(Map<String, Object> data) throws IOException {
+            for (int i = 0; i < keys.length; i++) {
+                if (i != 0) {
+                    writer.write(CSV_COLUMN_SEPARATOR);
+                }
+                writeValue(data.get(keys[i]));
+            }
+            writer.write(CSV_ROW_SEPARATOR);
+            rows++;
+        }
+
+        /**
+         * 写一行,values和表头的顺序一致
+         */
+        public void write(Object[] values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i != 0) {
+                    writer.write(CSV_COLUMN_SEPARATOR);
+                }
+                writeValue(values[i]);
+            }
+            writer.write(CSV_ROW_SEPARATOR);
+            rows++;
+        }
+
+        /**
+         * 原样写一行,不计入行数
+         */
+        public void writeLine(String line) throws IOException {
+            writer.write(line);
+            writer.write(CSV_ROW_SEPARATOR);
+        }
+
+        // 值里有分隔符、引号或换行时加引号,避免错列
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            String str = value.toString();
+            if (str.contains(CSV_COLUMN_SEPARATOR) || str.indexOf('"') >= 0 || str.indexOf('\n') >= 0 || str.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(str.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(str);
+            }
+        }
+
+        /**
+         * 把已写的数据发给客户端
+         */
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        //已写的数据行数
+        public long getRows() {
+            return rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
 }
@@ -10,11 +10,22 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 @Data
 @ConfigurationProperties(prefix = "hbase")
 @Configuration
 public class HbaseConfig {
     private String quorum;
+    //批量查询时并发查询的线程数
+    private int fetchThreads = 8;
+    //批量查询时每次multi-get的最大rowkey数
+    private int fetchChunkSize = 500;
+    //数据列所在的列族
+    private String dataFamily = "f1";
     //获取数据库连接
     @Bean
     public Connection hbaseConnect(){
@@ -29,4 +40,18 @@ public class HbaseConfig {
         return connection;
     }
 
+    //批量查询hbase的线程池,排满后由调用线程自己执行
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService hbaseFetchExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(fetchThreads, fetchThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(fetchThreads * 16), r -> {
+            Thread thread = new Thread(r, "hbase-fetch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
 }
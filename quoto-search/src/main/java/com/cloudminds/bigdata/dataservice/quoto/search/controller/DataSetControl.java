@@ -106,10 +106,10 @@ public class DataSetControl {
         return CommonResponse;
     }
 
-    //数据下载
+    //数据下载,gzip为true时下载压缩文件
     @RequestMapping(value = "/downloadData", method = RequestMethod.GET)
-    public CommonResponse downloadData(int id) {
-        return dataSetService.downloadData(id);
+    public CommonResponse downloadData(int id, boolean gzip) {
+        return dataSetService.downloadData(id, gzip);
     }
 
 
@@ -22,4 +22,16 @@ public interface SearchMapper {
 
     @Select("select filter from bigdata_label.tag_item_complex where name=#{name} and tag_object_id=#{tag_object_id} and deleted=0")
     public String findTagItemComplexByName(String name,int tag_object_id);
+
+    @Select("select * from bigdata_label.tag_object where deleted=0")
+    @Results(value = {
+            @Result(column = "columns", property = "columns", typeHandler = JsonListTypeHandler.class)})
+    public List<TagObject> queryAllTagObject();
+
+    @Select("select name,tag_object_id,filter from bigdata_label.tag_item_complex where deleted=0")
+    public List<Map<String, Object>> queryAllTagItemComplexFilter();
+
+    //标签对象、组合标签的数量和组合标签最后的修改时间,有变化时重新加载
+    @Select("select concat((select count(*) from bigdata_label.tag_object where deleted=0),',',(select count(*) from bigdata_label.tag_item_complex where deleted=0),',',ifnull((select max(update_time) from bigdata_label.tag_item_complex),''))")
+    public String queryTagSchemaVersion();
 }
@@ -8,7 +8,6 @@ import com.cloudminds.bigdata.dataservice.quoto.search.entity.*;
 import com.cloudminds.bigdata.dataservice.quoto.search.entity.dataset.*;
 import com.cloudminds.bigdata.dataservice.quoto.search.mapper.DataSetMapper;
 import com.cloudminds.bigdata.dataservice.quoto.search.mapper.DataSetTaskMapper;
-import com.cloudminds.bigdata.dataservice.quoto.search.mapper.SearchMapper;
 import com.opencsv.CSVReader;
 import com.opencsv.CSVReaderBuilder;
 import org.apache.commons.lang.StringUtils;
@@ -26,8 +25,8 @@ import org.springframework.web.multipart.MultipartFile;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.sql.*;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -42,7 +41,7 @@ public class DataSetService {
     @Autowired
     private ESQueryService eSQueryService;
     @Autowired
-    private SearchMapper searchMapper;
+    private TagSchemaCatalog tagSchemaCatalog;
     @Autowired
     private SaveCsvDataService saveCsvData;
     @Value("${dataServiceUrl}")
@@ -61,6 +60,12 @@ public class DataSetService {
     private String hiveUser;
     @Value("${hivePassword}")
     private String hivePassword;
+    //下载数据集时最多导出的行数
+    @Value("${downloadMaxRows:5000000}")
+    private long downloadMaxRows;
+    //下载数据集时每页查询的行数
+    @Value("${downloadPageSize:5000}")
+    private int downloadPageSize;
     @Autowired
     RestTemplate restTemplate;
     @Autowired
@@ -764,7 +769,7 @@ public class DataSetService {
                 JSONObject finalJsonObject = subJsonArray.getJSONObject(j);
                 //处理组合标签
                 if (finalJsonObject.containsKey("item_complex_name")) {
-                    String complexFilter = searchMapper.findTagItemComplexByName(finalJsonObject.getString("item_complex_name"), data_source_id);
+                    String complexFilter = tagSchemaCatalog.findTagItemComplexByName(finalJsonObject.getString("item_complex_name"), data_source_id);
                     if (StringUtils.isEmpty(complexFilter)) {
                         commonResponse.setSuccess(false);
                         commonResponse.setMessage("组合标签不存在：" + finalJsonObject.getString("item_complex_name"));
@@ -1041,7 +1046,7 @@ public class DataSetService {
         CommonResponse commonResponse = new CommonResponse();
         DataInfoQueryReq dataInfoQueryReq = JSONObject.toJavaObject(
                 JSONObject.parseObject(dataSet.getData_rule()), DataInfoQueryReq.class);
-        TagObject tagObject = searchMapper.queryTagObjectByCode(dataSet.getData_source_name());
+        TagObject tagObject = tagSchemaCatalog.queryTagObjectByCode(dataSet.getData_source_name());
         if (tagObject == null) {
             commonResponse.setSuccess(false);
             commonResponse.setMessage(dataSet.getData_source_name() + ":标签对象不存在");
@@ -1213,7 +1218,13 @@ public class DataSetService {
         }
     }
 
-    public CommonResponse downloadData(int id) {
+    /**
+     * 下载数据集的全部数据,分页(clickhouse和按规则查询的数据集用游标,标签数据集用search_after加hbase批量查询)边查边写到响应里,
+     * 最多下载downloadMaxRows行,超过时在文件末尾注明;开始写文件前出错返回错误信息,写文件过程中出错在文件末尾注明
+     *
+     * @param gzip 为true时下载gzip压缩的文件
+     */
+    public CommonResponse downloadData(int id, boolean gzip) {
         CommonResponse commonResponse = new CommonResponse();
         DataSet dataSet = dataSetMapper.findDataSetByById(id);
         if (dataSet == null) {
@@ -1223,7 +1234,6 @@ public class DataSetService {
         }
         List<Column> columns = dataSet.getData_columns();
         String title = "";
-        Map<String, String> columnAttribute = new HashMap<>();
         if (columns != null && columns.size() > 0) {
             for (int i = 0; i < columns.size(); i++) {
                 Map<String, String> column = (Map<String, String>) columns.get(i);
@@ -1233,34 +1243,180 @@ public class DataSetService {
                 }
             }
         }
-        QueryDataReq queryDataReq = new QueryDataReq();
-        queryDataReq.setQuery(2);
-        queryDataReq.setPage(0);
-        String name = dataSet.getName();
-        CommonResponse commonResponseData = null;
+        if (StringUtils.isEmpty(title)) {
+            commonResponse.setSuccess(false);
+            commonResponse.setMessage("数据集没有列信息");
+            return commonResponse;
+        }
         if (dataSet.getData_type() == 1 || dataSet.getData_type() == 3) {
-            queryDataReq.setCount(50000);
-            commonResponseData = queryDataService(queryDataReq, dataSet);
+            if (dataSet.getData_connect_type() == 1) {
+                return downloadRuleData(dataSet, title, gzip);
+            }
+            String sql = "select " + title + " from " + ckDataSetDB + ".dis_" + dataSet.getMapping_ck_table();
+            return downloadJdbcData(dataSet, title, gzip, ckUrl, ckUser, ckPassword, sql);
         } else {
-            queryDataReq.setCount(10000);
-            commonResponseData = querySearchService(queryDataReq, dataSet);
+            return downloadSearchData(dataSet, title, gzip);
+        }
+    }
+
+    /**
+     * 按规则查询的数据集直接连规则所在的数据库,用游标读取规则sql的结果,不再经过数据服务分页
+     * (数据服务的page最大100,且没有排序的limit offset分页在分布式表上会重复或遗漏)
+     */
+    private CommonResponse downloadRuleData(DataSet dataSet, String title, boolean gzip) {
+        CommonResponse commonResponse = new CommonResponse();
+        DbInfo dbInfo = dataSetMapper.queryDbInfo(dataSet.getData_source_id());
+        if (dbInfo == null || StringUtils.isEmpty(dbInfo.getDb_url()) || StringUtils.isEmpty(dbInfo.getUserName())) {
+            commonResponse.setSuccess(false);
+            commonResponse.setMessage("数据集的数据源没有配置数据库的连接信息,请联系管理员");
+            return commonResponse;
         }
-        if (!commonResponseData.isSuccess()) {
-            return commonResponseData;
+        String sql = "select " + title + " from (" + dataSet.getData_rule().replaceAll("\n", " ") + ") source";
+        return downloadJdbcData(dataSet, title, gzip, dbInfo.getDb_url(), dbInfo.getUserName(), dbInfo.getPassword(), sql);
+    }
+
+    /**
+     * 用游标读取sql的结果,一行一行写出
+     *
+     * @param sql 查询数据集全部列的sql,不带limit
+     */
+    private CommonResponse downloadJdbcData(DataSet dataSet, String title, boolean gzip, String url, String user, String password, String sql) {
+        sql = sql + " limit " + (downloadMaxRows + 1);
+        int columnCount = title.split(",").length;
+        CsvExportUtil.CsvStreamWriter writer = null;
+        try (Connection conn = DriverManager.getConnection(url, user, password);
+             PreparedStatement pStemt = conn.prepareStatement(sql)) {
+            pStemt.setFetchSize(downloadPageSize);
+            try (ResultSet set = pStemt.executeQuery()) {
+                writer = new CsvExportUtil.CsvStreamWriter(dataSet.getName(), title, gzip, response);
+                Object[] values = new Object[columnCount];
+                while (set.next()) {
+                    if (writer.getRows() >= downloadMaxRows) {
+                        writer.writeLine("数据超过" + downloadMaxRows + "行,剩余数据未导出");
+                        break;
+                    }
+                    for (int i = 0; i < columnCount; i++) {
+                        values[i] = set.getString(i + 1);
+                    }
+                    writer.write(values);
+                    if (writer.getRows() % downloadPageSize == 0) {
+                        writer.flush();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return downloadFailed(writer, e.getMessage());
+        } finally {
+            closeQuietly(writer);
         }
-        List<Map<String, Object>> list = (List<Map<String, Object>>) commonResponseData.getData();
+        return null;
+    }
+
+    /**
+     * 标签数据集按rowkey排序用search_after翻页,每页的rowkey批量查hbase后写出
+     */
+    private CommonResponse downloadSearchData(DataSet dataSet, String title, boolean gzip) {
+        QueryDataReq queryDataReq = new QueryDataReq();
+        queryDataReq.setQuery(2);
+        queryDataReq.setPage(0);
+        queryDataReq.setCount(downloadPageSize);
+        queryDataReq.setScroll_search(true);
+        CsvExportUtil.CsvStreamWriter writer = null;
         try {
-            OutputStream os = response.getOutputStream();
-            CsvExportUtil.responseSetProperties(name, response);
-            CsvExportUtil.doExport(list, title, title, os);
+            while (true) {
+                CommonResponse commonResponseData = querySearchService(queryDataReq, dataSet);
+                if (!commonResponseData.isSuccess()) {
+                    if (writer == null) {
+                        return commonResponseData;
+                    }
+                    return downloadFailed(writer, commonResponseData.getMessage());
+                }
+                if (writer == null) {
+                    writer = new CsvExportUtil.CsvStreamWriter(dataSet.getName(), title, gzip, response);
+                }
+                List<Map<String, Object>> list = toRows(commonResponseData.getData());
+                if (!writeRows(writer, list) || list.size() < downloadPageSize) {
+                    break;
+                }
+                // 透传es请求的数据集返回的不是rowkey,不能继续翻页
+                Object scrollId = commonResponseData instanceof CommonScrollResponse ? ((CommonScrollResponse) commonResponseData).getScroll_id() : null;
+                if (!(scrollId instanceof String)) {
+                    break;
+                }
+                queryDataReq.setScroll_id((String) scrollId);
+            }
         } catch (Exception e) {
+            e.printStackTrace();
+            return downloadFailed(writer, e.getMessage());
+        } finally {
+            closeQuietly(writer);
+        }
+        return null;
+    }
+
+    /**
+     * 写一页数据并发给客户端
+     *
+     * @return 达到下载上限时返回false
+     */
+    private boolean writeRows(CsvExportUtil.CsvStreamWriter writer, List<Map<String, Object>> list) throws IOException {
+        for (Map<String, Object> data : list) {
+            if (writer.getRows() >= downloadMaxRows) {
+                writer.writeLine("数据超过" + downloadMaxRows + "行,剩余数据未导出");
+                writer.flush();
+                return false;
+            }
+            writer.write(data);
+        }
+        writer.flush();
+        return true;
+    }
+
+    // 只有一行时数据服务返回的是对象而不是数组
+    private static List<Map<String, Object>> toRows(Object data) {
+        List<Map<String, Object>> list = new ArrayList<>();
+        if (data instanceof List) {
+            for (Object item : (List<?>) data) {
+                if (item instanceof Map) {
+                    list.add((Map<String, Object>) item);
+                }
+            }
+        } else if (data instanceof Map) {
+            list.add((Map<String, Object>) data);
+        }
+        return list;
+    }
+
+    /**
+     * 还没开始写文件时返回错误信息,已经开始写时响应头已发出,只能在文件末尾注明
+     */
+    private CommonResponse downloadFailed(CsvExportUtil.CsvStreamWriter writer, String message) {
+        if (writer == null) {
+            CommonResponse commonResponse = new CommonResponse();
             commonResponse.setSuccess(false);
-            commonResponse.setMessage(e.getMessage());
+            commonResponse.setMessage(message);
             return commonResponse;
         }
+        try {
+            writer.writeLine("数据导出中断,已导出" + writer.getRows() + "行:" + message);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         return null;
     }
 
+    private static void closeQuietly(CsvExportUtil.CsvStreamWriter writer) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public CommonResponse queryDataSetApiDoc(int id) {
         CommonResponse commonResponse = new CommonResponse();
         ApiDoc datasetApiDoc = new ApiDoc();
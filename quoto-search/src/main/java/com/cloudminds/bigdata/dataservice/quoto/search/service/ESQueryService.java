@@ -3,7 +3,6 @@ package com.cloudminds.bigdata.dataservice.quoto.search.service;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.cloudminds.bigdata.dataservice.quoto.search.entity.*;
-import com.cloudminds.bigdata.dataservice.quoto.search.mapper.SearchMapper;
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.TableName;
@@ -36,10 +35,12 @@ public class ESQueryService {
     @Autowired
     private RestHighLevelClient client;
     @Autowired
-    private SearchMapper searchMapper;
+    private TagSchemaCatalog tagSchemaCatalog;
     @Autowired
     private Connection hbaseConnection;
     @Autowired
+    private HbaseBatchReader hbaseBatchReader;
+    @Autowired
     RestTemplate restTemplate;
     @Value("${elasticsearch.host}")
     private String esHost;
@@ -206,7 +207,8 @@ public class ESQueryService {
             return commonResponse;
         }
         //查询对象编码对应的es索引
-        TagObject tagObject = searchMapper.queryTagObjectByCode(jsonObjectRequest.get("object_code").toString());
+        TagSchemaCatalog.TagSchema tagSchema = tagSchemaCatalog.getTagSchema(jsonObjectRequest.get("object_code").toString());
+        TagObject tagObject = tagSchema == null ? null : tagSchema.getTagObject();
         if (tagObject == null) {
             commonResponse.setSuccess(false);
             commonResponse.setMessage("object_code对应的标签对象不存在");
@@ -224,11 +226,7 @@ public class ESQueryService {
             commonResponse.setMessage(tagObject.getCode() + " 标签对象没有配置列信息");
             return commonResponse;
         } else {
-            Map<String, String> columnAttributeTmp = new HashMap<>();
-            for (int i = 0; i < tagObject.getColumns().size(); i++) {
-                Map<String, String> column = (Map<String, String>) tagObject.getColumns().get(i);
-                columnAttributeTmp.put(column.get("name"), column.get("type"));
-            }
+            Map<String, String> columnAttributeTmp = tagSchema.getColumnAttribute();
             if (jsonObjectRequest.get("column") == null || StringUtils.isEmpty(jsonObjectRequest.getString("column"))) {
                 columnAttribute = columnAttributeTmp;
             } else {
@@ -335,7 +333,7 @@ public class ESQueryService {
                     JSONObject finalJsonObject = subJsonArray.getJSONObject(j);
                     //处理组合标签
                     if (finalJsonObject.containsKey("item_complex_name")) {
-                        String complexFilter = searchMapper.findTagItemComplexByName(finalJsonObject.getString("item_complex_name"), tagObject.getId());
+                        String complexFilter = tagSchemaCatalog.findTagItemComplexByName(finalJsonObject.getString("item_complex_name"), tagObject.getId());
                         if(StringUtils.isEmpty(complexFilter)){
                             commonResponse.setSuccess(false);
                             commonResponse.setMessage("组合标签不存在："+finalJsonObject.getString("item_complex_name"));
@@ -449,7 +447,7 @@ public class ESQueryService {
             }
         }
 
-        List<Map<String, Object>> hbaseResult = getDataBatch("bigdata:" + tagObject.getTable(), rowKeys, columnAttribute);
+        List<Map<String, Object>> hbaseResult = getDataBatch("bigdata:" + tagObject.getTable(), rowKeys, columnAttribute, tagSchema);
         if (original_req || scroll_search) {
             CommonScrollResponse commonScrollResponse = new CommonScrollResponse();
             commonScrollResponse.setScroll_id(scroll_id_result);
@@ -468,58 +466,37 @@ public class ESQueryService {
      * @return
      */
     public List<Map<String, Object>> getDataBatch(String tableName, List<String> rowKeys, Map<String, String> columnAttribute) {
-        List<Map<String, Object>> dataResult = new ArrayList<Map<String, Object>>();
+        return getDataBatch(tableName, rowKeys, columnAttribute, null);
+    }
+
+    /**
+     * @param tagSchema 不为空时使用按标签对象预先生成的列解析方式
+     */
+    private List<Map<String, Object>> getDataBatch(String tableName, List<String> rowKeys, Map<String, String> columnAttribute,
+                                                   TagSchemaCatalog.TagSchema tagSchema) {
         if (rowKeys == null || rowKeys.size() == 0) {
-            return dataResult;
+            return new ArrayList<Map<String, Object>>();
         }
-        List getList = new ArrayList<>();
-        try {
-            Table table = hbaseConnection.getAdmin().getConnection().getTable(TableName.valueOf(tableName));
-            rowKeys.forEach(rowKey -> {
-                Get get = new Get(Bytes.toBytes(rowKey));
-                getList.add(get);
-            });
-            Result[] results = table.get(getList);
-            Arrays.stream(results).forEach(result -> {
-                Map<String, Object> data = new HashMap<>();
-                if (columnAttribute.containsKey("rowkey")) {
-                    data.put("rowkey", new StringBuffer(Bytes.toString(result.getRow())).reverse().toString());
+        Map<String, HbaseBatchReader.ColumnDecoder> decoders;
+        if (tagSchema == null) {
+            decoders = HbaseBatchReader.compileDecoders(columnAttribute);
+        } else if (columnAttribute == tagSchema.getColumnAttribute()) {
+            decoders = tagSchema.getDecoders();
+        } else {
+            decoders = new HashMap<>();
+            for (String column : columnAttribute.keySet()) {
+                HbaseBatchReader.ColumnDecoder decoder = tagSchema.getDecoders().get(column);
+                if (decoder != null) {
+                    decoders.put(column, decoder);
                 }
-                Arrays.stream(result.rawCells()).forEach(cell -> {
-                    String qualifier = Bytes.toString(CellUtil.cloneQualifier(cell));
-                    if (columnAttribute != null && (!StringUtils.isEmpty(columnAttribute.get(qualifier)))) {
-                        String type = columnAttribute.get(qualifier).toLowerCase();
-                        try {
-                            if (type.contains("int")) {
-                                data.put(qualifier, Bytes.toInt(CellUtil.cloneValue(cell)));
-                            } else if (type.contains("float")) {
-                                data.put(qualifier, Bytes.toFloat(CellUtil.cloneValue(cell)));
-                            } else {
-                                String value = Bytes.toString(CellUtil.cloneValue(cell));
-                                if (value.startsWith("{") && value.endsWith("}")) {
-                                    data.put(qualifier, JSONObject.parseObject(value));
-                                } else {
-                                    data.put(qualifier, value);
-                                }
-                            }
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                            String value = Bytes.toString(CellUtil.cloneValue(cell));
-                            if (value.startsWith("{") && value.endsWith("}")) {
-                                data.put(qualifier, JSONObject.parseObject(value));
-                            } else {
-                                data.put(qualifier, value);
-                            }
-                        }
-                    }
-                });
-                dataResult.add(data);
-            });
+            }
+        }
+        try {
+            return hbaseBatchReader.getDataBatch(tableName, rowKeys, decoders);
         } catch (IOException e) {
             e.printStackTrace();
-            return dataResult;
+            return new ArrayList<Map<String, Object>>();
         }
-        return dataResult;
     }
 
     public CommonResponse queryApiDoc(String object_code) {
@@ -529,7 +506,7 @@ public class ESQueryService {
             commonResponse.setMessage("object_code必传");
             return commonResponse;
         }
-        TagObject tagObject = searchMapper.queryTagObjectByCode(object_code);
+        TagObject tagObject = tagSchemaCatalog.queryTagObjectByCode(object_code);
         if (tagObject == null) {
             commonResponse.setSuccess(false);
             commonResponse.setMessage("object_code对应的标签对象不存在");
@@ -595,7 +572,7 @@ public class ESQueryService {
             return commonResponse;
         }
         String rowkey = new StringBuffer(queryDataByRowKeyReq.getId()).reverse().toString();
-        TagObject tagObject = searchMapper.queryTagObjectByCode(queryDataByRowKeyReq.getTagObjectCode());
+        TagObject tagObject = tagSchemaCatalog.queryTagObjectByCode(queryDataByRowKeyReq.getTagObjectCode());
         if (tagObject == null) {
             commonResponse.setSuccess(false);
             commonResponse.setMessage("标签对象不存在");
@@ -616,8 +593,7 @@ public class ESQueryService {
                 columnAttribute.put(column.get("name"), column.get("type"));
             }
         }
-        try {
-            Table table = hbaseConnection.getAdmin().getConnection().getTable(TableName.valueOf(tableName));
+        try (Table table = hbaseConnection.getTable(TableName.valueOf(tableName))) {
             Get get = new Get(rowkey.getBytes());
             Result result = table.get(get);
             QueryDataByRowKeyResponse queryDataByRowKeyResponse = new QueryDataByRowKeyResponse();
@@ -0,0 +1,203 @@
+package com.cloudminds.bigdata.dataservice.quoto.search.service;
+
+import com.alibaba.fastjson.JSONObject;
+import com.cloudminds.bigdata.dataservice.quoto.search.config.HbaseConfig;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 按rowkey批量查询hbase
+ * rowkey按所在的region server分组,每组再按fetchChunkSize切块,各块在hbaseFetchExecutor上并发multi-get,
+ * 只查询选中的列,每列的解析方式按列类型预先确定
+ */
+@Service
+public class HbaseBatchReader {
+    @Autowired
+    private Connection hbaseConnection;
+    @Autowired
+    private ExecutorService hbaseFetchExecutor;
+    @Autowired
+    private HbaseConfig hbaseConfig;
+
+    /**
+     * 单元格的值解析为返回的数据
+     */
+    public interface ColumnDecoder {
+        Object decode(byte[] bytes, int offset, int length);
+    }
+
+    private static final ColumnDecoder STRING_DECODER = (bytes, offset, length) -> {
+        String value = Bytes.toString(bytes, offset, length);
+        if (value.startsWith("{") && value.endsWith("}")) {
+            return JSONObject.parseObject(value);
+        }
+        return value;
+    };
+
+    private static final ColumnDecoder INT_DECODER = (bytes, offset, length) -> {
+        if (length != Bytes.SIZEOF_INT) {
+            return STRING_DECODER.decode(bytes, offset, length);
+        }
+        return Bytes.toInt(bytes, offset, length);
+    };
+
+    private static final ColumnDecoder FLOAT_DECODER = (bytes, offset, length) -> {
+        if (length != Bytes.SIZEOF_FLOAT) {
+            return STRING_DECODER.decode(bytes, offset, length);
+        }
+        return Bytes.toFloat(bytes, offset);
+    };
+
+    /**
+     * 按标签对象的列类型确定每列的解析方式,和原来逐个单元格判断类型的结果一致
+     *
+     * @param columnAttribute 列名 -> 列类型
+     * @return 列名 -> 解析方式
+     */
+    public static Map<String, ColumnDecoder> compileDecoders(Map<String, String> columnAttribute) {
+        Map<String, ColumnDecoder> decoders = new HashMap<>();
+        if (columnAttribute == null) {
+            return decoders;
+        }
+        for (Map.Entry<String, String> entry : columnAttribute.entrySet()) {
+            if (StringUtils.isEmpty(entry.getValue())) {
+                continue;
+            }
+            String type = entry.getValue().toLowerCase();
+            if (type.contains("int")) {
+                decoders.put(entry.getKey(), INT_DECODER);
+            } else if (type.contains("float")) {
+                decoders.put(entry.getKey(), FLOAT_DECODER);
+            } else {
+                decoders.put(entry.getKey(), STRING_DECODER);
+            }
+        }
+        return decoders;
+    }
+
+    /**
+     * @param tableName hbase表名
+     * @param rowKeys   表的rowkey数组
+     * @param decoders  要返回的列及解析方式,包含rowkey时返回反转后的rowkey
+     * @return 和rowKeys顺序一致,不存在的rowkey对应空的数据
+     */
+    public List<Map<String, Object>> getDataBatch(String tableName, List<String> rowKeys, Map<String, ColumnDecoder> decoders) throws IOException {
+        List<Map<String, Object>> dataResult = new ArrayList<>(rowKeys.size());
+        if (rowKeys.isEmpty()) {
+            return dataResult;
+        }
+        TableName table = TableName.valueOf(tableName);
+        byte[] family = Bytes.toBytes(hbaseConfig.getDataFamily());
+        List<byte[]> qualifiers = new ArrayList<>(decoders.size());
+        for (String column : decoders.keySet()) {
+            if (!column.equals("rowkey")) {
+                qualifiers.add(Bytes.toBytes(column));
+            }
+        }
+
+        Result[] results = new Result[rowKeys.size()];
+        List<Future<?>> futures = new ArrayList<>();
+        for (int[] chunk : split(table, rowKeys)) {
+            List<Get> gets = new ArrayList<>(chunk.length);
+            for (int index : chunk) {
+                Get get = new Get(Bytes.toBytes(rowKeys.get(index)));
+                for (byte[] qualifier : qualifiers) {
+                    get.addColumn(family, qualifier);
+                }
+                gets.add(get);
+            }
+            futures.add(hbaseFetchExecutor.submit(() -> {
+                // Table不是线程安全的,每块单独获取,用完关闭
+                try (Table t = hbaseConnection.getTable(table)) {
+                    Result[] chunkResults = t.get(gets);
+                    for (int i = 0; i < chunk.length; i++) {
+                        results[chunk[i]] = chunkResults[i];
+                    }
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(futures);
+            throw new IOException("查询hbase被中断", e);
+        } catch (ExecutionException e) {
+            cancel(futures);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+
+        boolean withRowKey = decoders.containsKey("rowkey");
+        for (int i = 0; i < results.length; i++) {
+            Map<String, Object> data = new HashMap<>();
+            if (withRowKey) {
+                data.put("rowkey", new StringBuffer(rowKeys.get(i)).reverse().toString());
+            }
+            for (Cell cell : results[i].rawCells()) {
+                String qualifier = Bytes.toString(cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength());
+                ColumnDecoder decoder = decoders.get(qualifier);
+                if (decoder != null) {
+                    data.put(qualifier, decoder.decode(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength()));
+                }
+            }
+            dataResult.add(data);
+        }
+        return dataResult;
+    }
+
+    /**
+     * 按region server分组后切块,每块是rowKeys里的下标
+     */
+    private List<int[]> split(TableName table, List<String> rowKeys) throws IOException {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        try (RegionLocator locator = hbaseConnection.getRegionLocator(table)) {
+            for (int i = 0; i < rowKeys.size(); i++) {
+                // region位置有客户端缓存,不会每次都请求meta表
+                HRegionLocation location = locator.getRegionLocation(Bytes.toBytes(rowKeys.get(i)));
+                String server = location == null || location.getServerName() == null ? "" : location.getServerName().toString();
+                groups.computeIfAbsent(server, k -> new ArrayList<>()).add(i);
+            }
+        }
+        int chunkSize = Math.max(1, hbaseConfig.getFetchChunkSize());
+        List<int[]> chunks = new ArrayList<>();
+        for (List<Integer> group : groups.values()) {
+            for (int start = 0; start < group.size(); start += chunkSize) {
+                List<Integer> sub = group.subList(start, Math.min(group.size(), start + chunkSize));
+                int[] chunk = new int[sub.size()];
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = sub.get(i);
+                }
+                chunks.add(chunk);
+            }
+        }
+        return chunks;
+    }
+
+    private static void cancel(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
@@ -7,6 +7,8 @@ import com.cloudminds.bigdata.dataservice.quoto.search.entity.dataset.CsvImportR
 import com.cloudminds.bigdata.dataservice.quoto.search.entity.dataset.DataSet;
 import com.cloudminds.bigdata.dataservice.quoto.search.mapper.DataSetMapper;
 import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Async;
@@ -15,11 +17,25 @@ import org.springframework.stereotype.Service;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 public class SaveCsvDataService {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private static final int TYPE_STRING = 0;
+    private static final int TYPE_INT = 1;
+    private static final int TYPE_LONG = 2;
+    private static final int TYPE_FLOAT = 3;
+    private static final int TYPE_DOUBLE = 4;
+
     @Value("${ckUrl}")
     private String ckUrl;
     @Value("${ckUser}")
@@ -28,62 +44,73 @@ public class SaveCsvDataService {
     private String ckPassword;
     @Value("${ckDataSetDB}")
     private String ckDataSetDB;
+    //每批插入的行数
+    @Value("${csvBatchSize:50000}")
+    private int csvBatchSize;
+    //同时上传的批次数
+    @Value("${csvUploadThreads:2}")
+    private int csvUploadThreads;
+    //单个批次失败后的重试次数
+    @Value("${csvBatchRetry:2}")
+    private int csvBatchRetry;
     @Autowired
     private DataSetMapper dataSetMapper;
 
+    /**
+     * 边读csv边导入,每读满一批就交给上传线程用预编译语句批量插入,
+     * 正在上传和等待上传的批次最多csvUploadThreads+1个,内存占用和文件大小无关
+     */
     @Async("csvTaskExecutor")
     public void csvInsertData(DataSet dataSet, Iterator<String[]> iterator, String fileName, boolean cover) {
         dataSetMapper.updateDataSetState(1, "上传中", dataSet.getId());
-        //判断哪几列是String,需要加单引号
-        Set<Integer> stringColumn = new HashSet<>();
-        for (int j = 0; j < dataSet.getData_columns().size(); j++) {
-            Column column = dataSet.getData_columns().get(j);
-            if (column.getType().toLowerCase().equals("string")) {
-                stringColumn.add(j);
-            }
+        List<Column> columns = dataSet.getData_columns();
+        int[] types = new int[columns.size()];
+        String columnNames = "";
+        String placeholders = "";
+        for (int j = 0; j < columns.size(); j++) {
+            types[j] = getType(columns.get(j).getType());
+            columnNames = columnNames + (j == 0 ? "" : ",") + columns.get(j).getName();
+            placeholders = placeholders + (j == 0 ? "?" : ",?");
         }
-        Connection conn = null;
-        PreparedStatement pStemt = null;
+        String insertSql = "insert into " + ckDataSetDB + "." + dataSet.getMapping_ck_table() + " (" + columnNames + ") values (" + placeholders + ")";
+
+        ExecutorService uploadExecutor = Executors.newFixedThreadPool(csvUploadThreads);
+        Semaphore permits = new Semaphore(csvUploadThreads + 1);
+        AtomicLong importedRows = new AtomicLong();
+        AtomicReference<String> error = new AtomicReference<>();
+        long rowNum = 0;
         try {
-            conn = DriverManager.getConnection(ckUrl, ckUser, ckPassword);
-            //导入数据
-            int i = 0;
-            String sql = "";
-            String insertSqlStart = "insert into " + ckDataSetDB + "." + dataSet.getMapping_ck_table() + " values ";
-            while (iterator.hasNext()) {
-                i++;
-                String[] next = iterator.next();
-                for (int m : stringColumn) {
-                    next[m] = "'" + next[m] + "'";
-                }
-                sql = sql + "(" + StringUtils.join(next, ",") + "),";
-                if (i == 50000) {
-                    //批量插入ck
-                    pStemt = conn.prepareStatement(insertSqlStart + sql);
-                    pStemt.execute();
-                    i = 0;
-                    sql = "";
+            List<Object[]> batch = new ArrayList<>(csvBatchSize);
+            long batchStart = 1;
+            while (iterator.hasNext() && error.get() == null) {
+                rowNum++;
+                batch.add(parseRow(iterator.next(), types, columns, rowNum));
+                if (batch.size() == csvBatchSize) {
+                    submit(uploadExecutor, permits, insertSql, types, batch, batchStart, importedRows, error, dataSet.getId());
+                    batch = new ArrayList<>(csvBatchSize);
+                    batchStart = rowNum + 1;
                 }
             }
-            if (i != 0) {
-                System.out.println(insertSqlStart + sql);
-                pStemt = conn.prepareStatement(insertSqlStart + sql);
-                pStemt.execute();
+            if (!batch.isEmpty() && error.get() == null) {
+                submit(uploadExecutor, permits, insertSql, types, batch, batchStart, importedRows, error, dataSet.getId());
             }
-
         } catch (Exception e) {
-            e.printStackTrace();
-            //更新表状态
-            dataSetMapper.updateDataSetState(3, e.getMessage(), dataSet.getId());
-            return;
+            logger.error("数据集{}导入失败,已读取{}行", dataSet.getId(), rowNum, e);
+            error.compareAndSet(null, e.getMessage());
         } finally {
+            uploadExecutor.shutdown();
             try {
-                pStemt.close();
-                conn.close();
-            } catch (Exception ee) {
-                ee.printStackTrace();
+                uploadExecutor.awaitTermination(1, TimeUnit.HOURS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error.compareAndSet(null, "导入被中断");
             }
         }
+        if (error.get() != null) {
+            //更新表状态
+            dataSetMapper.updateDataSetState(3, error.get() + ",已导入" + importedRows.get() + "行", dataSet.getId());
+            return;
+        }
         //更新表导入信息和状态
         String dataRule = dataSet.getData_rule();
         List<CsvImportRecord> csvImportRecordList = null;
@@ -107,6 +134,120 @@ public class SaveCsvDataService {
         csvImportRecordList.add(csvImportRecord);
         dataRule = JSON.toJSONString(csvImportRecordList);
         dataSetMapper.updateDataSetDataRule(dataSet.getId(), dataRule);
-        dataSetMapper.updateDataSetState(2, "执行完成", dataSet.getId());
+        dataSetMapper.updateDataSetState(2, "执行完成,共导入" + importedRows.get() + "行", dataSet.getId());
+    }
+
+    /**
+     * 提交一个批次,上传中的批次已满时等待
+     */
+    private void submit(ExecutorService uploadExecutor, Semaphore permits, String insertSql, int[] types, List<Object[]> batch,
+                        long batchStart, AtomicLong importedRows, AtomicReference<String> error, int dataSetId) throws InterruptedException {
+        permits.acquire();
+        uploadExecutor.execute(() -> {
+            try {
+                if (error.get() == null) {
+                    uploadBatch(insertSql, types, batch, batchStart);
+                    synchronized (importedRows) {
+                        long rows = importedRows.addAndGet(batch.size());
+                        dataSetMapper.updateDataSetState(1, "上传中,已导入" + rows + "行", dataSetId);
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("数据集{}第{}行开始的{}行导入失败", dataSetId, batchStart, batch.size(), e);
+                error.compareAndSet(null, "第" + batchStart + "行开始的" + batch.size() + "行导入失败:" + e.getMessage());
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    /**
+     * 用预编译语句批量插入一个批次,失败时重试
+     */
+    private void uploadBatch(String insertSql, int[] types, List<Object[]> batch, long batchStart) throws SQLException, InterruptedException {
+        for (int retry = 0; ; retry++) {
+            try (Connection conn = DriverManager.getConnection(ckUrl, ckUser, ckPassword);
+                 PreparedStatement pStemt = conn.prepareStatement(insertSql)) {
+                for (Object[] row : batch) {
+                    for (int j = 0; j < types.length; j++) {
+                        switch (types[j]) {
+                            case TYPE_INT:
+                                pStemt.setInt(j + 1, (Integer) row[j]);
+                                break;
+                            case TYPE_LONG:
+                                pStemt.setLong(j + 1, (Long) row[j]);
+                                break;
+                            case TYPE_FLOAT:
+                                pStemt.setFloat(j + 1, (Float) row[j]);
+                                break;
+                            case TYPE_DOUBLE:
+                                pStemt.setDouble(j + 1, (Double) row[j]);
+                                break;
+                            default:
+                                pStemt.setString(j + 1, (String) row[j]);
+                                break;
+                        }
+                    }
+                    pStemt.addBatch();
+                }
+                pStemt.executeBatch();
+                return;
+            } catch (SQLException e) {
+                if (retry >= csvBatchRetry) {
+                    throw e;
+                }
+                logger.warn("第{}行开始的批次导入失败,第{}次重试", batchStart, retry + 1, e);
+                Thread.sleep(1000L * (retry + 1));
+            }
+        }
+    }
+
+    /**
+     * 按列类型转换一行,和建表时的类型对应
+     */
+    private Object[] parseRow(String[] next, int[] types, List<Column> columns, long rowNum) {
+        if (next.length < types.length) {
+            throw new IllegalArgumentException("第" + rowNum + "行只有" + next.length + "列,数据集有" + types.length + "列");
+        }
+        Object[] row = new Object[types.length];
+        for (int j = 0; j < types.length; j++) {
+            String value = next[j];
+            if (types[j] == TYPE_STRING) {
+                row[j] = value;
+                continue;
+            }
+            try {
+                switch (types[j]) {
+                    case TYPE_INT:
+                        row[j] = Integer.valueOf(value.trim());
+                        break;
+                    case TYPE_LONG:
+                        row[j] = Long.valueOf(value.trim());
+                        break;
+                    case TYPE_FLOAT:
+                        row[j] = Float.valueOf(value.trim());
+                        break;
+                    default:
+                        row[j] = Double.valueOf(value.trim());
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("第" + rowNum + "行" + columns.get(j).getName() + "列的值(" + value + ")不是" + columns.get(j).getType());
+            }
+        }
+        return row;
+    }
+
+    private static int getType(String type) {
+        if (type.equals("int")) {
+            return TYPE_INT;
+        } else if (type.equals("long")) {
+            return TYPE_LONG;
+        } else if (type.equals("float")) {
+            return TYPE_FLOAT;
+        } else if (type.equals("double")) {
+            return TYPE_DOUBLE;
+        }
+        return TYPE_STRING;
     }
 }
@@ -0,0 +1,137 @@
+package com.cloudminds.bigdata.dataservice.quoto.search.service;
+
+import com.cloudminds.bigdata.dataservice.quoto.search.entity.TagObject;
+import com.cloudminds.bigdata.dataservice.quoto.search.mapper.SearchMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 标签对象(es索引、hbase表、列类型)和组合标签过滤条件的内存缓存
+ * 一次加载全部,每隔tagSchemaCheckInterval查一次版本(数量和组合标签最后修改时间),
+ * 标签管理里有增删改时重新加载;超过tagSchemaTtl也重新加载,返回的对象只读
+ */
+@Service
+public class TagSchemaCatalog {
+    @Autowired
+    private SearchMapper searchMapper;
+    //检查版本的间隔(毫秒)
+    @Value("${tagSchemaCheckInterval:10000}")
+    private long checkInterval;
+    //没有检查到变化时最长的缓存时间(毫秒)
+    @Value("${tagSchemaTtl:300000}")
+    private long ttl;
+
+    private volatile Snapshot snapshot;
+    private final AtomicLong lastCheckTime = new AtomicLong();
+
+    /**
+     * 标签对象及按它的列预先生成的信息
+     */
+    public static class TagSchema {
+        private final TagObject tagObject;
+        private final Map<String, String> columnAttribute;
+        private final Map<String, HbaseBatchReader.ColumnDecoder> decoders;
+
+        @SuppressWarnings("unchecked")
+        private TagSchema(TagObject tagObject) {
+            this.tagObject = tagObject;
+            Map<String, String> columnAttribute = new HashMap<>();
+            if (tagObject.getColumns() != null) {
+                for (Object item : tagObject.getColumns()) {
+                    Map<String, String> column = (Map<String, String>) item;
+                    columnAttribute.put(column.get("name"), column.get("type"));
+                }
+            }
+            this.columnAttribute = Collections.unmodifiableMap(columnAttribute);
+            this.decoders = Collections.unmodifiableMap(HbaseBatchReader.compileDecoders(columnAttribute));
+        }
+
+        public TagObject getTagObject() {
+            return tagObject;
+        }
+
+        /**
+         * 列名 -> 列类型
+         */
+        public Map<String, String> getColumnAttribute() {
+            return columnAttribute;
+        }
+
+        /**
+         * 列名 -> hbase单元格的解析方式
+         */
+        public Map<String, HbaseBatchReader.ColumnDecoder> getDecoders() {
+            return decoders;
+        }
+    }
+
+    private static class Snapshot {
+        private final String version;
+        private final long loadTime = System.currentTimeMillis();
+        private final Map<String, TagSchema> schemaByCode = new HashMap<>();
+        // tag_object_id + "," + name -> filter
+        private final Map<String, String> complexFilter = new HashMap<>();
+
+        private Snapshot(String version) {
+            this.version = version;
+        }
+    }
+
+    public TagSchema getTagSchema(String code) {
+        return code == null ? null : current().schemaByCode.get(code);
+    }
+
+    public TagObject queryTagObjectByCode(String code) {
+        TagSchema schema = getTagSchema(code);
+        return schema == null ? null : schema.getTagObject();
+    }
+
+    public String findTagItemComplexByName(String name, int tag_object_id) {
+        return current().complexFilter.get(tag_object_id + "," + name);
+    }
+
+    /**
+     * 立即重新加载
+     */
+    public synchronized void reload() {
+        Snapshot loaded = new Snapshot(searchMapper.queryTagSchemaVersion());
+        for (TagObject tagObject : searchMapper.queryAllTagObject()) {
+            loaded.schemaByCode.put(tagObject.getCode(), new TagSchema(tagObject));
+        }
+        for (Map<String, Object> item : searchMapper.queryAllTagItemComplexFilter()) {
+            Object filter = item.get("filter");
+            loaded.complexFilter.put(item.get("tag_object_id") + "," + item.get("name"), filter == null ? null : filter.toString());
+        }
+        snapshot = loaded;
+        lastCheckTime.set(System.currentTimeMillis());
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    reload();
+                }
+                return snapshot;
+            }
+        }
+        long now = System.currentTimeMillis();
+        long last = lastCheckTime.get();
+        // 只有一个线程去检查,其它线程继续用当前的缓存
+        if (now - last >= checkInterval && lastCheckTime.compareAndSet(last, now)) {
+            try {
+                if (now - current.loadTime >= ttl || !Objects.equals(current.version, searchMapper.queryTagSchemaVersion())) {
+                    reload();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return snapshot;
+    }
+}